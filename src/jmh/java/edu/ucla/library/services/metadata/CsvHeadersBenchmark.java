@@ -0,0 +1,71 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-file cost of making sense of a CSV file's header row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CsvHeadersBenchmark {
+
+    /**
+     * A header row that already has the media columns.
+     */
+    private final String[] myEnrichedHeader = MetadataSetter.buildHeaderRow(SyntheticCsv.HEADER);
+
+    /**
+     * Finds the index positions of the columns we read and write.
+     *
+     * @return The CSV headers
+     */
+    @Benchmark
+    public CsvHeaders parseHeaders() {
+        return new CsvHeaders(myEnrichedHeader);
+    }
+
+    /**
+     * Checks whether a header row that doesn't have the media columns has them.
+     *
+     * @return Whether the media columns are present
+     */
+    @Benchmark
+    public boolean checkMissingMetaFields() {
+        return MetadataSetter.allMetaFieldsPresent(SyntheticCsv.HEADER);
+    }
+
+    /**
+     * Checks whether a header row that has the media columns has them.
+     *
+     * @return Whether the media columns are present
+     */
+    @Benchmark
+    public boolean checkPresentMetaFields() {
+        return MetadataSetter.allMetaFieldsPresent(myEnrichedHeader);
+    }
+
+    /**
+     * Adds the media columns to a header row.
+     *
+     * @return The output header row
+     */
+    @Benchmark
+    public String[] buildHeaderRow() {
+        return MetadataSetter.buildHeaderRow(SyntheticCsv.HEADER);
+    }
+}
@@ -0,0 +1,113 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import picocli.CommandLine;
+
+/**
+ * Measures end-to-end CSV throughput: reading a synthetic CSV file, enriching every row, and writing the output file.
+ * A stub prober stands in for ffprobe, so the result is the cost of our CSV handling for a file of the given size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class CsvThroughputBenchmark {
+
+    /**
+     * The number of data rows in the synthetic CSV file.
+     */
+    @Param({ "1000", "100000", "1000000" })
+    int myRowCount;
+
+    /**
+     * The number of rows to enrich concurrently.
+     */
+    @Param("1")
+    int myThreads;
+
+    /**
+     * The directory holding the benchmark's CSV, media, and output files.
+     */
+    private Path myWorkDir;
+
+    /**
+     * The synthetic CSV file.
+     */
+    private Path myCsvFile;
+
+    /**
+     * The directory holding the media files the CSV file lists.
+     */
+    private Path myMediaDir;
+
+    /**
+     * The directory where the output file is written.
+     */
+    private Path myOutputDir;
+
+    /**
+     * Writes the synthetic CSV file and the media files it lists.
+     *
+     * @throws IOException If the files can't be written
+     */
+    @Setup
+    public void setUp() throws IOException {
+        myWorkDir = Files.createTempDirectory("metagetter-throughput");
+        myCsvFile = myWorkDir.resolve("synthetic.csv");
+        myMediaDir = Files.createDirectory(myWorkDir.resolve("media"));
+        myOutputDir = Files.createDirectory(myWorkDir.resolve("output"));
+
+        SyntheticCsv.writeMedia(myMediaDir);
+        SyntheticCsv.writeCsv(myCsvFile, myRowCount);
+    }
+
+    /**
+     * Deletes the benchmark's files.
+     *
+     * @throws IOException If the files can't be deleted
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticCsv.delete(myWorkDir);
+    }
+
+    /**
+     * Adds A/V metadata to the synthetic CSV file, as a run from the command line would.
+     *
+     * @return The run's exit code
+     */
+    @Benchmark
+    public int addMetadata() {
+        final MediaPathResolver resolver = new MediaPathResolver(List.of(myMediaDir.toString()), false);
+        final MetadataSetter metadataSetter = new MetadataSetter(new StubMediaProber(), resolver);
+        final int exitCode = new CommandLine(metadataSetter).execute("--threads", String.valueOf(myThreads),
+                myCsvFile.toString(), myMediaDir.toString(), "ffprobe", myOutputDir.toString());
+
+        if (exitCode != ExitCodes.SUCCESS) {
+            throw new IllegalStateException("Run failed with exit code: " + exitCode);
+        }
+
+        return exitCode;
+    }
+}
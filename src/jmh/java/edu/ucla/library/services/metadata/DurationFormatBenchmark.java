@@ -0,0 +1,65 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-row cost of formatting a media file's duration for the Format.extent column.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DurationFormatBenchmark {
+
+    /**
+     * The number of durations that are formatted in turn (a power of two).
+     */
+    private static final int DURATION_COUNT = 1024;
+
+    /**
+     * Durations of up to three hours, in seconds.
+     */
+    private final double[] myDurations = new double[DURATION_COUNT];
+
+    /**
+     * The index of the next duration to format.
+     */
+    private int myIndex;
+
+    /**
+     * Sets up the durations.
+     */
+    @Setup
+    public void setUp() {
+        final Random random = new Random(DURATION_COUNT);
+
+        for (int index = 0; index < DURATION_COUNT; index++) {
+            myDurations[index] = random.nextDouble() * 3 * Constants.ONE_HOUR;
+        }
+    }
+
+    /**
+     * Formats a duration.
+     *
+     * @return The formatted duration
+     */
+    @Benchmark
+    public String formatExtent() {
+        return MetadataSetter.formatExtent(myDurations[myIndex++ & DURATION_COUNT - 1]);
+    }
+}
@@ -0,0 +1,100 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.bramp.ffmpeg.FFprobe;
+
+/**
+ * Measures the per-row cost of creating an FFprobe wrapper for every row, as opposed to reusing the run's shared
+ * {@link FfProbeMediaProber}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FfProbeMediaProberBenchmark {
+
+    /**
+     * The path to the ffprobe executable.
+     */
+    @Param("/usr/bin/ffprobe")
+    String myFfprobePath;
+
+    /**
+     * The media file that's probed.
+     */
+    @Param("src/test/resources/media/ephraim/video/crowd.mpg")
+    String myMediaFile;
+
+    /**
+     * The shared media prober.
+     */
+    private FfProbeMediaProber myProber;
+
+    /**
+     * The path of the media file that's probed.
+     */
+    private Path myMediaPath;
+
+    /**
+     * Sets up the shared media prober, validating the ffprobe executable once as a run does.
+     *
+     * @throws IOException If the ffprobe executable can't be run
+     */
+    @Setup
+    public void setUp() throws IOException {
+        myProber = new FfProbeMediaProber(myFfprobePath);
+        myProber.version();
+        myMediaPath = Path.of(myMediaFile);
+    }
+
+    /**
+     * Creates an FFprobe wrapper the way every row used to, isolating the construction cost.
+     *
+     * @return A new FFprobe wrapper
+     * @throws IOException If the wrapper can't be created
+     */
+    @Benchmark
+    public FFprobe createPerRow() throws IOException {
+        return new FFprobe(myFfprobePath);
+    }
+
+    /**
+     * Probes the media file with a new FFprobe wrapper, as every row used to.
+     *
+     * @return The media info for the media file
+     * @throws IOException If the media file can't be probed
+     */
+    @Benchmark
+    public MediaInfo probeWithNewInstance() throws IOException {
+        return MediaInfo.fromProbeResult(new FFprobe(myFfprobePath).probe(myMediaPath.toString()));
+    }
+
+    /**
+     * Probes the media file with the shared media prober.
+     *
+     * @return The media info for the media file
+     * @throws IOException If the media file can't be probed
+     */
+    @Benchmark
+    public MediaInfo probeWithSharedInstance() throws IOException {
+        return myProber.probe(myMediaPath);
+    }
+}
@@ -0,0 +1,94 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the per-file latency of the default (full JSON) probe with the lean probe, on the test media.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class LeanProbeBenchmark {
+
+    /**
+     * The path to the ffprobe executable.
+     */
+    @Param("/usr/bin/ffprobe")
+    String myFfprobePath;
+
+    /**
+     * The media file that's probed.
+     */
+    @Param({ "src/test/resources/media/ephraim/video/crowd.mpg",
+        "src/test/resources/media/ephraim/images/uclamss_1411_0101-0103i.jpg" })
+    String myMediaFile;
+
+    /**
+     * A prober that asks ffprobe for the full JSON description of a file.
+     */
+    private FfProbeMediaProber myFullProber;
+
+    /**
+     * A prober that asks ffprobe for only the values we use.
+     */
+    private FfProbeMediaProber myLeanProber;
+
+    /**
+     * The path of the media file that's probed.
+     */
+    private Path myMediaPath;
+
+    /**
+     * Sets up the probers.
+     *
+     * @throws IOException If the ffprobe executable can't be run
+     */
+    @Setup
+    public void setUp() throws IOException {
+        myFullProber = new FfProbeMediaProber(myFfprobePath, false);
+        myLeanProber = new FfProbeMediaProber(myFfprobePath, true);
+        myFullProber.version();
+        myLeanProber.version();
+        myMediaPath = Path.of(myMediaFile);
+    }
+
+    /**
+     * Probes the media file for its full JSON description.
+     *
+     * @return The media info for the media file
+     * @throws IOException If the media file can't be probed
+     */
+    @Benchmark
+    public MediaInfo probeFull() throws IOException {
+        return myFullProber.probe(myMediaPath);
+    }
+
+    /**
+     * Probes the media file for only the values we use.
+     *
+     * @return The media info for the media file
+     * @throws IOException If the media file can't be probed
+     */
+    @Benchmark
+    public MediaInfo probeLean() throws IOException {
+        return myLeanProber.probe(myMediaPath);
+    }
+}
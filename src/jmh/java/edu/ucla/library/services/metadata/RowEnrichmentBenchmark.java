@@ -0,0 +1,121 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-row cost of copying and enriching a CSV row, with a stub prober standing in for ffprobe so only our
+ * own work (path resolution, MIME type detection, and filling in the columns) is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RowEnrichmentBenchmark {
+
+    /**
+     * The number of rows that are enriched in turn (a power of two).
+     */
+    private static final int ROW_COUNT = 4096;
+
+    /**
+     * The rows that are enriched.
+     */
+    private final String[][] myRows = new String[ROW_COUNT][];
+
+    /**
+     * The index positions of the columns in the output file.
+     */
+    private final CsvHeaders myHeaders = new CsvHeaders(MetadataSetter.buildHeaderRow(SyntheticCsv.HEADER));
+
+    /**
+     * The summary to which progress is recorded.
+     */
+    private final CsvSummary mySummary = new CsvSummary(Path.of("synthetic.csv"));
+
+    /**
+     * The directory holding the media files the rows refer to.
+     */
+    private Path myMediaDir;
+
+    /**
+     * The MetadataSetter that enriches the rows.
+     */
+    private MetadataSetter myMetadataSetter;
+
+    /**
+     * The index of the next row to enrich.
+     */
+    private int myIndex;
+
+    /**
+     * Sets up the rows and the media files they refer to.
+     *
+     * @throws IOException If the media files can't be created
+     */
+    @Setup
+    public void setUp() throws IOException {
+        myMediaDir = Files.createTempDirectory("metagetter-media");
+        SyntheticCsv.writeMedia(myMediaDir);
+
+        for (int index = 0; index < ROW_COUNT; index++) {
+            myRows[index] = SyntheticCsv.row(index + 1);
+        }
+
+        myMetadataSetter = new MetadataSetter(new StubMediaProber(),
+                new MediaPathResolver(List.of(myMediaDir.toString()), false));
+    }
+
+    /**
+     * Deletes the media files.
+     *
+     * @throws IOException If the media files can't be deleted
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticCsv.delete(myMediaDir);
+    }
+
+    /**
+     * Copies a row into a row with room for the media columns, as a baseline for the enrichment.
+     *
+     * @return The copied row
+     */
+    @Benchmark
+    public String[] copyRow() {
+        final String[] row = myRows[myIndex++ & ROW_COUNT - 1];
+        return Arrays.copyOf(row, row.length + 4);
+    }
+
+    /**
+     * Copies and enriches a row.
+     *
+     * @return The enriched row
+     * @throws FileNotFoundException If a media file can't be found
+     * @throws FileFormatException If a media file doesn't have a file extension
+     */
+    @Benchmark
+    public String[] enrichRow() throws FileNotFoundException, FileFormatException {
+        return myMetadataSetter.buildARow(myHeaders, mySummary, false, myRows[myIndex++ & ROW_COUNT - 1]);
+    }
+}
@@ -0,0 +1,38 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.nio.file.Path;
+
+/**
+ * A media prober that doesn't read the media file, so the benchmarks measure our CSV handling rather than ffprobe.
+ * It answers with fixed media info based on the file's extension.
+ */
+final class StubMediaProber implements MediaProber {
+
+    /**
+     * The media info returned for video files.
+     */
+    private static final MediaInfo VIDEO = new MediaInfo("mpeg", 5423.5, 320, 240);
+
+    /**
+     * The media info returned for audio files.
+     */
+    private static final MediaInfo AUDIO = new MediaInfo("mp3", 757.21, 0, 0);
+
+    /**
+     * The media info returned for everything else.
+     */
+    private static final MediaInfo IMAGE = new MediaInfo("image2", 0.04, 640, 480);
+
+    @Override
+    public MediaInfo probe(final Path aPath) {
+        switch (MimeTypeDetector.getExtension(aPath)) {
+            case "mpg":
+                return VIDEO;
+            case "mp3":
+                return AUDIO;
+            default:
+                return IMAGE;
+        }
+    }
+}
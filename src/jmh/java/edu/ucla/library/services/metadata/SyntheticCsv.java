@@ -0,0 +1,122 @@
+
+package edu.ucla.library.services.metadata;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import com.opencsv.CSVWriter;
+
+/**
+ * Generates synthetic CSV files, and the (empty) media files they list, for the benchmarks. The rows are modeled on
+ * the test fixtures: a mix of video, audio, and image works, with the odd collection row that has no file.
+ */
+final class SyntheticCsv {
+
+    /**
+     * The header row, which is the same as the test fixtures' header row.
+     */
+    static final String[] HEADER = { "Project Name", "Item ARK", "Parent ARK", "Item Status ID", "Item Status",
+        "Object Type", "File Name", "Item Sequence", "Duplicate", "Delete in Title", "Rights.copyrightStatus",
+        "Name.interviewee", "Language", "Type.typeOfResource", "Type.genre", "Name.repository", "Subject",
+        "Name.interviewer", "Name.subject", "Description.note", "Date.creation", "Date.normalized", "Format.extent",
+        "Title", "Alt ID.local", "Description.abstract" };
+
+    /**
+     * The number of distinct media files the rows refer to.
+     */
+    static final int MEDIA_FILE_COUNT = 1000;
+
+    /**
+     * The extensions of the media files, in the order in which rows use them.
+     */
+    private static final String[] EXTENSIONS = { "mpg", "mp3", "jpg", "mp3" };
+
+    /**
+     * One in this many rows is a collection row.
+     */
+    private static final int COLLECTION_INTERVAL = 50;
+
+    /**
+     * Private constructor for SyntheticCsv class.
+     */
+    private SyntheticCsv() {
+    }
+
+    /**
+     * Creates a synthetic data row.
+     *
+     * @param aIndex The index of the row
+     * @return A data row
+     */
+    static String[] row(final int aIndex) {
+        final boolean isCollection = aIndex % COLLECTION_INTERVAL == 0;
+        final String fileName = isCollection ? "" : getMediaFileName(aIndex % MEDIA_FILE_COUNT);
+
+        return new String[] { "Synthetic Collection", "ark:/21198/zz" + aIndex, "ark:/21198/zz0", "2", "Completed",
+            isCollection ? "Collection" : "Work", fileName, String.valueOf(aIndex), "", "", "copyrighted",
+            "Interviewee " + aIndex, "eng", "sound recording-nonmusical", "interviews", "Synthetic Repository", "",
+            "Interviewer", "", "Box " + aIndex / 100 + " #" + aIndex % 100, "[between 1963 and 1967?]", "1963/1967",
+            "", "Counterpoint: Interview " + aIndex, "local_" + aIndex, "" };
+    }
+
+    /**
+     * Creates the media files the rows refer to, which are empty since the benchmarks use a stub prober.
+     *
+     * @param aMediaDir The directory in which the media files are created
+     * @throws IOException If a media file can't be created
+     */
+    static void writeMedia(final Path aMediaDir) throws IOException {
+        for (int index = 0; index < MEDIA_FILE_COUNT; index++) {
+            final Path mediaFile = aMediaDir.resolve(getMediaFileName(index));
+
+            Files.createDirectories(mediaFile.getParent());
+            Files.createFile(mediaFile);
+        }
+    }
+
+    /**
+     * Writes a synthetic CSV file.
+     *
+     * @param aCsvFile The CSV file to write
+     * @param aRowCount The number of data rows to write
+     * @throws IOException If the CSV file can't be written
+     */
+    static void writeCsv(final Path aCsvFile, final int aRowCount) throws IOException {
+        try (CSVWriter writer = new CSVWriter(Files.newBufferedWriter(aCsvFile, UTF_8))) {
+            writer.writeNext(HEADER);
+
+            for (int index = 1; index <= aRowCount; index++) {
+                writer.writeNext(row(index));
+            }
+        }
+    }
+
+    /**
+     * Deletes a directory created for a benchmark, along with everything in it.
+     *
+     * @param aDir A directory
+     * @throws IOException If the directory can't be deleted
+     */
+    static void delete(final Path aDir) throws IOException {
+        try (Stream<Path> paths = Files.walk(aDir)) {
+            for (final Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Gets the name of a media file, relative to the media directory.
+     *
+     * @param aIndex The index of the media file
+     * @return The media file's name
+     */
+    private static String getMediaFileName(final int aIndex) {
+        return "synthetic/" + aIndex / 100 + "/media-" + aIndex + "." + EXTENSIONS[aIndex % EXTENSIONS.length];
+    }
+}
@@ -0,0 +1,396 @@
+
+package edu.ucla.library.services.metadata;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A journal of a run's progress, kept in the output directory so a run that dies part way through can be resumed.
+ * The journal records each CSV file that's been completed and, for a CSV file that's still being written, how many
+ * of its rows (and how many bytes of its partly written output file) are known to be complete. Entries are appended
+ * and forced to disk as they're made, so the journal survives the process being killed. Each entry is made against
+ * the CSV file's size and last modified time, so a CSV file that's changed since (e.g. one that's rewritten in a
+ * watched directory) starts over rather than being skipped or continued from another version's checkpoint. Since
+ * only the last entry for each CSV file matters, the journal is compacted to those entries once most of its entries
+ * have been superseded, so it doesn't grow without bound over a long watch.
+ */
+public final class CheckpointJournal implements Closeable {
+
+    /**
+     * The name of the journal file in the output directory.
+     */
+    public static final String FILE_NAME = ".metagetter-checkpoint";
+
+    /**
+     * The type of entry recording how much of a CSV file has been written.
+     */
+    private static final String ROWS = "rows";
+
+    /**
+     * The type of entry recording that a CSV file has been completed.
+     */
+    private static final String DONE = "done";
+
+    /**
+     * The separator between the fields of a journal entry.
+     */
+    private static final char TAB = '\t';
+
+    /**
+     * The extension of the file to which the journal is compacted before it replaces the journal.
+     */
+    private static final String COMPACTED_EXTENSION = ".compacted";
+
+    /**
+     * The number of superseded entries the journal may hold before it's compacted, on top of one for each of its
+     * current entries.
+     */
+    private static final int MAX_SUPERSEDED_ENTRIES = 1000;
+
+    /**
+     * The journal file.
+     */
+    private final Path myPath;
+
+    /**
+     * The last checkpoint of each CSV file that was being written when the journal was loaded.
+     */
+    private final Map<String, Checkpoint> myCheckpoints = new HashMap<>();
+
+    /**
+     * The versions of the CSV files that were completed before the journal was loaded, by CSV file.
+     */
+    private final Map<String, String> myCompleted = new HashMap<>();
+
+    /**
+     * The last entry in the journal for each CSV file, by CSV file, which are the entries kept when it's compacted.
+     */
+    private final Map<String, String> myLastEntries = new LinkedHashMap<>();
+
+    /**
+     * The number of entries in the journal file.
+     */
+    private long myEntryCount;
+
+    /**
+     * The channel to which journal entries are appended.
+     */
+    private FileChannel myChannel;
+
+    /**
+     * Opens the journal in the supplied output directory.
+     *
+     * @param aOutputDir The directory where output files are written
+     * @param aResume Whether the progress recorded by an earlier run should be loaded; if not, it's discarded
+     * @throws IOException If the journal can't be read or written
+     */
+    public CheckpointJournal(final Path aOutputDir, final boolean aResume) throws IOException {
+        myPath = aOutputDir.resolve(FILE_NAME);
+
+        if (aResume && Files.exists(myPath)) {
+            load();
+        } else {
+            Files.deleteIfExists(myPath);
+        }
+
+        myChannel = FileChannel.open(myPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Gets the number of entries in the journal file.
+     *
+     * @return The number of entries
+     */
+    synchronized long getEntryCount() {
+        return myEntryCount;
+    }
+
+    /**
+     * Gets the journal file.
+     *
+     * @return The journal file
+     */
+    public Path getPath() {
+        return myPath;
+    }
+
+    /**
+     * Whether the supplied CSV file, as it is now, was completed by an earlier run.
+     *
+     * @param aCsvFile A CSV file
+     * @return True if the CSV file was completed and hasn't changed since; else, false
+     */
+    public synchronized boolean isComplete(final Path aCsvFile) {
+        final String version = myCompleted.get(getKey(aCsvFile));
+
+        return version != null && version.equals(findVersion(aCsvFile));
+    }
+
+    /**
+     * Gets the last checkpoint an earlier run recorded for the supplied CSV file, as it is now.
+     *
+     * @param aCsvFile A CSV file
+     * @return The last checkpoint, or null if there isn't one or the CSV file has changed since it was recorded
+     */
+    public synchronized Checkpoint getCheckpoint(final Path aCsvFile) {
+        final Checkpoint checkpoint = myCheckpoints.get(getKey(aCsvFile));
+
+        return checkpoint != null && checkpoint.myVersion.equals(findVersion(aCsvFile)) ? checkpoint : null;
+    }
+
+    /**
+     * Records how much of a CSV file has been written.
+     *
+     * @param aCsvFile A CSV file
+     * @param aVersion The version of the CSV file that's being written, from {@link #getVersion(Path)}
+     * @param aRowCount The number of data rows that have been written
+     * @param aByteCount The number of bytes of the output file that hold the header and those rows
+     * @throws IOException If the journal can't be written
+     */
+    public void checkpoint(final Path aCsvFile, final String aVersion, final long aRowCount, final long aByteCount)
+            throws IOException {
+        final String key = getKey(aCsvFile);
+
+        append(key, ROWS + TAB + aRowCount + TAB + aByteCount + TAB + aVersion + TAB + key);
+    }
+
+    /**
+     * Records that a CSV file has been completed.
+     *
+     * @param aCsvFile A CSV file
+     * @param aVersion The version of the CSV file that was written, from {@link #getVersion(Path)}
+     * @throws IOException If the journal can't be written
+     */
+    public void complete(final Path aCsvFile, final String aVersion) throws IOException {
+        final String key = getKey(aCsvFile);
+
+        append(key, DONE + TAB + aVersion + TAB + key);
+    }
+
+    /**
+     * Gets the version of a CSV file against which its progress is recorded: its size and last modified time.
+     *
+     * @param aCsvFile A CSV file
+     * @return The CSV file's version
+     * @throws IOException If the CSV file's attributes can't be read
+     */
+    public static String getVersion(final Path aCsvFile) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(aCsvFile, BasicFileAttributes.class);
+
+        return Long.toString(attributes.size()) + TAB + attributes.lastModifiedTime().toMillis();
+    }
+
+    /**
+     * Closes and deletes the journal, once the run it records has finished successfully.
+     *
+     * @throws IOException If the journal can't be deleted
+     */
+    public void delete() throws IOException {
+        close();
+        Files.deleteIfExists(myPath);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        myChannel.close();
+    }
+
+    /**
+     * Appends an entry to the journal and forces it to disk, compacting the journal if too many of its entries have
+     * been superseded.
+     *
+     * @param aKey The key of the CSV file the entry is for
+     * @param aEntry A journal entry
+     * @throws IOException If the journal can't be written
+     */
+    private synchronized void append(final String aKey, final String aEntry) throws IOException {
+        write(myChannel, aEntry);
+        myChannel.force(false);
+
+        myLastEntries.remove(aKey); // So the CSV files' entries stay in the order they were last made
+        myLastEntries.put(aKey, aEntry);
+        myEntryCount += 1;
+
+        if (myEntryCount > myLastEntries.size() + MAX_SUPERSEDED_ENTRIES) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the last entry for each CSV file that still exists. The compacted journal is
+     * written beside the journal and then moved over it, so the journal is whole whenever the process is killed.
+     *
+     * @throws IOException If the compacted journal can't be written
+     */
+    private void compact() throws IOException {
+        final Path compactedPath = myPath.resolveSibling(FILE_NAME + COMPACTED_EXTENSION);
+
+        myLastEntries.keySet().removeIf(key -> !Files.exists(Paths.get(key)));
+
+        try (FileChannel channel = FileChannel.open(compactedPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (final String entry : myLastEntries.values()) {
+                write(channel, entry);
+            }
+
+            channel.force(false);
+        }
+
+        Files.move(compactedPath, myPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        myChannel.close();
+        myChannel = FileChannel.open(myPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        myEntryCount = myLastEntries.size();
+    }
+
+    /**
+     * Writes an entry to a journal file.
+     *
+     * @param aChannel A channel to the journal file
+     * @param aEntry A journal entry
+     * @throws IOException If the entry can't be written
+     */
+    private static void write(final FileChannel aChannel, final String aEntry) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap((aEntry + System.lineSeparator()).getBytes(UTF_8));
+
+        while (buffer.hasRemaining()) {
+            aChannel.write(buffer);
+        }
+    }
+
+    /**
+     * Loads the progress recorded by an earlier run. An entry that was only partly written when that run died is
+     * ignored, as are entries without a CSV file version, which were made by an older release.
+     *
+     * @throws IOException If the journal can't be read
+     */
+    private void load() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(myPath, UTF_8)) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split(String.valueOf(TAB), 6);
+
+                myEntryCount += 1;
+
+                try {
+                    if (fields.length == 4 && DONE.equals(fields[0])) {
+                        myCheckpoints.remove(fields[3]);
+                        myCompleted.put(fields[3], toVersion(fields[1], fields[2]));
+                        myLastEntries.remove(fields[3]);
+                        myLastEntries.put(fields[3], line);
+                    } else if (fields.length == 6 && ROWS.equals(fields[0])) {
+                        myCheckpoints.put(fields[5], new Checkpoint(Long.parseLong(fields[1]),
+                                Long.parseLong(fields[2]), toVersion(fields[3], fields[4])));
+                        myLastEntries.remove(fields[5]);
+                        myLastEntries.put(fields[5], line);
+                    }
+                } catch (final NumberFormatException details) {
+                    // A partly written entry; the previous checkpoint still stands
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets a CSV file's version from the fields of a journal entry.
+     *
+     * @param aSize The size field
+     * @param aLastModified The last modified time field
+     * @return The CSV file's version
+     * @throws NumberFormatException If the fields aren't numbers
+     */
+    private static String toVersion(final String aSize, final String aLastModified) {
+        return Long.toString(Long.parseLong(aSize)) + TAB + Long.parseLong(aLastModified);
+    }
+
+    /**
+     * Gets the current version of a CSV file.
+     *
+     * @param aCsvFile A CSV file
+     * @return The CSV file's version, or null if it can't be read
+     */
+    private static String findVersion(final Path aCsvFile) {
+        try {
+            return getVersion(aCsvFile);
+        } catch (final IOException details) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the key under which a CSV file's progress is recorded.
+     *
+     * @param aCsvFile A CSV file
+     * @return The CSV file's key
+     */
+    private static String getKey(final Path aCsvFile) {
+        return aCsvFile.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * How much of a CSV file had been written at a checkpoint.
+     */
+    public static final class Checkpoint {
+
+        /**
+         * The number of data rows that had been written.
+         */
+        private final long myRowCount;
+
+        /**
+         * The number of bytes of the output file that held the header and those rows.
+         */
+        private final long myByteCount;
+
+        /**
+         * The version of the CSV file that was being written.
+         */
+        private final String myVersion;
+
+        /**
+         * Creates a new checkpoint.
+         *
+         * @param aRowCount The number of data rows that had been written
+         * @param aByteCount The number of bytes of the output file that held the header and those rows
+         * @param aVersion The version of the CSV file that was being written
+         */
+        Checkpoint(final long aRowCount, final long aByteCount, final String aVersion) {
+            myRowCount = aRowCount;
+            myByteCount = aByteCount;
+            myVersion = aVersion;
+        }
+
+        /**
+         * Gets the number of data rows that had been written.
+         *
+         * @return The number of data rows
+         */
+        public long getRowCount() {
+            return myRowCount;
+        }
+
+        /**
+         * Gets the number of bytes of the output file that held the header and those rows.
+         *
+         * @return The number of bytes
+         */
+        public long getByteCount() {
+            return myByteCount;
+        }
+    }
+}
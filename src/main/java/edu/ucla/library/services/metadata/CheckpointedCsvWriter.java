@@ -0,0 +1,216 @@
+
+package edu.ucla.library.services.metadata;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import com.opencsv.CSVWriter;
+
+/**
+ * Writes an output CSV file to a temporary file beside it, which is only renamed to the output file once every row
+ * has been written. Progress is recorded in the run's checkpoint journal as rows are written, so if the run dies the
+ * temporary file can be picked up again from the last checkpoint rather than being written from the start.
+ */
+public final class CheckpointedCsvWriter implements Closeable {
+
+    /**
+     * The extension added to the name of an output file while it's being written.
+     */
+    public static final String PART_EXTENSION = ".part";
+
+    /**
+     * The number of rows written between checkpoints.
+     */
+    private static final int CHECKPOINT_INTERVAL = 1000;
+
+    /**
+     * The CSV file from which the output file is being written.
+     */
+    private final Path mySource;
+
+    /**
+     * The version of the source CSV file that's being written.
+     */
+    private final String mySourceVersion;
+
+    /**
+     * The output file.
+     */
+    private final Path myOutput;
+
+    /**
+     * The temporary file to which the output is written.
+     */
+    private final Path myPart;
+
+    /**
+     * The run's checkpoint journal.
+     */
+    private final CheckpointJournal myJournal;
+
+    /**
+     * The channel of the temporary file.
+     */
+    private final FileChannel myChannel;
+
+    /**
+     * The CSV writer of the temporary file.
+     */
+    private final CSVWriter myWriter;
+
+    /**
+     * The number of data rows that were written by an earlier run.
+     */
+    private final long myResumedRowCount;
+
+    /**
+     * The number of data rows in the temporary file.
+     */
+    private long myRowCount;
+
+    /**
+     * Whether the header row is in the temporary file.
+     */
+    private boolean myHeaderIsWritten;
+
+    /**
+     * Whether the temporary file has been renamed to the output file.
+     */
+    private boolean myOutputIsCommitted;
+
+    /**
+     * Opens a writer for the supplied output file. If the journal has a checkpoint for the source CSV file, as it is
+     * now, writing continues from that checkpoint; otherwise, it starts from the beginning.
+     *
+     * @param aSource The CSV file from which the output file is being written
+     * @param aOutput The output file
+     * @param aJournal The run's checkpoint journal
+     * @throws IOException If the source CSV file can't be read or the temporary file can't be opened
+     */
+    public CheckpointedCsvWriter(final Path aSource, final Path aOutput, final CheckpointJournal aJournal)
+            throws IOException {
+        final CheckpointJournal.Checkpoint checkpoint = aJournal.getCheckpoint(aSource);
+
+        mySource = aSource;
+        mySourceVersion = CheckpointJournal.getVersion(aSource);
+        myOutput = aOutput;
+        myPart = aOutput.resolveSibling(aOutput.getFileName() + PART_EXTENSION);
+        myJournal = aJournal;
+
+        if (checkpoint != null && Files.exists(myPart) && Files.size(myPart) >= checkpoint.getByteCount()) {
+            myChannel = FileChannel.open(myPart, StandardOpenOption.WRITE);
+            myChannel.truncate(checkpoint.getByteCount()); // Drops rows written after the last checkpoint
+            myChannel.position(checkpoint.getByteCount());
+            myResumedRowCount = checkpoint.getRowCount();
+            myRowCount = myResumedRowCount;
+            myHeaderIsWritten = true;
+        } else {
+            myChannel = FileChannel.open(myPart, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            myResumedRowCount = 0;
+        }
+
+        myWriter = new CSVWriter(new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(myChannel),
+                UTF_8)));
+    }
+
+    /**
+     * Gets the number of data rows that were written by an earlier run, which the caller should skip.
+     *
+     * @return The number of data rows already written
+     */
+    public long getResumedRowCount() {
+        return myResumedRowCount;
+    }
+
+    /**
+     * Writes the header row, unless it was written by an earlier run.
+     *
+     * @param aHeaderRow The header row
+     * @throws IOException If the header row can't be written
+     */
+    public void writeHeader(final String... aHeaderRow) throws IOException {
+        if (!myHeaderIsWritten) {
+            myWriter.writeNext(aHeaderRow);
+            myHeaderIsWritten = true;
+            checkpoint();
+        }
+    }
+
+    /**
+     * Writes a data row, recording a checkpoint every so often.
+     *
+     * @param aRow A data row
+     * @throws IOException If the row can't be written
+     */
+    public void writeNext(final String... aRow) throws IOException {
+        myWriter.writeNext(aRow);
+        myRowCount += 1;
+
+        if (myRowCount % CHECKPOINT_INTERVAL == 0) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Finishes the output file, renaming the temporary file to the output file and recording that the source CSV file
+     * has been completed.
+     *
+     * @throws IOException If the output file can't be finished
+     */
+    public void commit() throws IOException {
+        myWriter.flush();
+        myChannel.force(true);
+        myWriter.close();
+
+        try {
+            Files.move(myPart, myOutput, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (final AtomicMoveNotSupportedException details) {
+            Files.move(myPart, myOutput, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        myOutputIsCommitted = true;
+        myJournal.complete(mySource, mySourceVersion);
+    }
+
+    /**
+     * Closes the writer. If the output file wasn't finished, the rows written so far are checkpointed and the
+     * temporary file is left for a later run to resume.
+     *
+     * @throws IOException If the writer can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (!myOutputIsCommitted) {
+            try {
+                if (myHeaderIsWritten) {
+                    checkpoint();
+                }
+            } finally {
+                myWriter.close();
+            }
+        }
+    }
+
+    /**
+     * Records how much of the output has been written, once it's safely on disk.
+     *
+     * @throws IOException If the output or journal can't be written
+     */
+    private void checkpoint() throws IOException {
+        myWriter.flush();
+        myChannel.force(false);
+        myJournal.checkpoint(mySource, mySourceVersion, myRowCount, myChannel.position());
+    }
+}
@@ -41,12 +41,19 @@ public class CsvHeaders {
      */
     private int myMediaDurationIndex = -1;
 
+    /**
+     * The number of columns in the header row.
+     */
+    private final int myColumnCount;
+
     /**
      * Creates a new CSV headers object.
      *
      * @param aCsvHeaderRow The header row from the CSV file
      */
     public CsvHeaders(final String... aCsvHeaderRow) {
+        myColumnCount = aCsvHeaderRow.length;
+
         for (int index = 0; index < aCsvHeaderRow.length; index++) {
             switch (aCsvHeaderRow[index]) {
                 case Constants.HEADER_NAME:
@@ -77,6 +84,15 @@ public class CsvHeaders {
         }
     }
 
+    /**
+     * Gets the number of columns in the CSV's header row.
+     *
+     * @return The number of columns in the header row
+     */
+    public int getColumnCount() {
+        return myColumnCount;
+    }
+
     /**
      * Gets the index position of the 'File Name' column from the CSV's header row.
      *
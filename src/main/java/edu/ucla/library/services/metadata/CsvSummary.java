@@ -0,0 +1,236 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * A summary of the processing of a single CSV file. Its counters may be updated by several worker threads at once.
+ */
+public final class CsvSummary {
+
+    /**
+     * Logger for the CsvSummary.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(CsvSummary.class, MessageCodes.BUNDLE);
+
+    /**
+     * The CSV file being summarized.
+     */
+    private final Path myPath;
+
+    /**
+     * The number of data rows written to the output file.
+     */
+    private final AtomicLong myRowCount = new AtomicLong();
+
+    /**
+     * The number of data rows left as they were because they already had A/V metadata.
+     */
+    private final AtomicLong mySkippedCount = new AtomicLong();
+
+    /**
+     * The number of data rows that were written by an earlier run, which this run continued.
+     */
+    private final AtomicLong myResumedCount = new AtomicLong();
+
+    /**
+     * The number of media files probed.
+     */
+    private final AtomicLong myProbeCount = new AtomicLong();
+
+    /**
+     * The number of media files that couldn't be probed.
+     */
+    private final AtomicLong myFailureCount = new AtomicLong();
+
+    /**
+     * The time at which processing of the CSV file started, in nanoseconds.
+     */
+    private volatile long myStartTime;
+
+    /**
+     * The time it took to process the CSV file, in nanoseconds.
+     */
+    private volatile long myElapsedTime;
+
+    /**
+     * The state of the processing of the CSV file.
+     */
+    private volatile State myState = State.PENDING;
+
+    /**
+     * The error that stopped the processing of the CSV file, if there was one.
+     */
+    private volatile String myError;
+
+    /**
+     * Creates a new summary for the supplied CSV file.
+     *
+     * @param aPath A CSV file
+     */
+    public CsvSummary(final Path aPath) {
+        myPath = aPath;
+    }
+
+    /**
+     * Gets the CSV file being summarized.
+     *
+     * @return The CSV file
+     */
+    public Path getPath() {
+        return myPath;
+    }
+
+    /**
+     * Records that processing of the CSV file has started.
+     */
+    public void start() {
+        myStartTime = System.nanoTime();
+        myState = State.RUNNING;
+    }
+
+    /**
+     * Records that processing of the CSV file has finished successfully.
+     */
+    public void succeed() {
+        myElapsedTime = System.nanoTime() - myStartTime;
+        myState = State.SUCCEEDED;
+    }
+
+    /**
+     * Records that processing of the CSV file was stopped by an error.
+     *
+     * @param aError The error that stopped processing
+     */
+    public void fail(final String aError) {
+        myElapsedTime = System.nanoTime() - myStartTime;
+        myError = aError;
+        myState = State.FAILED;
+    }
+
+    /**
+     * Records that a data row was written to the output file.
+     */
+    public void rowWritten() {
+        myRowCount.incrementAndGet();
+    }
+
+    /**
+     * Records that a data row was left as it was because it already had A/V metadata.
+     */
+    public void rowSkipped() {
+        mySkippedCount.incrementAndGet();
+    }
+
+    /**
+     * Records that a data row was written by an earlier run, which this run continued, and so wasn't read again.
+     */
+    public void rowResumed() {
+        myResumedCount.incrementAndGet();
+    }
+
+    /**
+     * Records that a media file was probed.
+     */
+    public void mediaProbed() {
+        myProbeCount.incrementAndGet();
+    }
+
+    /**
+     * Records that a media file couldn't be probed.
+     */
+    public void probeFailed() {
+        myFailureCount.incrementAndGet();
+    }
+
+    /**
+     * Gets the number of data rows written to the output file.
+     *
+     * @return The number of data rows written
+     */
+    public long getRowCount() {
+        return myRowCount.get();
+    }
+
+    /**
+     * Gets the number of data rows left as they were because they already had A/V metadata.
+     *
+     * @return The number of data rows skipped
+     */
+    public long getSkippedCount() {
+        return mySkippedCount.get();
+    }
+
+    /**
+     * Gets the number of data rows that were written by an earlier run, which this run continued.
+     *
+     * @return The number of data rows resumed
+     */
+    public long getResumedCount() {
+        return myResumedCount.get();
+    }
+
+    /**
+     * Gets the number of media files probed.
+     *
+     * @return The number of media files probed
+     */
+    public long getProbeCount() {
+        return myProbeCount.get();
+    }
+
+    /**
+     * Gets the number of media files that couldn't be probed.
+     *
+     * @return The number of media files that couldn't be probed
+     */
+    public long getFailureCount() {
+        return myFailureCount.get();
+    }
+
+    /**
+     * Whether processing of the CSV file was stopped by an error.
+     *
+     * @return True if processing failed; else, false
+     */
+    public boolean hasFailed() {
+        return myState == State.FAILED;
+    }
+
+    /**
+     * Gets a single line description of the summary, suitable for showing to the user.
+     *
+     * @return A description of the summary
+     */
+    @Override
+    public String toString() {
+        final long seconds = TimeUnit.NANOSECONDS.toSeconds(myElapsedTime);
+
+        switch (myState) {
+            case SUCCEEDED:
+                if (getResumedCount() > 0) {
+                    return LOGGER.getMessage(MessageCodes.MG_162, myPath, getRowCount(), getSkippedCount(),
+                            getResumedCount(), getProbeCount(), getFailureCount(), seconds);
+                }
+
+                return LOGGER.getMessage(MessageCodes.MG_114, myPath, getRowCount(), getSkippedCount(),
+                        getProbeCount(), getFailureCount(), seconds);
+            case FAILED:
+                return LOGGER.getMessage(MessageCodes.MG_115, myPath, myError);
+            default:
+                return LOGGER.getMessage(MessageCodes.MG_116, myPath);
+        }
+    }
+
+    /**
+     * The states through which the processing of a CSV file passes.
+     */
+    private enum State {
+        PENDING, RUNNING, SUCCEEDED, FAILED
+    }
+}
@@ -0,0 +1,342 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * Checks CSV files for the problems that would otherwise only be found when their rows are enriched, which can be
+ * hours into a run: missing columns, rows that are too short, media file names without file extensions, and media
+ * files that aren't in any of the media mounts. Nothing is probed. The CSV files are read in parallel, and then their
+ * distinct media file names are resolved in parallel, so a whole batch of CSV files can be checked in seconds.
+ */
+final class CsvValidator {
+
+    /**
+     * Logger for the CsvValidator.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(CsvValidator.class, MessageCodes.BUNDLE);
+
+    /**
+     * The resolver that finds media files in the media mounts.
+     */
+    private final MediaPathResolver myResolver;
+
+    /**
+     * Whether rows that already have A/V metadata are left as they are, and so needn't be checked.
+     */
+    private final boolean myRunIsIncremental;
+
+    /**
+     * The number of CSV files read, or media file names resolved, at once.
+     */
+    private final int myThreads;
+
+    /**
+     * Creates a new CSV validator.
+     *
+     * @param aResolver The resolver that finds media files in the media mounts
+     * @param aRunIsIncremental Whether rows that already have A/V metadata will be left as they are
+     * @param aThreads The number of CSV files read, or media file names resolved, at once
+     */
+    CsvValidator(final MediaPathResolver aResolver, final boolean aRunIsIncremental, final int aThreads) {
+        myResolver = aResolver;
+        myRunIsIncremental = aRunIsIncremental;
+        myThreads = aThreads;
+    }
+
+    /**
+     * Checks CSV files for problems.
+     *
+     * @param aCsvFiles The CSV files to check
+     * @return A report of the problems found
+     * @throws InterruptedException If the thread is interrupted while the CSV files are being checked
+     */
+    Report validate(final List<Path> aCsvFiles) throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(myThreads);
+        final Map<String, List<Location>> lookups = new ConcurrentHashMap<>();
+        final Report report = new Report(aCsvFiles.size());
+
+        try {
+            executor.invokeAll(aCsvFiles.stream().map(csvFile -> (Callable<Void>) () -> {
+                scan(csvFile, report, lookups);
+                return null;
+            }).collect(Collectors.toList()));
+
+            // Each media file name is only resolved once, however many rows it's in
+            executor.invokeAll(lookups.entrySet().stream().map(lookup -> (Callable<Void>) () -> {
+                resolve(lookup.getKey(), lookup.getValue(), report);
+                return null;
+            }).collect(Collectors.toList()));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return report;
+    }
+
+    /**
+     * Reads a CSV file, checking its header row and rows and recording the media file names that need to be
+     * resolved. The rows are checked as they would be by {@link MetadataSetter#buildARow}.
+     *
+     * @param aCsvFile A CSV file
+     * @param aReport The report to which problems are added
+     * @param aLookups The rows in which each media file name is found, by media file name
+     */
+    private void scan(final Path aCsvFile, final Report aReport, final Map<String, List<Location>> aLookups) {
+        try (CSVReader reader = new CSVReader(Files.newBufferedReader(aCsvFile))) {
+            final String[] headerRow = reader.readNext();
+            final CsvHeaders csvHeaders;
+            final boolean hasColumns;
+            final int minLength;
+            long lineCount;
+
+            if (headerRow == null) {
+                return; // An empty CSV file has nothing to which metadata can be added
+            }
+
+            csvHeaders = new CsvHeaders(headerRow);
+            hasColumns = MetadataSetter.allMetaFieldsPresent(headerRow);
+
+            if (!csvHeaders.hasFileNameIndex() || !csvHeaders.hasObjectTypeIndex()) {
+                final String column = csvHeaders.hasFileNameIndex() ? Constants.HEADER_TYPE : Constants.HEADER_NAME;
+
+                aReport.add(new Location(aCsvFile, 0), true, LOGGER.getMessage(MessageCodes.MG_151, aCsvFile, column));
+                return;
+            }
+
+            minLength = Math.max(csvHeaders.getFileNameIndex(), csvHeaders.getObjectTypeIndex()) + 1;
+            lineCount = reader.getLinesRead();
+
+            for (String[] row = reader.readNext(); row != null; row = reader.readNext()) {
+                final Location location = new Location(aCsvFile, lineCount + 1);
+
+                lineCount = reader.getLinesRead();
+                aReport.myRowCount.increment();
+
+                if (row.length < minLength) {
+                    aReport.add(location, true, LOGGER.getMessage(MessageCodes.MG_152, aCsvFile, location.myLine,
+                            row.length < csvHeaders.getFileNameIndex() + 1 ? Constants.HEADER_NAME
+                                    : Constants.HEADER_TYPE));
+                } else if (!(myRunIsIncremental && hasColumns && MetadataSetter.alreadyEnriched(csvHeaders, row)) &&
+                        MetadataSetter.fileExpected(csvHeaders, row)) {
+                    check(row[csvHeaders.getFileNameIndex()], location, aReport, aLookups);
+                }
+            }
+        } catch (final IOException | CsvValidationException details) {
+            aReport.add(new Location(aCsvFile, 0), true,
+                    LOGGER.getMessage(MessageCodes.MG_156, aCsvFile, details.getMessage()));
+        }
+    }
+
+    /**
+     * Checks a row's media file name, recording it to be resolved if it has a file extension.
+     *
+     * @param aFileName The row's media file name
+     * @param aLocation Where the row is
+     * @param aReport The report to which problems are added
+     * @param aLookups The rows in which each media file name is found, by media file name
+     */
+    private static void check(final String aFileName, final Location aLocation, final Report aReport,
+            final Map<String, List<Location>> aLookups) {
+        if (aFileName == null || aFileName.isBlank()) {
+            return; // There's no media file to add metadata from
+        }
+
+        if (!aFileName.contains(".")) {
+            aReport.add(aLocation, true,
+                    LOGGER.getMessage(MessageCodes.MG_153, aLocation.myCsvFile, aLocation.myLine, aFileName));
+        } else {
+            aLookups.compute(aFileName, (fileName, locations) -> {
+                final List<Location> rows = locations == null ? new ArrayList<>() : locations;
+
+                rows.add(aLocation);
+                return rows;
+            });
+        }
+    }
+
+    /**
+     * Resolves a media file name, adding a problem for each row it's in if it isn't in any of the media mounts.
+     *
+     * @param aFileName A media file name
+     * @param aLocations The rows the media file name is in
+     * @param aReport The report to which problems are added
+     */
+    private void resolve(final String aFileName, final List<Location> aLocations, final Report aReport) {
+        try {
+            myResolver.resolve(aFileName);
+            aReport.myMediaFileCount.increment();
+        } catch (final FileNotFoundException details) {
+            // A missing file whose name has a '~' stops the CSV file; others just leave their rows without metadata
+            final boolean stopsCsvFile = aFileName.contains("~");
+
+            for (final Location location : aLocations) {
+                aReport.add(location, stopsCsvFile, LOGGER.getMessage(stopsCsvFile ? MessageCodes.MG_155 :
+                        MessageCodes.MG_154, location.myCsvFile, location.myLine, aFileName));
+            }
+        }
+    }
+
+    /**
+     * The problems found in a set of CSV files.
+     */
+    static final class Report {
+
+        /**
+         * The problems found, by where they were found.
+         */
+        private final List<Problem> myProblems = Collections.synchronizedList(new ArrayList<>());
+
+        /**
+         * The number of CSV files checked.
+         */
+        private final int myCsvCount;
+
+        /**
+         * The number of rows checked.
+         */
+        private final LongAdder myRowCount = new LongAdder();
+
+        /**
+         * The number of distinct media files found in the media mounts.
+         */
+        private final LongAdder myMediaFileCount = new LongAdder();
+
+        /**
+         * Creates a new report.
+         *
+         * @param aCsvCount The number of CSV files checked
+         */
+        private Report(final int aCsvCount) {
+            myCsvCount = aCsvCount;
+        }
+
+        /**
+         * Gets the problems found, in CSV file and line order.
+         *
+         * @return Descriptions of the problems, suitable for showing to the user
+         */
+        List<String> getProblems() {
+            final Comparator<Problem> order = Comparator.comparing((Problem problem) -> problem.myLocation.myCsvFile)
+                    .thenComparingLong(problem -> problem.myLocation.myLine);
+
+            synchronized (myProblems) {
+                return myProblems.stream().sorted(order).map(problem -> problem.myMessage)
+                        .collect(Collectors.toList());
+            }
+        }
+
+        /**
+         * Gets the number of problems found that would stop a CSV file from being enriched.
+         *
+         * @return The number of problems that would stop a CSV file
+         */
+        long getStoppingProblemCount() {
+            synchronized (myProblems) {
+                return myProblems.stream().filter(problem -> problem.myProblemStopsCsvFile).count();
+            }
+        }
+
+        /**
+         * Gets a one line summary of the report, suitable for showing to the user.
+         *
+         * @return A summary of the report
+         */
+        String getSummary() {
+            return LOGGER.getMessage(MessageCodes.MG_157, myRowCount.sum(), myCsvCount, myMediaFileCount.sum(),
+                    myProblems.size(), getStoppingProblemCount());
+        }
+
+        /**
+         * Adds a problem to the report.
+         *
+         * @param aLocation Where the problem was found
+         * @param aProblemStopsCsvFile Whether the problem would stop the CSV file from being enriched
+         * @param aMessage A description of the problem
+         */
+        private void add(final Location aLocation, final boolean aProblemStopsCsvFile, final String aMessage) {
+            myProblems.add(new Problem(aLocation, aProblemStopsCsvFile, aMessage));
+        }
+    }
+
+    /**
+     * Where a row is.
+     */
+    private static final class Location {
+
+        /**
+         * The CSV file the row is in.
+         */
+        private final Path myCsvFile;
+
+        /**
+         * The line on which the row starts, or zero for the CSV file as a whole.
+         */
+        private final long myLine;
+
+        /**
+         * Creates a new location.
+         *
+         * @param aCsvFile The CSV file the row is in
+         * @param aLine The line on which the row starts, or zero for the CSV file as a whole
+         */
+        private Location(final Path aCsvFile, final long aLine) {
+            myCsvFile = aCsvFile;
+            myLine = aLine;
+        }
+    }
+
+    /**
+     * A problem found in a CSV file.
+     */
+    private static final class Problem {
+
+        /**
+         * Where the problem was found.
+         */
+        private final Location myLocation;
+
+        /**
+         * Whether the problem would stop the CSV file from being enriched.
+         */
+        private final boolean myProblemStopsCsvFile;
+
+        /**
+         * A description of the problem.
+         */
+        private final String myMessage;
+
+        /**
+         * Creates a new problem.
+         *
+         * @param aLocation Where the problem was found
+         * @param aProblemStopsCsvFile Whether the problem would stop the CSV file from being enriched
+         * @param aMessage A description of the problem
+         */
+        private Problem(final Location aLocation, final boolean aProblemStopsCsvFile, final String aMessage) {
+            myLocation = aLocation;
+            myProblemStopsCsvFile = aProblemStopsCsvFile;
+            myMessage = aMessage;
+        }
+    }
+}
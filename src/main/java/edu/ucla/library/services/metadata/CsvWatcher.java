@@ -0,0 +1,317 @@
+
+package edu.ucla.library.services.metadata;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * A watch on a directory of CSV files (and its subdirectories) that reports CSV files as they're created or changed.
+ * A CSV file is only reported once it's gone unchanged for a quiet period, so one that's still being written (e.g.
+ * copied over a slow share) isn't read before it's complete.
+ */
+@SuppressWarnings("PMD.SystemPrintln")
+final class CsvWatcher implements Closeable {
+
+    /**
+     * Logger for the CsvWatcher.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(CsvWatcher.class, MessageCodes.BUNDLE);
+
+    /**
+     * The service that reports changes to the watched directories.
+     */
+    private final WatchService myWatchService;
+
+    /**
+     * The matcher that picks out the CSV files among the changed files.
+     */
+    private final BiPredicate<Path, BasicFileAttributes> myCsvMatcher;
+
+    /**
+     * The number of nanoseconds a CSV file must go unchanged before it's reported.
+     */
+    private final long myQuietPeriod;
+
+    /**
+     * The watched directories, by their watch keys.
+     */
+    private final Map<WatchKey, Path> myDirs = new HashMap<>();
+
+    /**
+     * The CSV files that have changed but haven't yet gone unchanged for the quiet period.
+     */
+    private final Map<Path, Change> myPendingFiles = new HashMap<>();
+
+    /**
+     * Starts watching a directory of CSV files.
+     *
+     * @param aDir A directory of CSV files
+     * @param aCsvMatcher A matcher that picks out CSV files, like the one passed to {@link Files#find}
+     * @param aQuietPeriod The number of milliseconds a CSV file must go unchanged before it's reported
+     * @throws IOException If the directory can't be watched
+     */
+    CsvWatcher(final Path aDir, final BiPredicate<Path, BasicFileAttributes> aCsvMatcher, final long aQuietPeriod)
+            throws IOException {
+        myWatchService = aDir.getFileSystem().newWatchService();
+        myCsvMatcher = aCsvMatcher;
+        myQuietPeriod = TimeUnit.MILLISECONDS.toNanos(aQuietPeriod);
+
+        try {
+            watch(aDir, false);
+        } catch (final IOException details) {
+            myWatchService.close();
+            throw details;
+        }
+    }
+
+    /**
+     * Waits until at least one CSV file has been created or changed and has since gone unchanged for the quiet period.
+     *
+     * @return The CSV files that are ready to be read, in path order
+     * @throws InterruptedException If the thread is interrupted while waiting
+     * @throws java.nio.file.ClosedWatchServiceException If the watcher is closed, before or while waiting
+     */
+    List<Path> take() throws InterruptedException {
+        List<Path> csvFiles = Collections.emptyList();
+
+        while (csvFiles.isEmpty()) {
+            final WatchKey key;
+
+            if (myPendingFiles.isEmpty()) {
+                key = myWatchService.take();
+            } else {
+                key = myWatchService.poll(getWaitTime(), TimeUnit.NANOSECONDS);
+            }
+
+            if (key != null) {
+                handleEvents(key);
+            }
+
+            csvFiles = getSettledFiles();
+        }
+
+        return csvFiles;
+    }
+
+    /**
+     * Stops watching the directory. A thread waiting in {@link #take()} is woken with a
+     * {@link java.nio.file.ClosedWatchServiceException}.
+     *
+     * @throws IOException If the watch can't be stopped
+     */
+    @Override
+    public void close() throws IOException {
+        myWatchService.close();
+    }
+
+    /**
+     * Records the CSV files changed by a watch key's events.
+     *
+     * @param aKey A watch key that has been signalled
+     */
+    private void handleEvents(final WatchKey aKey) {
+        final Path dir = myDirs.get(aKey);
+
+        for (final WatchEvent<?> event : aKey.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                // Some events were lost, so everything that's watched is checked again
+                new ArrayList<>(myDirs.values()).forEach(watchedDir -> rescan(watchedDir));
+            } else if (dir != null) {
+                final Path path = dir.resolve((Path) event.context());
+
+                if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    if (event.kind() == ENTRY_CREATE) {
+                        rescan(path);
+                    }
+                } else {
+                    addIfCsvFile(path);
+                }
+            }
+        }
+
+        if (!aKey.reset()) {
+            myDirs.remove(aKey); // The directory has been deleted
+        }
+    }
+
+    /**
+     * Watches a directory that's been created, or checks one again after events were lost, and records the CSV files
+     * in it. A new directory's CSV files may have been written before it could be watched.
+     *
+     * @param aDir A directory
+     */
+    private void rescan(final Path aDir) {
+        try {
+            watch(aDir, true);
+        } catch (final IOException details) {
+            System.err.println(LOGGER.getMessage(MessageCodes.MG_137, aDir, details.getMessage()));
+        }
+    }
+
+    /**
+     * Watches a directory and its subdirectories.
+     *
+     * @param aDir A directory
+     * @param aAddCsvFiles Whether the CSV files in the directories are recorded as changed
+     * @throws IOException If the directories can't be watched
+     */
+    private void watch(final Path aDir, final boolean aAddCsvFiles) throws IOException {
+        final List<Path> paths;
+
+        try (Stream<Path> stream = Files.walk(aDir)) {
+            paths = stream.collect(Collectors.toList());
+        }
+
+        for (final Path path : paths) {
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (!myDirs.containsValue(path)) {
+                    myDirs.put(path.register(myWatchService, ENTRY_CREATE, ENTRY_MODIFY), path);
+                }
+            } else if (aAddCsvFiles) {
+                addIfCsvFile(path);
+            }
+        }
+    }
+
+    /**
+     * Records a changed file, if it's a CSV file, restarting its quiet period.
+     *
+     * @param aPath A changed file
+     */
+    private void addIfCsvFile(final Path aPath) {
+        final BasicFileAttributes attributes = readAttributes(aPath);
+
+        if (attributes != null && myCsvMatcher.test(aPath, attributes)) {
+            myPendingFiles.put(aPath, new Change(attributes));
+        }
+    }
+
+    /**
+     * Gets the CSV files that have gone unchanged for the quiet period, and stops tracking them. A CSV file whose size
+     * or modification time is different from when it was last seen is still being written (even if no event said so),
+     * so its quiet period is restarted.
+     *
+     * @return The CSV files that are ready to be read, in path order
+     */
+    private List<Path> getSettledFiles() {
+        final Iterator<Map.Entry<Path, Change>> iterator = myPendingFiles.entrySet().iterator();
+        final long now = System.nanoTime();
+        final List<Path> csvFiles = new ArrayList<>();
+
+        while (iterator.hasNext()) {
+            final Map.Entry<Path, Change> entry = iterator.next();
+            final Change change = entry.getValue();
+
+            if (now - change.myTime >= myQuietPeriod) {
+                final BasicFileAttributes attributes = readAttributes(entry.getKey());
+
+                if (attributes == null || !attributes.isRegularFile()) {
+                    iterator.remove(); // It's gone, or was replaced by something else
+                } else if (change.isSameAs(attributes)) {
+                    csvFiles.add(entry.getKey());
+                    iterator.remove();
+                } else {
+                    entry.setValue(new Change(attributes));
+                }
+            }
+        }
+
+        Collections.sort(csvFiles);
+        return csvFiles;
+    }
+
+    /**
+     * Gets how long to wait for events before the next pending CSV file's quiet period is over.
+     *
+     * @return The number of nanoseconds to wait
+     */
+    private long getWaitTime() {
+        final long now = System.nanoTime();
+        long wait = myQuietPeriod;
+
+        for (final Change change : myPendingFiles.values()) {
+            wait = Math.min(wait, change.myTime + myQuietPeriod - now);
+        }
+
+        return Math.max(0, wait);
+    }
+
+    /**
+     * Reads a file's attributes.
+     *
+     * @param aPath A file
+     * @return The file's attributes, or null if it no longer exists or can't be read
+     */
+    private static BasicFileAttributes readAttributes(final Path aPath) {
+        try {
+            return Files.readAttributes(aPath, BasicFileAttributes.class);
+        } catch (final IOException details) {
+            return null;
+        }
+    }
+
+    /**
+     * When a CSV file was last seen to change, and its size and modification time then.
+     */
+    private static final class Change {
+
+        /**
+         * When the change was seen, in nanoseconds.
+         */
+        private final long myTime = System.nanoTime();
+
+        /**
+         * The file's size.
+         */
+        private final long mySize;
+
+        /**
+         * The file's modification time, in milliseconds.
+         */
+        private final long myModifiedTime;
+
+        /**
+         * Records a change to a CSV file.
+         *
+         * @param aAttributes The file's attributes after the change
+         */
+        private Change(final BasicFileAttributes aAttributes) {
+            mySize = aAttributes.size();
+            myModifiedTime = aAttributes.lastModifiedTime().toMillis();
+        }
+
+        /**
+         * Whether a CSV file's size and modification time are the same as when the change was seen.
+         *
+         * @param aAttributes The file's current attributes
+         * @return True if the file hasn't changed since; else, false
+         */
+        private boolean isSameAs(final BasicFileAttributes aAttributes) {
+            return aAttributes.size() == mySize && aAttributes.lastModifiedTime().toMillis() == myModifiedTime;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.nio.file.Path;
+
+import picocli.CommandLine.Option;
+
+/**
+ * The options that control how rows are enriched with A/V metadata, which are shared by the batch command and the
+ * <code>serve</code> command.
+ */
+public final class EnrichmentOptions {
+
+    /**
+     * The number of worker threads used to probe the rows of a CSV file.
+     */
+    @Option(names = "--threads", defaultValue = "1",
+            description = "The number of rows to probe concurrently, across all CSV files (default: ${DEFAULT-VALUE}).")
+    private int myThreads;
+
+    /**
+     * Whether rows that already have A/V metadata are left as they are.
+     */
+    @Option(names = "--incremental",
+            description = "Leave rows that already have media.duration and media.format values as they are.")
+    private boolean myRunIsIncremental;
+
+    /**
+     * Whether ffprobe is only asked for the values that are added to the CSV.
+     */
+    @Option(names = "--lean-probe",
+            description = "Only ask ffprobe for the values added to the CSV, reading less of each media file.")
+    private boolean myProbeIsLean;
+
+    /**
+     * Whether the durations and dimensions of common formats are read from their headers instead of with ffprobe.
+     */
+    @Option(names = "--header-probe",
+            description = { "Read the durations and dimensions of WAV, AIFF, MP3, MP4/MOV, JPEG, PNG, and TIFF files",
+                "from their headers, only running ffprobe for other files." })
+    private boolean myProbeReadsHeaders;
+
+    /**
+     * The number of seconds a probe may run before it's stopped.
+     */
+    @Option(names = "--probe-timeout", defaultValue = "0", paramLabel = "SECONDS",
+            description = { "The number of seconds a media file's probe may run before its process is killed and the",
+                "row is recorded as failed; 0 turns this off (default: ${DEFAULT-VALUE})." })
+    private int myProbeTimeout;
+
+    /**
+     * The maximum number of ffprobe processes that may run at once.
+     */
+    @Option(names = "--max-probes", defaultValue = "0", paramLabel = "N",
+            description = { "The most ffprobe processes that may run at once, counting killed processes that haven't",
+                "exited yet (default: the --threads value)." })
+    private int myMaxProbes;
+
+    /**
+     * Whether the media mounts are listed up front so file names can be resolved without checking the mounts.
+     */
+    @Option(names = "--index-mounts",
+            description = "List the media mounts up front so file names are resolved without checking the mounts.")
+    private boolean myMountsAreIndexed;
+
+    /**
+     * A file in which probe results are cached across runs.
+     */
+    @Option(names = "--probe-cache", paramLabel = "FILE",
+            description = "A file in which probe results are cached so unchanged media files aren't probed again.")
+    private Path myProbeCachePath;
+
+    /**
+     * The maximum number of probe results kept in memory for reuse during the run.
+     */
+    @Option(names = "--probe-memo-size", defaultValue = "10000", paramLabel = "N",
+            description = { "The number of probe results kept in memory so a media file listed more than once in a run",
+                "is only probed once; 0 turns this off (default: ${DEFAULT-VALUE})." })
+    private int myProbeMemoSize;
+
+    /**
+     * Whether cached probe results are also checked against a fingerprint of the media file's content.
+     */
+    @Option(names = "--probe-cache-hash",
+            description = "Also check cached probe results against a fingerprint of the media file's content.")
+    private boolean myProbeCacheIsHashed;
+
+    /**
+     * The number of rows ahead of the row being enriched whose media files are read in the background.
+     */
+    @Option(names = "--prefetch", defaultValue = "0", paramLabel = "N",
+            description = { "Start reading the media files of the next N rows in the background, so slow first reads",
+                "overlap with probing; 0 turns this off (default: ${DEFAULT-VALUE})." })
+    private int myPrefetchRows;
+
+    /**
+     * The number of MiB read from the start of each prefetched media file.
+     */
+    @Option(names = "--prefetch-size", defaultValue = "4", paramLabel = "MIB",
+            description = "The MiB read from the start of each prefetched media file (default: ${DEFAULT-VALUE}).")
+    private int myPrefetchSize;
+
+    /**
+     * Whether each row is enriched on its own virtual thread, rather than on a pool of platform threads.
+     */
+    @Option(names = "--virtual-threads",
+            description = { "Enrich each row on its own virtual thread (Java 21 or later), with --max-probes capping",
+                "the probes running at once; on older JVMs, the --threads pool is used instead." })
+    private boolean myThreadsAreVirtual;
+
+    /**
+     * Whether the number of probes run at once on each media mount adapts to how the mount is coping.
+     */
+    @Option(names = "--adaptive-probes",
+            description = { "Adapt the number of probes run at once on each media mount to the mount's probe latency",
+                "and errors, up to --max-probes per mount." })
+    private boolean myProbesAreAdaptive;
+
+    /**
+     * The order in which the rows waiting to be enriched are started.
+     */
+    @Option(names = "--probe-order", defaultValue = "fifo", paramLabel = "ORDER",
+            description = { "The order in which waiting rows are probed: fifo, largest-first, or locality; rows are",
+                "still written in their original order (default: ${DEFAULT-VALUE})." })
+    private ProbeScheduler.ProbeOrder myProbeOrder;
+
+    /**
+     * The number of rows that may be read ahead of the row being written, waiting to be enriched or being enriched.
+     */
+    @Option(names = "--probe-window", defaultValue = "0", paramLabel = "N",
+            description = { "The number of rows that can be waiting or being enriched at once, from which",
+                "--probe-order picks (default: four per thread)." })
+    private int myProbeWindow;
+
+    /**
+     * Gets the number of rows to probe concurrently.
+     *
+     * @return The number of worker threads
+     */
+    public int getThreads() {
+        return myThreads;
+    }
+
+    /**
+     * Whether rows that already have A/V metadata are left as they are.
+     *
+     * @return True if enriched rows are left as they are; else, false
+     */
+    public boolean isIncremental() {
+        return myRunIsIncremental;
+    }
+
+    /**
+     * Whether ffprobe is only asked for the values that are added to the CSV.
+     *
+     * @return True if ffprobe is run in lean mode; else, false
+     */
+    public boolean isLeanProbe() {
+        return myProbeIsLean;
+    }
+
+    /**
+     * Whether the durations and dimensions of common formats are read from their headers.
+     *
+     * @return True if media headers are read in-process; else, false
+     */
+    public boolean isHeaderProbe() {
+        return myProbeReadsHeaders;
+    }
+
+    /**
+     * Gets the number of seconds a probe may run before it's stopped.
+     *
+     * @return The probe timeout in seconds, or 0 if probes aren't timed
+     */
+    public int getProbeTimeout() {
+        return myProbeTimeout;
+    }
+
+    /**
+     * Gets the maximum number of ffprobe processes that may run at once.
+     *
+     * @return The maximum number of ffprobe processes, or 0 if it's the number of threads
+     */
+    public int getMaxProbes() {
+        return myMaxProbes;
+    }
+
+    /**
+     * Whether the media mounts are listed up front.
+     *
+     * @return True if the media mounts are indexed; else, false
+     */
+    public boolean areMountsIndexed() {
+        return myMountsAreIndexed;
+    }
+
+    /**
+     * Gets the file in which probe results are cached across runs.
+     *
+     * @return The probe cache file, or null if there's no probe cache
+     */
+    public Path getProbeCachePath() {
+        return myProbeCachePath;
+    }
+
+    /**
+     * Gets the maximum number of probe results kept in memory.
+     *
+     * @return The size of the probe memo, or 0 if it's turned off
+     */
+    public int getProbeMemoSize() {
+        return myProbeMemoSize;
+    }
+
+    /**
+     * Whether cached probe results are also checked against a fingerprint of the media file's content.
+     *
+     * @return True if cached results are checked against a fingerprint; else, false
+     */
+    public boolean isProbeCacheHashed() {
+        return myProbeCacheIsHashed;
+    }
+
+    /**
+     * Gets the number of rows ahead of the row being enriched whose media files are read in the background.
+     *
+     * @return The number of rows prefetched, or 0 if media files aren't prefetched
+     */
+    public int getPrefetchRows() {
+        return myPrefetchRows;
+    }
+
+    /**
+     * Gets the number of MiB read from the start of each prefetched media file.
+     *
+     * @return The number of MiB prefetched from each media file
+     */
+    public int getPrefetchSize() {
+        return myPrefetchSize;
+    }
+
+    /**
+     * Whether each row is enriched on its own virtual thread, if the JVM has them.
+     *
+     * @return True if virtual threads were requested; else, false
+     */
+    public boolean useVirtualThreads() {
+        return myThreadsAreVirtual;
+    }
+
+    /**
+     * Gets the order in which the rows waiting to be enriched are started.
+     *
+     * @return The probe order
+     */
+    public ProbeScheduler.ProbeOrder getProbeOrder() {
+        return myProbeOrder;
+    }
+
+    /**
+     * Gets the number of rows that may be waiting to be enriched or being enriched at once.
+     *
+     * @return The number of rows in the probe window, or 0 for the default of four rows per thread
+     */
+    public int getProbeWindow() {
+        return myProbeWindow;
+    }
+
+    /**
+     * Whether the number of probes run at once on each media mount adapts to how the mount is coping.
+     *
+     * @return True if adaptive per-mount limits were requested; else, false
+     */
+    public boolean useAdaptiveProbes() {
+        return myProbesAreAdaptive;
+    }
+}
@@ -26,6 +26,16 @@ final class ExitCodes {
      */
     public static final int READ_WRITE_ERROR = 103;
 
+    /**
+     * An option was supplied with a value that can't be used.
+     */
+    public static final int INVALID_OPTION = 104;
+
+    /**
+     * Validating the CSV files found problems that would stop them from being enriched.
+     */
+    public static final int VALIDATION_FAILED = 105;
+
     /**
      * Creates a new error codes object.
      */
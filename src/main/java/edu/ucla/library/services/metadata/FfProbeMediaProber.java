@@ -0,0 +1,194 @@
+
+package edu.ucla.library.services.metadata;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import net.bramp.ffmpeg.FFprobe;
+
+/**
+ * A media prober that runs the ffprobe executable. A single instance is shared by every row of a run; it's safe for
+ * concurrent use because each probe runs in its own ffprobe process.
+ * <p>
+ * By default, ffprobe is asked for the full JSON description of a file's format and streams. In lean mode, it's only
+ * asked for the handful of values we use, with a smaller probe window, and its compact output is parsed directly.
+ * </p>
+ * <p>
+ * Each probe can be given a deadline, after which its ffprobe process is killed and the probe fails, and the number of
+ * ffprobe processes that run at once can be limited.
+ * </p>
+ */
+public final class FfProbeMediaProber implements MediaProber {
+
+    /**
+     * The number of bytes ffprobe reads to detect streams in lean mode (ffprobe's default is 5,000,000).
+     */
+    private static final String LEAN_PROBE_SIZE = "1000000";
+
+    /**
+     * The number of microseconds of media ffprobe analyzes to detect streams in lean mode (ffprobe's default is
+     * 5,000,000).
+     */
+    private static final String LEAN_ANALYZE_DURATION = "1000000";
+
+    /**
+     * The only entries ffprobe is asked to show in lean mode.
+     */
+    private static final String LEAN_ENTRIES = "format=format_name,duration:stream=width,height";
+
+    /**
+     * Logger for the FfProbeMediaProber.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(FfProbeMediaProber.class, MessageCodes.BUNDLE);
+
+    /**
+     * The FFprobe wrapper used for every probe.
+     */
+    private final FFprobe myFFprobe;
+
+    /**
+     * The function that starts ffprobe processes.
+     */
+    private final ProbeProcessFunction myProcessFunction;
+
+    /**
+     * Whether only the values we use are requested from ffprobe.
+     */
+    private final boolean myProbeIsLean;
+
+    /**
+     * Creates a new ffprobe media prober.
+     *
+     * @param aFfprobePath The path to the ffprobe executable
+     */
+    public FfProbeMediaProber(final String aFfprobePath) {
+        this(aFfprobePath, false);
+    }
+
+    /**
+     * Creates a new ffprobe media prober.
+     *
+     * @param aFfprobePath The path to the ffprobe executable
+     * @param aLeanProbe Whether only the values we use should be requested from ffprobe
+     */
+    public FfProbeMediaProber(final String aFfprobePath, final boolean aLeanProbe) {
+        this(aFfprobePath, aLeanProbe, 0, 0);
+    }
+
+    /**
+     * Creates a new ffprobe media prober that limits how long each probe may take and how many run at once.
+     *
+     * @param aFfprobePath The path to the ffprobe executable
+     * @param aLeanProbe Whether only the values we use should be requested from ffprobe
+     * @param aTimeout The number of milliseconds a probe may run before its process is killed; 0 means there's no limit
+     * @param aMaxProbes The most ffprobe processes that may run at once; 0 means there's no limit
+     */
+    public FfProbeMediaProber(final String aFfprobePath, final boolean aLeanProbe, final long aTimeout,
+            final int aMaxProbes) {
+        myProcessFunction = new ProbeProcessFunction(aTimeout, aMaxProbes);
+        myFFprobe = new FFprobe(aFfprobePath, myProcessFunction);
+        myProbeIsLean = aLeanProbe;
+    }
+
+    /**
+     * Gets the version of the ffprobe executable. This runs ffprobe the first time it's called, so it can be used to
+     * check that the executable is usable.
+     *
+     * @return The ffprobe version
+     * @throws IOException If the ffprobe executable can't be run
+     */
+    public String version() throws IOException {
+        return myFFprobe.version();
+    }
+
+    /**
+     * Probes a media file.
+     *
+     * @param aPath The path of a media file
+     * @return The media info extracted from the media file
+     * @throws IOException If ffprobe encounters an error while reading the media file or doesn't finish in time
+     */
+    @Override
+    public MediaInfo probe(final Path aPath) throws IOException {
+        try {
+            if (myProbeIsLean) {
+                return probeLean(aPath);
+            }
+
+            return MediaInfo.fromProbeResult(myFFprobe.probe(aPath.toString()));
+        } catch (final IOException | RuntimeException details) {
+            if (myProcessFunction.hasTimedOut()) { // Killing ffprobe cut its output short, which caused the error
+                throw new IOException(LOGGER.getMessage(MessageCodes.MG_125, aPath,
+                        TimeUnit.MILLISECONDS.toSeconds(myProcessFunction.getTimeout())), details);
+            }
+
+            throw details;
+        }
+    }
+
+    /**
+     * Probes a media file, asking ffprobe for only the values we use. When a file has more than one stream with
+     * dimensions, the last stream's width and height are used.
+     *
+     * @param aPath The path of a media file
+     * @return The media info extracted from the media file
+     * @throws IOException If ffprobe encounters an error while reading the media file
+     */
+    private MediaInfo probeLean(final Path aPath) throws IOException {
+        final List<String> args = new ArrayList<>(getLeanCommand());
+
+        args.add(aPath.toString());
+
+        final Process process = myProcessFunction.run(args);
+        final ProbeEntries entries = new ProbeEntries();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8))) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                entries.add(line);
+            }
+        }
+
+        try {
+            if (process.waitFor() != 0) {
+                throw new IOException(getPath() + " returned non-zero exit status. Check stdout.");
+            }
+        } catch (final InterruptedException details) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new IOException(details.getMessage(), details);
+        }
+
+        return entries.toMediaInfo();
+    }
+
+    /**
+     * Gets the ffprobe command (the executable and its options) that's run in lean mode, without the media file.
+     *
+     * @return The lean ffprobe command
+     */
+    List<String> getLeanCommand() {
+        return List.of(getPath(), "-v", "error", "-probesize", LEAN_PROBE_SIZE, "-analyzeduration",
+                LEAN_ANALYZE_DURATION, "-show_entries", LEAN_ENTRIES, "-of", "default=noprint_wrappers=1");
+    }
+
+    /**
+     * Gets the path to the ffprobe executable.
+     *
+     * @return The path to the ffprobe executable
+     */
+    public String getPath() {
+        return myFFprobe.getPath();
+    }
+}
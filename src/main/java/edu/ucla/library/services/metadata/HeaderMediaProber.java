@@ -0,0 +1,915 @@
+
+package edu.ucla.library.services.metadata;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A media prober that reads the duration and dimensions of common formats straight from their headers, without
+ * starting a process. It handles WAV and AIFF audio, MP3 (using its Xing/Info or VBRI frame, or its bit rate if it has
+ * neither), MP4 and QuickTime (using the <code>mvhd</code> and <code>tkhd</code> atoms), and JPEG, PNG, and TIFF
+ * images. Files in other formats, or that can't be read with confidence, are passed on to a fallback prober (i.e.
+ * ffprobe).
+ * <p>
+ * The format names it reports are the ones ffprobe reports for the same files, so the MIME types detected from them
+ * are the same, too.
+ * </p>
+ */
+public final class HeaderMediaProber implements MediaProber {
+
+    /**
+     * The number of bytes read from the start of a file in one go; anything further into the file (e.g. an MP4 file's
+     * <code>moov</code> atom, when it's at the end) is read with a small positioned read.
+     */
+    static final int HEADER_WINDOW = 64 * 1024;
+
+    /**
+     * The format name ffprobe reports for WAV files.
+     */
+    private static final String WAV = "wav";
+
+    /**
+     * The format name ffprobe reports for AIFF files.
+     */
+    private static final String AIFF = "aiff";
+
+    /**
+     * The format name ffprobe reports for MP3 files.
+     */
+    private static final String MP3 = "mp3";
+
+    /**
+     * The format name ffprobe reports for MP4 and QuickTime files.
+     */
+    private static final String MP4 = "mov,mp4,m4a,3gp,3g2,mj2";
+
+    /**
+     * The format name ffprobe reports for JPEG files.
+     */
+    private static final String JPEG = "image2";
+
+    /**
+     * The format name ffprobe reports for PNG files.
+     */
+    private static final String PNG = "png_pipe";
+
+    /**
+     * The format name ffprobe reports for TIFF files.
+     */
+    private static final String TIFF = "tiff_pipe";
+
+    /**
+     * The WAV format tags of uncompressed audio (PCM, IEEE float, and extensible), whose duration follows from the
+     * size of the data chunk.
+     */
+    private static final int[] WAV_UNCOMPRESSED = { 0x0001, 0x0003, 0xFFFE };
+
+    /**
+     * The MP3 bit rates, in kbps, by MPEG version (1 or 2/2.5), layer (I, II, III), and bit rate index.
+     */
+    private static final int[][][] MP3_BIT_RATES = {
+        { { 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 },
+            { 0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384 },
+            { 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 } },
+        { { 0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256 },
+            { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 },
+            { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 } } };
+
+    /**
+     * The MP3 sample rates, by MPEG version (1, 2, 2.5) and sample rate index.
+     */
+    private static final int[][] MP3_SAMPLE_RATES = { { 44100, 48000, 32000 }, { 22050, 24000, 16000 },
+        { 11025, 12000, 8000 } };
+
+    /**
+     * The size of an ID3v1 tag, which may be at the end of an MP3 file.
+     */
+    private static final int ID3V1_SIZE = 128;
+
+    /**
+     * The most of an MP4 file's <code>udta</code> or <code>meta</code> atom that's read to look for cover art.
+     */
+    private static final int MAX_METADATA_SIZE = 1024 * 1024;
+
+    /**
+     * The prober used for files that can't be read from their headers.
+     */
+    private final MediaProber myFallback;
+
+    /**
+     * Creates a new header media prober.
+     *
+     * @param aFallback The prober used for files that can't be read from their headers
+     */
+    public HeaderMediaProber(final MediaProber aFallback) {
+        myFallback = aFallback;
+    }
+
+    @Override
+    public MediaInfo probe(final Path aPath) throws IOException {
+        final MediaInfo mediaInfo = readHeader(aPath);
+        return mediaInfo == null ? myFallback.probe(aPath) : mediaInfo;
+    }
+
+    /**
+     * Reads a media file's info from its header, without passing it on to the fallback prober.
+     *
+     * @param aPath The path of a media file
+     * @return The media info, or null if it can't be read from the file's header
+     * @throws IOException If the file can't be read
+     */
+    MediaInfo readHeader(final Path aPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(aPath, StandardOpenOption.READ)) {
+            return read(new Header(channel));
+        }
+    }
+
+    /**
+     * Reads the media info from a file's header.
+     *
+     * @param aHeader The file's header
+     * @return The media info, or null if it can't be read from the header
+     * @throws IOException If the file can't be read
+     */
+    static MediaInfo read(final Header aHeader) throws IOException {
+        final ByteBuffer start = aHeader.read(0, Math.min(12, (int) aHeader.getSize()), ByteOrder.BIG_ENDIAN);
+
+        if (start == null || start.remaining() < 12) {
+            return null;
+        }
+
+        final String magic = ascii(start, 0, 4);
+        final String subtype = ascii(start, 8, 4);
+        final int first = start.get(0) & 0xFF;
+        final int second = start.get(1) & 0xFF;
+
+        if ("RIFF".equals(magic) && "WAVE".equals(subtype)) {
+            return readWav(aHeader);
+        } else if ("FORM".equals(magic) && ("AIFF".equals(subtype) || "AIFC".equals(subtype))) {
+            return readAiff(aHeader);
+        } else if ("ID3".equals(magic.substring(0, 3)) || first == 0xFF && (second & 0xE0) == 0xE0) {
+            return readMp3(aHeader);
+        } else if (isMp4Atom(ascii(start, 4, 4))) {
+            return readMp4(aHeader);
+        } else if (first == 0xFF && second == 0xD8) {
+            return readJpeg(aHeader);
+        } else if (first == 0x89 && "PNG".equals(ascii(start, 1, 3))) {
+            return readPng(aHeader);
+        } else if ("II*\0".equals(magic) || "MM\0*".equals(magic)) {
+            return readTiff(aHeader, first == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads a WAV file's duration from its <code>fmt</code> and <code>data</code> chunks. Only uncompressed audio is
+     * read, since the duration of compressed audio doesn't simply follow from its size.
+     *
+     * @param aHeader The file's header
+     * @return The media info, or null if it can't be read from the header
+     * @throws IOException If the file can't be read
+     */
+    private static MediaInfo readWav(final Header aHeader) throws IOException {
+        long byteRate = 0;
+        long position = 12;
+        ByteBuffer chunk;
+
+        while ((chunk = aHeader.read(position, 8, ByteOrder.LITTLE_ENDIAN)) != null) {
+            final String id = ascii(chunk, 0, 4);
+            final long length = uint32(chunk, 4);
+
+            if ("fmt ".equals(id)) {
+                final ByteBuffer format = aHeader.read(position + 8, 16, ByteOrder.LITTLE_ENDIAN);
+
+                if (format == null || !contains(WAV_UNCOMPRESSED, format.getShort(0) & 0xFFFF)) {
+                    return null;
+                }
+
+                byteRate = uint32(format, 8);
+            } else if ("data".equals(id)) {
+                // A data chunk that's still being written may claim to be longer than the file
+                final long dataLength = Math.min(length, aHeader.getSize() - position - 8);
+
+                return byteRate == 0 ? null : new MediaInfo(WAV, (double) dataLength / byteRate, 0, 0);
+            }
+
+            position += 8 + length + (length & 1);
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads an AIFF file's duration from its <code>COMM</code> chunk.
+     *
+     * @param aHeader The file's header
+     * @return The media info, or null if it can't be read from the header
+     * @throws IOException If the file can't be read
+     */
+    private static MediaInfo readAiff(final Header aHeader) throws IOException {
+        long position = 12;
+        ByteBuffer chunk;
+
+        while ((chunk = aHeader.read(position, 8, ByteOrder.BIG_ENDIAN)) != null) {
+            final long length = uint32(chunk, 4);
+
+            if ("COMM".equals(ascii(chunk, 0, 4))) {
+                final ByteBuffer common = aHeader.read(position + 8, 18, ByteOrder.BIG_ENDIAN);
+
+                if (common == null) {
+                    return null;
+                }
+
+                final double sampleRate = extended(common, 8);
+
+                return sampleRate > 0 ? new MediaInfo(AIFF, uint32(common, 2) / sampleRate, 0, 0) : null;
+            }
+
+            position += 8 + length + (length & 1);
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads an MP3 file's duration from its first frame: from the frame count in its Xing/Info or VBRI frame if it has
+     * one, or else from its size and bit rate (as ffprobe does). Files with embedded pictures are left to the fallback
+     * prober, since ffprobe reports those as video streams with dimensions.
+     *
+     * @param aHeader The file's header
+     * @return The media info, or null if it can't be read from the header
+     * @throws IOException If the file can't be read
+     */
+    private static MediaInfo readMp3(final Header aHeader) throws IOException {
+        final long audioStart = skipId3v2(aHeader);
+
+        if (audioStart < 0) {
+            return null;
+        }
+
+        final int windowLength = (int) Math.min(HEADER_WINDOW, aHeader.getSize() - audioStart);
+        final ByteBuffer window = aHeader.read(audioStart, windowLength, ByteOrder.BIG_ENDIAN);
+
+        if (window == null) {
+            return null;
+        }
+
+        for (int offset = 0; offset + 4 <= windowLength; offset++) {
+            final Mp3Frame frame = Mp3Frame.parse(window.getInt(offset));
+
+            if (frame != null) {
+                final long frameCount = frame.getFrameCount(window, offset);
+                final long audioLength = aHeader.getSize() - audioStart - offset - getId3v1Length(aHeader);
+                final int next = offset + frame.getLength();
+
+                if (frameCount > 0) {
+                    return new MediaInfo(MP3, (double) frameCount * frame.mySamples / frame.mySampleRate, 0, 0);
+                } else if (next + 4 <= windowLength ? frame.matches(Mp3Frame.parse(window.getInt(next)))
+                        : audioLength == frame.getLength()) {
+                    return new MediaInfo(MP3, audioLength * 8.0 / frame.myBitRate, 0, 0);
+                }
+
+                return null; // A frame sync that isn't followed by another frame isn't to be trusted
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Finds where the audio starts after an MP3 file's ID3v2 tag.
+     *
+     * @param aHeader The file's header
+     * @return The position after the tag, or -1 if the tag has an embedded picture
+     * @throws IOException If the file can't be read
+     */
+    private static long skipId3v2(final Header aHeader) throws IOException {
+        final ByteBuffer tagHeader = aHeader.read(0, 10, ByteOrder.BIG_ENDIAN);
+
+        if (!"ID3".equals(ascii(tagHeader, 0, 3))) {
+            return 0;
+        }
+
+        final int tagLength = (tagHeader.get(6) & 0x7F) << 21 | (tagHeader.get(7) & 0x7F) << 14 |
+                (tagHeader.get(8) & 0x7F) << 7 | tagHeader.get(9) & 0x7F;
+        final int footerLength = (tagHeader.get(5) & 0x10) == 0 ? 0 : 10;
+        final ByteBuffer tag = aHeader.read(10, Math.min(tagLength, HEADER_WINDOW), ByteOrder.BIG_ENDIAN);
+        final String frames = tag == null ? "" : ascii(tag, 0, tag.remaining());
+
+        // APIC is the picture frame's ID in ID3v2.3 and v2.4, and PIC is its ID in ID3v2.2
+        if (frames.contains("APIC") || tagHeader.get(3) == 2 && frames.contains("PIC")) {
+            return -1;
+        }
+
+        return 10L + tagLength + footerLength;
+    }
+
+    /**
+     * Gets the length of the ID3v1 tag at the end of an MP3 file.
+     *
+     * @param aHeader The file's header
+     * @return The length of the ID3v1 tag, or zero if there isn't one
+     * @throws IOException If the file can't be read
+     */
+    private static int getId3v1Length(final Header aHeader) throws IOException {
+        final ByteBuffer tag = aHeader.read(aHeader.getSize() - ID3V1_SIZE, 3, ByteOrder.BIG_ENDIAN);
+        return tag != null && "TAG".equals(ascii(tag, 0, 3)) ? ID3V1_SIZE : 0;
+    }
+
+    /**
+     * Reads an MP4 or QuickTime file's duration from its <code>mvhd</code> atom and its dimensions from the
+     * <code>tkhd</code> atom of its last video track. Audio-only files with cover art are left to the fallback prober,
+     * since ffprobe reports cover art as a video stream with dimensions.
+     *
+     * @param aHeader The file's header
+     * @return The media info, or null if it can't be read from the header
+     * @throws IOException If the file can't be read
+     */
+    private static MediaInfo readMp4(final Header aHeader) throws IOException {
+        final Atom movie = Atom.find(Atom.list(aHeader, 0, aHeader.getSize()), "moov");
+
+        if (movie == null) {
+            return null;
+        }
+
+        final List<Atom> movieAtoms = Atom.list(aHeader, movie.myStart, movie.myEnd);
+        final Atom movieHeader = Atom.find(movieAtoms, "mvhd");
+        final double duration = movieHeader == null ? 0 : readMovieDuration(aHeader, movieHeader);
+        int width = 0;
+        int height = 0;
+
+        if (duration <= 0) {
+            return null; // e.g. a fragmented MP4 file, whose duration is only in its fragments
+        }
+
+        for (final Atom track : movieAtoms) {
+            if ("trak".equals(track.myType) && isVideoTrack(aHeader, track)) {
+                final Atom trackHeader = Atom.find(Atom.list(aHeader, track.myStart, track.myEnd), "tkhd");
+                final ByteBuffer version = trackHeader == null ? null
+                        : aHeader.read(trackHeader.myStart, 1, ByteOrder.BIG_ENDIAN);
+                final int offset = version != null && version.get(0) == 1 ? 88 : 76;
+                final ByteBuffer size = trackHeader == null ? null
+                        : aHeader.read(trackHeader.myStart + offset, 8, ByteOrder.BIG_ENDIAN);
+
+                if (size != null && size.getInt(0) >>> 16 != 0 && size.getInt(4) >>> 16 != 0) {
+                    width = size.getInt(0) >>> 16; // The dimensions are 16.16 fixed point numbers
+                    height = size.getInt(4) >>> 16;
+                }
+            }
+        }
+
+        if (width == 0 && hasCoverArt(aHeader, movieAtoms)) {
+            return null;
+        }
+
+        return new MediaInfo(MP4, duration, width, height);
+    }
+
+    /**
+     * Reads the duration of an MP4 or QuickTime movie from its <code>mvhd</code> atom.
+     *
+     * @param aHeader The file's header
+     * @param aMovieHeader The movie's <code>mvhd</code> atom
+     * @return The duration in seconds, or zero if it can't be read
+     * @throws IOException If the file can't be read
+     */
+    private static double readMovieDuration(final Header aHeader, final Atom aMovieHeader) throws IOException {
+        final ByteBuffer movieHeader = aHeader.read(aMovieHeader.myStart, 32, ByteOrder.BIG_ENDIAN);
+
+        if (movieHeader == null) {
+            return 0;
+        }
+
+        if (movieHeader.get(0) == 1) {
+            final long timeScale = uint32(movieHeader, 20);
+            return timeScale == 0 ? 0 : (double) movieHeader.getLong(24) / timeScale;
+        }
+
+        final long timeScale = uint32(movieHeader, 12);
+        return timeScale == 0 ? 0 : (double) uint32(movieHeader, 16) / timeScale;
+    }
+
+    /**
+     * Tests whether an MP4 or QuickTime track is a video track, from the handler type in its <code>hdlr</code> atom.
+     *
+     * @param aHeader The file's header
+     * @param aTrack A <code>trak</code> atom
+     * @return True if the track is a video track; else, false
+     * @throws IOException If the file can't be read
+     */
+    private static boolean isVideoTrack(final Header aHeader, final Atom aTrack) throws IOException {
+        final Atom media = Atom.find(Atom.list(aHeader, aTrack.myStart, aTrack.myEnd), "mdia");
+        final Atom handler = media == null ? null : Atom.find(Atom.list(aHeader, media.myStart, media.myEnd), "hdlr");
+        final ByteBuffer handlerType =
+                handler == null ? null : aHeader.read(handler.myStart + 8, 4, ByteOrder.BIG_ENDIAN);
+
+        return handlerType != null && "vide".equals(ascii(handlerType, 0, 4));
+    }
+
+    /**
+     * Tests whether an MP4 or QuickTime movie has cover art in its metadata.
+     *
+     * @param aHeader The file's header
+     * @param aMovieAtoms The atoms in the movie's <code>moov</code> atom
+     * @return True if the movie has cover art; else, false
+     * @throws IOException If the file can't be read
+     */
+    private static boolean hasCoverArt(final Header aHeader, final List<Atom> aMovieAtoms) throws IOException {
+        for (final Atom atom : aMovieAtoms) {
+            if ("udta".equals(atom.myType) || "meta".equals(atom.myType)) {
+                final int length = (int) Math.min(atom.myEnd - atom.myStart, MAX_METADATA_SIZE);
+                final ByteBuffer metadata = aHeader.read(atom.myStart, length, ByteOrder.BIG_ENDIAN);
+
+                if (metadata == null || ascii(metadata, 0, length).contains("covr")) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Reads a JPEG file's dimensions from its start of frame marker.
+     *
+     * @param aHeader The file's header
+     * @return The media info, or null if it can't be read from the header
+     * @throws IOException If the file can't be read
+     */
+    private static MediaInfo readJpeg(final Header aHeader) throws IOException {
+        long position = 2;
+        ByteBuffer marker;
+
+        while ((marker = aHeader.read(position, 4, ByteOrder.BIG_ENDIAN)) != null) {
+            final int type = marker.get(1) & 0xFF;
+
+            if ((marker.get(0) & 0xFF) != 0xFF || type == 0xDA || type == 0xD9) {
+                return null; // Not a marker, or the image data started before a start of frame marker was found
+            } else if (type == 0xFF) {
+                position += 1; // A fill byte
+            } else if (type == 0x01 || type >= 0xD0 && type <= 0xD7) {
+                position += 2; // A marker without a length
+            } else if (type >= 0xC0 && type <= 0xCF && type != 0xC4 && type != 0xC8 && type != 0xCC) {
+                final ByteBuffer frame = aHeader.read(position + 5, 4, ByteOrder.BIG_ENDIAN);
+
+                return frame == null ? null
+                        : new MediaInfo(JPEG, 0, frame.getShort(2) & 0xFFFF, frame.getShort(0) & 0xFFFF);
+            } else {
+                position += 2 + (marker.getShort(2) & 0xFFFF);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads a PNG file's dimensions from its <code>IHDR</code> chunk.
+     *
+     * @param aHeader The file's header
+     * @return The media info, or null if it can't be read from the header
+     * @throws IOException If the file can't be read
+     */
+    private static MediaInfo readPng(final Header aHeader) throws IOException {
+        final ByteBuffer header = aHeader.read(12, 12, ByteOrder.BIG_ENDIAN);
+
+        if (header == null || !"IHDR".equals(ascii(header, 0, 4))) {
+            return null;
+        }
+
+        return new MediaInfo(PNG, 0, header.getInt(4), header.getInt(8));
+    }
+
+    /**
+     * Reads a TIFF file's dimensions from the ImageWidth and ImageLength tags of its first image file directory.
+     *
+     * @param aHeader The file's header
+     * @param aByteOrder The byte order of the TIFF file
+     * @return The media info, or null if it can't be read from the header
+     * @throws IOException If the file can't be read
+     */
+    private static MediaInfo readTiff(final Header aHeader, final ByteOrder aByteOrder) throws IOException {
+        final long directory = uint32(aHeader.read(4, 4, aByteOrder), 0);
+        final ByteBuffer entryCount = aHeader.read(directory, 2, aByteOrder);
+        int width = 0;
+        int height = 0;
+
+        for (int index = 0; entryCount != null && index < (entryCount.getShort(0) & 0xFFFF); index++) {
+            final ByteBuffer entry = aHeader.read(directory + 2 + 12L * index, 12, aByteOrder);
+
+            if (entry == null) {
+                return null;
+            }
+
+            final int tag = entry.getShort(0) & 0xFFFF;
+            final int value = entry.getShort(2) == 3 ? entry.getShort(8) & 0xFFFF : entry.getInt(8);
+
+            if (tag == 256) {
+                width = value;
+            } else if (tag == 257) {
+                height = value;
+            }
+        }
+
+        return width > 0 && height > 0 ? new MediaInfo(TIFF, 0, width, height) : null;
+    }
+
+    /**
+     * Tests whether a four character code is the type of an atom that an MP4 or QuickTime file may start with.
+     *
+     * @param aType A four character code
+     * @return True if the code is the type of a top-level MP4 or QuickTime atom; else, false
+     */
+    private static boolean isMp4Atom(final String aType) {
+        switch (aType) {
+            case "ftyp":
+            case "moov":
+            case "mdat":
+            case "wide":
+            case "free":
+            case "skip":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Gets some bytes as a string of (ASCII) characters.
+     *
+     * @param aBuffer A buffer
+     * @param aIndex The index of the first byte
+     * @param aLength The number of bytes
+     * @return The bytes as a string, or an empty string if the buffer doesn't have that many bytes
+     */
+    private static String ascii(final ByteBuffer aBuffer, final int aIndex, final int aLength) {
+        if (aBuffer == null || aIndex + aLength > aBuffer.limit()) {
+            return "";
+        }
+
+        final byte[] bytes = new byte[aLength];
+
+        aBuffer.duplicate().position(aIndex).get(bytes);
+        return new String(bytes, ISO_8859_1);
+    }
+
+    /**
+     * Gets an unsigned 32 bit number.
+     *
+     * @param aBuffer A buffer
+     * @param aIndex The index of the number
+     * @return The number, or zero if the buffer is null
+     */
+    private static long uint32(final ByteBuffer aBuffer, final int aIndex) {
+        return aBuffer == null ? 0 : aBuffer.getInt(aIndex) & 0xFFFF_FFFFL;
+    }
+
+    /**
+     * Gets an 80 bit IEEE 754 extended precision number, as used for the sample rate of AIFF files.
+     *
+     * @param aBuffer A big-endian buffer
+     * @param aIndex The index of the number
+     * @return The number
+     */
+    private static double extended(final ByteBuffer aBuffer, final int aIndex) {
+        final int exponent = aBuffer.getShort(aIndex) & 0x7FFF;
+        final long mantissa = aBuffer.getLong(aIndex + 2);
+
+        return Math.scalb((double) (mantissa >>> 11), exponent - 16_383 - 52);
+    }
+
+    /**
+     * Tests whether an array contains a value.
+     *
+     * @param aArray An array
+     * @param aValue A value
+     * @return True if the array contains the value; else, false
+     */
+    private static boolean contains(final int[] aArray, final int aValue) {
+        for (final int value : aArray) {
+            if (value == aValue) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The header of a media file: its first {@link #HEADER_WINDOW} bytes, which are read up front, and positioned
+     * reads of the rest of the file.
+     */
+    static final class Header {
+
+        /**
+         * The file's channel.
+         */
+        private final FileChannel myChannel;
+
+        /**
+         * The size of the file.
+         */
+        private final long mySize;
+
+        /**
+         * The start of the file.
+         */
+        private final ByteBuffer myWindow;
+
+        /**
+         * Creates a new header, reading the start of the file.
+         *
+         * @param aChannel The file's channel
+         * @throws IOException If the file can't be read
+         */
+        Header(final FileChannel aChannel) throws IOException {
+            myChannel = aChannel;
+            mySize = aChannel.size();
+            myWindow = readFully(0, (int) Math.min(mySize, HEADER_WINDOW));
+        }
+
+        /**
+         * Gets the size of the file.
+         *
+         * @return The size of the file
+         */
+        long getSize() {
+            return mySize;
+        }
+
+        /**
+         * Reads some bytes of the file.
+         *
+         * @param aPosition The position of the first byte
+         * @param aLength The number of bytes
+         * @param aByteOrder The byte order in which to read them
+         * @return A buffer holding exactly the requested bytes, or null if the file ends before them
+         * @throws IOException If the file can't be read
+         */
+        ByteBuffer read(final long aPosition, final int aLength, final ByteOrder aByteOrder) throws IOException {
+            final ByteBuffer buffer;
+
+            if (aPosition < 0 || aLength < 0 || aPosition + aLength > mySize) {
+                return null;
+            } else if (aPosition + aLength <= myWindow.limit()) {
+                buffer = myWindow.duplicate().position((int) aPosition).limit((int) aPosition + aLength).slice();
+            } else {
+                buffer = readFully(aPosition, aLength);
+            }
+
+            return buffer.order(aByteOrder);
+        }
+
+        /**
+         * Reads some bytes of the file from its channel.
+         *
+         * @param aPosition The position of the first byte
+         * @param aLength The number of bytes
+         * @return A buffer holding the bytes
+         * @throws IOException If the file can't be read
+         */
+        private ByteBuffer readFully(final long aPosition, final int aLength) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate(aLength);
+
+            while (buffer.hasRemaining()) {
+                if (myChannel.read(buffer, aPosition + buffer.position()) < 0) {
+                    throw new EOFException(); // The file was truncated after its size was read
+                }
+            }
+
+            return buffer.flip();
+        }
+    }
+
+    /**
+     * An atom (or box) of an MP4 or QuickTime file.
+     */
+    private static final class Atom {
+
+        /**
+         * The atom's type.
+         */
+        private final String myType;
+
+        /**
+         * The position of the atom's contents.
+         */
+        private final long myStart;
+
+        /**
+         * The position after the end of the atom.
+         */
+        private final long myEnd;
+
+        /**
+         * Creates a new atom.
+         *
+         * @param aType The atom's type
+         * @param aStart The position of the atom's contents
+         * @param aEnd The position after the end of the atom
+         */
+        private Atom(final String aType, final long aStart, final long aEnd) {
+            myType = aType;
+            myStart = aStart;
+            myEnd = aEnd;
+        }
+
+        /**
+         * Lists the atoms between two positions of a file.
+         *
+         * @param aHeader The file's header
+         * @param aStart The position of the first atom
+         * @param aEnd The position after the last atom
+         * @return The atoms
+         * @throws IOException If the file can't be read
+         */
+        private static List<Atom> list(final Header aHeader, final long aStart, final long aEnd) throws IOException {
+            final List<Atom> atoms = new ArrayList<>();
+            long position = aStart;
+            ByteBuffer header;
+
+            while (position + 8 <= aEnd && (header = aHeader.read(position, 8, ByteOrder.BIG_ENDIAN)) != null) {
+                final long size = uint32(header, 0);
+                final String type = ascii(header, 4, 4);
+                final long end;
+                final long start;
+
+                if (size == 1) { // The atom's size is in the 64 bits after its type
+                    final ByteBuffer largeSize = aHeader.read(position + 8, 8, ByteOrder.BIG_ENDIAN);
+
+                    start = position + 16;
+                    end = largeSize == null ? -1 : position + largeSize.getLong(0);
+                } else {
+                    start = position + 8;
+                    end = size == 0 ? aEnd : position + size; // An atom of size zero runs to the end
+                }
+
+                if (end < start || end > aEnd) {
+                    break; // A truncated or corrupt atom
+                }
+
+                atoms.add(new Atom(type, start, end));
+                position = end;
+            }
+
+            return atoms;
+        }
+
+        /**
+         * Finds the first atom of a type.
+         *
+         * @param aAtoms A list of atoms
+         * @param aType The type of the atom to find
+         * @return The first atom of that type, or null if there isn't one
+         */
+        private static Atom find(final List<Atom> aAtoms, final String aType) {
+            for (final Atom atom : aAtoms) {
+                if (aType.equals(atom.myType)) {
+                    return atom;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * The header of an MP3 (MPEG audio) frame.
+     */
+    private static final class Mp3Frame {
+
+        /**
+         * The MPEG version: 0 for MPEG 1, 1 for MPEG 2, and 2 for MPEG 2.5.
+         */
+        private final int myVersion;
+
+        /**
+         * The layer: 0 for layer I, 1 for layer II, and 2 for layer III.
+         */
+        private final int myLayer;
+
+        /**
+         * The bit rate, in bits per second.
+         */
+        private final int myBitRate;
+
+        /**
+         * The sample rate, in Hz.
+         */
+        private final int mySampleRate;
+
+        /**
+         * The number of samples in the frame.
+         */
+        private final int mySamples;
+
+        /**
+         * Whether the frame has a padding byte.
+         */
+        private final boolean myFrameIsPadded;
+
+        /**
+         * Whether the audio is mono.
+         */
+        private final boolean myAudioIsMono;
+
+        /**
+         * Creates a new frame header.
+         *
+         * @param aVersion The MPEG version
+         * @param aLayer The layer
+         * @param aBitRateIndex The bit rate index
+         * @param aSampleRateIndex The sample rate index
+         * @param aFrameIsPadded Whether the frame has a padding byte
+         * @param aAudioIsMono Whether the audio is mono
+         */
+        private Mp3Frame(final int aVersion, final int aLayer, final int aBitRateIndex, final int aSampleRateIndex,
+                final boolean aFrameIsPadded, final boolean aAudioIsMono) {
+            myVersion = aVersion;
+            myLayer = aLayer;
+            myBitRate = MP3_BIT_RATES[Math.min(aVersion, 1)][aLayer][aBitRateIndex] * 1000;
+            mySampleRate = MP3_SAMPLE_RATES[aVersion][aSampleRateIndex];
+            mySamples = aLayer == 0 ? 384 : aLayer == 2 && aVersion > 0 ? 576 : 1152;
+            myFrameIsPadded = aFrameIsPadded;
+            myAudioIsMono = aAudioIsMono;
+        }
+
+        /**
+         * Parses a frame header.
+         *
+         * @param aHeader The four bytes of a possible frame header
+         * @return The frame header, or null if the bytes aren't a valid frame header
+         */
+        private static Mp3Frame parse(final int aHeader) {
+            final int versionBits = aHeader >>> 19 & 3;
+            final int layerBits = aHeader >>> 17 & 3;
+            final int bitRateIndex = aHeader >>> 12 & 0xF;
+            final int sampleRateIndex = aHeader >>> 10 & 3;
+
+            if (aHeader >>> 21 != 0x7FF || versionBits == 1 || layerBits == 0 || bitRateIndex == 0 ||
+                    bitRateIndex == 0xF || sampleRateIndex == 3) {
+                return null;
+            }
+
+            return new Mp3Frame(versionBits == 3 ? 0 : versionBits == 2 ? 1 : 2, 3 - layerBits, bitRateIndex,
+                    sampleRateIndex, (aHeader >>> 9 & 1) == 1, (aHeader >>> 6 & 3) == 3);
+        }
+
+        /**
+         * Gets the length of the frame, including its header.
+         *
+         * @return The length of the frame in bytes
+         */
+        private int getLength() {
+            final int padding = myFrameIsPadded ? 1 : 0;
+
+            if (myLayer == 0) {
+                return (12 * myBitRate / mySampleRate + padding) * 4;
+            }
+
+            return mySamples / 8 * myBitRate / mySampleRate + padding;
+        }
+
+        /**
+         * Gets the number of frames in the file from this frame's Xing/Info or VBRI header, if it has one.
+         *
+         * @param aWindow A buffer holding the frame
+         * @param aOffset The offset of the frame in the buffer
+         * @return The number of frames, or zero if the frame doesn't say
+         */
+        private long getFrameCount(final ByteBuffer aWindow, final int aOffset) {
+            final int sideInfoLength = myVersion == 0 ? myAudioIsMono ? 17 : 32 : myAudioIsMono ? 9 : 17;
+            final int xing = aOffset + 4 + sideInfoLength;
+            final int vbri = aOffset + 4 + 32;
+            final String xingId = ascii(aWindow, xing, 4);
+
+            if (myLayer == 2 && ("Xing".equals(xingId) || "Info".equals(xingId)) && xing + 12 <= aWindow.limit()) {
+                return (aWindow.getInt(xing + 4) & 1) == 0 ? 0 : uint32(aWindow, xing + 8);
+            } else if ("VBRI".equals(ascii(aWindow, vbri, 4)) && vbri + 18 <= aWindow.limit()) {
+                return uint32(aWindow, vbri + 14);
+            }
+
+            return 0;
+        }
+
+        /**
+         * Tests whether another frame header belongs to the same stream as this one.
+         *
+         * @param aFrame Another frame header
+         * @return True if the other frame has the same version, layer, and sample rate; else, false
+         */
+        private boolean matches(final Mp3Frame aFrame) {
+            return aFrame != null && aFrame.myVersion == myVersion && aFrame.myLayer == myLayer &&
+                    aFrame.mySampleRate == mySampleRate;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies that may be recorded by several threads at once without locking. Latencies are counted in
+ * log-linear microsecond buckets: each power of two is split into eight buckets, so a percentile is reported to within
+ * about 6% of the recorded value.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * The number of bits of each latency that pick its bucket within a power of two.
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /**
+     * The number of buckets for each power of two.
+     */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The highest power of two that's given its own buckets (about 50 days in microseconds); longer latencies are
+     * counted in the last bucket.
+     */
+    private static final int MAX_EXPONENT = 42;
+
+    /**
+     * The number of samples in each bucket.
+     */
+    private final AtomicLongArray myBuckets = new AtomicLongArray(bucketIndex(1L << MAX_EXPONENT) + SUB_BUCKET_COUNT);
+
+    /**
+     * The number of samples.
+     */
+    private final LongAdder myCount = new LongAdder();
+
+    /**
+     * The sum of the samples, in nanoseconds.
+     */
+    private final LongAdder mySum = new LongAdder();
+
+    /**
+     * The largest sample, in nanoseconds.
+     */
+    private final AtomicLong myMax = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param aNanos A latency in nanoseconds
+     */
+    public void record(final long aNanos) {
+        final long nanos = Math.max(0, aNanos);
+
+        myBuckets.incrementAndGet(bucketIndex(TimeUnit.NANOSECONDS.toMicros(nanos)));
+        myCount.increment();
+        mySum.add(nanos);
+        myMax.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Gets the number of latencies recorded.
+     *
+     * @return The number of samples
+     */
+    public long getCount() {
+        return myCount.sum();
+    }
+
+    /**
+     * Gets the sum of the latencies recorded.
+     *
+     * @return The sum of the samples in nanoseconds
+     */
+    public long getSum() {
+        return mySum.sum();
+    }
+
+    /**
+     * Gets the mean of the latencies recorded.
+     *
+     * @return The mean latency in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getMean() {
+        final long count = getCount();
+        return count == 0 ? 0 : getSum() / count;
+    }
+
+    /**
+     * Gets the largest latency recorded.
+     *
+     * @return The largest latency in nanoseconds
+     */
+    public long getMax() {
+        return myMax.get();
+    }
+
+    /**
+     * Gets the latency below which the supplied fraction of the samples fall.
+     *
+     * @param aFraction A fraction between 0 and 1 (e.g. 0.99 for the 99th percentile)
+     * @return The latency in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getPercentile(final double aFraction) {
+        final long count = getCount();
+        final long rank = Math.max(1, (long) Math.ceil(aFraction * count));
+        long seen = 0;
+
+        if (count == 0) {
+            return 0;
+        }
+
+        for (int index = 0; index < myBuckets.length(); index++) {
+            seen += myBuckets.get(index);
+
+            if (seen >= rank) {
+                // The middle of the bucket, but never more than the largest sample
+                final long middle = (lowerBound(index) + lowerBound(index + 1)) / 2;
+                return Math.min(TimeUnit.MICROSECONDS.toNanos(middle), getMax());
+            }
+        }
+
+        return getMax();
+    }
+
+    /**
+     * Gets the index of the bucket that counts a latency.
+     *
+     * @param aMicros A latency in microseconds
+     * @return The index of the latency's bucket
+     */
+    private static int bucketIndex(final long aMicros) {
+        final int exponent = Math.min(63 - Long.numberOfLeadingZeros(Math.max(1, aMicros)), MAX_EXPONENT);
+        final int shift;
+
+        if (aMicros < SUB_BUCKET_COUNT) {
+            return (int) aMicros;
+        }
+
+        shift = exponent - SUB_BUCKET_BITS;
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT +
+                (int) (Math.min(aMicros >>> shift, 2 * SUB_BUCKET_COUNT - 1) - SUB_BUCKET_COUNT);
+    }
+
+    /**
+     * Gets the smallest latency counted by a bucket.
+     *
+     * @param aIndex The index of a bucket
+     * @return The bucket's smallest latency in microseconds
+     */
+    private static long lowerBound(final int aIndex) {
+        final int group = aIndex >>> SUB_BUCKET_BITS;
+
+        if (group == 0) {
+            return aIndex;
+        }
+
+        return (long) (SUB_BUCKET_COUNT + (aIndex & (SUB_BUCKET_COUNT - 1))) << (group - 1);
+    }
+}
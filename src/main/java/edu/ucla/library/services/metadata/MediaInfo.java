@@ -0,0 +1,110 @@
+
+package edu.ucla.library.services.metadata;
+
+import net.bramp.ffmpeg.probe.FFmpegFormat;
+import net.bramp.ffmpeg.probe.FFmpegProbeResult;
+import net.bramp.ffmpeg.probe.FFmpegStream;
+
+/**
+ * The A/V metadata values extracted from a media file.
+ */
+public final class MediaInfo {
+
+    /**
+     * The container format name reported by the probe (e.g. "mp3" or "mov,mp4,m4a,3gp,3g2,mj2").
+     */
+    private final String myFormatName;
+
+    /**
+     * The duration of the media file in seconds.
+     */
+    private final double myDuration;
+
+    /**
+     * The width of the media file's video, or zero if it has none.
+     */
+    private final int myWidth;
+
+    /**
+     * The height of the media file's video, or zero if it has none.
+     */
+    private final int myHeight;
+
+    /**
+     * Creates a new media info object.
+     *
+     * @param aFormatName The container format name reported by the probe
+     * @param aDuration The duration of the media file in seconds
+     * @param aWidth The width of the media file's video, or zero if it has none
+     * @param aHeight The height of the media file's video, or zero if it has none
+     */
+    public MediaInfo(final String aFormatName, final double aDuration, final int aWidth, final int aHeight) {
+        myFormatName = aFormatName;
+        myDuration = aDuration;
+        myWidth = aWidth;
+        myHeight = aHeight;
+    }
+
+    /**
+     * Creates a new media info object from the result of an FFprobe run. When a file has more than one stream with
+     * dimensions, the last stream's width and height are used.
+     *
+     * @param aProbeResult The result of probing a media file with FFprobe
+     * @return The media info extracted from the probe result
+     */
+    public static MediaInfo fromProbeResult(final FFmpegProbeResult aProbeResult) {
+        final FFmpegFormat format = aProbeResult.getFormat();
+        int width = 0;
+        int height = 0;
+
+        if (aProbeResult.getStreams() != null) {
+            for (final FFmpegStream stream : aProbeResult.getStreams()) {
+                if (stream.width != 0) {
+                    width = stream.width;
+                }
+
+                if (stream.height != 0) {
+                    height = stream.height;
+                }
+            }
+        }
+
+        return new MediaInfo(format.format_name, format.duration, width, height);
+    }
+
+    /**
+     * Gets the container format name reported by the probe.
+     *
+     * @return The container format name
+     */
+    public String getFormatName() {
+        return myFormatName;
+    }
+
+    /**
+     * Gets the duration of the media file in seconds.
+     *
+     * @return The duration of the media file
+     */
+    public double getDuration() {
+        return myDuration;
+    }
+
+    /**
+     * Gets the width of the media file's video.
+     *
+     * @return The width of the video, or zero if the media file has none
+     */
+    public int getWidth() {
+        return myWidth;
+    }
+
+    /**
+     * Gets the height of the media file's video.
+     *
+     * @return The height of the video, or zero if the media file has none
+     */
+    public int getHeight() {
+        return myHeight;
+    }
+}
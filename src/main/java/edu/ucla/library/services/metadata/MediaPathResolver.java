@@ -0,0 +1,186 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+import info.freelibrary.util.StringUtils;
+
+/**
+ * Resolves the file names in a CSV file against the media mounts. Each resolution, including a failed one, is cached
+ * for the rest of the run, so each mount is checked at most once per file name. Since a media file may arrive after
+ * the CSV file that lists it, a long-running watch or serve forgets the failed resolutions before each batch or
+ * request. The mounts can optionally be indexed up front with a single directory listing each, in which case file
+ * names are resolved without checking the mounts at all.
+ */
+public final class MediaPathResolver {
+
+    /**
+     * Logger for the MediaPathResolver.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(MediaPathResolver.class, MessageCodes.BUNDLE);
+
+    /**
+     * The parent directories/mount points holding media files, in the order in which they're checked.
+     */
+    private final List<String> myMediaPaths;
+
+    /**
+     * The resolved paths of file names from the CSV, including an empty value for those that couldn't be resolved.
+     */
+    private final Map<String, Optional<Path>> myResolvedPaths = new ConcurrentHashMap<>();
+
+    /**
+     * The mounts that resolved paths were found in, by the resolved paths.
+     */
+    private final Map<Path, String> myMounts = new ConcurrentHashMap<>();
+
+    /**
+     * The files found by listing the mounts up front, or an empty set if the mounts weren't indexed.
+     */
+    private final Set<Path> myIndex;
+
+    /**
+     * Creates a new media path resolver.
+     *
+     * @param aMediaPathList The parent directories/mount points holding media files
+     * @param aIndexMounts Whether the mounts should be indexed up front
+     */
+    public MediaPathResolver(final List<String> aMediaPathList, final boolean aIndexMounts) {
+        myMediaPaths = List.copyOf(aMediaPathList);
+        myIndex = aIndexMounts ? index(myMediaPaths) : Collections.emptySet();
+    }
+
+    /**
+     * Gets the full path from the supplied partial path.
+     *
+     * @param aPartialPath A latter part of a file path
+     * @return The full path to a file
+     * @throws FileNotFoundException If the file could not be found at any of the possible paths
+     */
+    public Path resolve(final String aPartialPath) throws FileNotFoundException {
+        final Optional<Path> path = myResolvedPaths.computeIfAbsent(aPartialPath, this::find);
+
+        if (path.isEmpty()) {
+            throw new FileNotFoundException(LOGGER.getMessage(MessageCodes.MG_105, aPartialPath,
+                    myMediaPaths.contains(",") ? StringUtils.toString(',', myMediaPaths) : myMediaPaths));
+        }
+
+        return path.get();
+    }
+
+    /**
+     * Forgets the file names that couldn't be resolved, so they're looked for again the next time they're resolved
+     * (e.g. because their media files may have arrived since).
+     */
+    public void forgetMissing() {
+        myResolvedPaths.values().removeIf(Optional::isEmpty);
+    }
+
+    /**
+     * Gets the mount in which a resolved path was found. If a file name is in more than one mount, this is the one it
+     * was resolved to.
+     *
+     * @param aPath A path returned by {@link #resolve(String)}
+     * @return The mount, as it was given on the command line, or null if the path wasn't resolved by this resolver
+     */
+    public String getMount(final Path aPath) {
+        return myMounts.get(aPath);
+    }
+
+    /**
+     * Gets the number of files found by indexing the mounts.
+     *
+     * @return The number of indexed files, or zero if the mounts weren't indexed
+     */
+    public int getIndexSize() {
+        return myIndex.size();
+    }
+
+    /**
+     * Finds a partial path in the mounts, looking it up in the index first and checking the mounts in order if it
+     * isn't there (e.g. because it was added after the mounts were indexed).
+     *
+     * @param aPartialPath A latter part of a file path
+     * @return The full path to the file, or an empty value if it's not in any of the mounts
+     */
+    private Optional<Path> find(final String aPartialPath) {
+        if (!myIndex.isEmpty()) {
+            for (final String mediaPath : myMediaPaths) {
+                final Path path = Path.of(mediaPath, aPartialPath);
+
+                if (myIndex.contains(path.toAbsolutePath().normalize())) {
+                    myMounts.put(path, mediaPath);
+                    return Optional.of(path);
+                }
+            }
+        }
+
+        for (final String mediaPath : myMediaPaths) {
+            final Path path = Path.of(mediaPath, aPartialPath);
+
+            if (Files.exists(path)) {
+                myMounts.put(path, mediaPath);
+                return Optional.of(path);
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Lists the files in each of the mounts. Parts of a mount that can't be read are left out of the index.
+     *
+     * @param aMediaPathList The parent directories/mount points holding media files
+     * @return The absolute, normalized paths of the files in the mounts
+     */
+    private static Set<Path> index(final List<String> aMediaPathList) {
+        final Set<Path> index = new HashSet<>();
+
+        for (final String mediaPath : aMediaPathList) {
+            final List<Path> files = new ArrayList<>();
+
+            try {
+                Files.walkFileTree(Path.of(mediaPath).toAbsolutePath().normalize(), new SimpleFileVisitor<>() {
+
+                    @Override
+                    public FileVisitResult visitFile(final Path aFile, final BasicFileAttributes aAttributes) {
+                        if (!aAttributes.isDirectory()) {
+                            files.add(aFile);
+                        }
+
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(final Path aFile, final IOException aException) {
+                        LOGGER.warn(MessageCodes.MG_119, aFile, aException.getMessage());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (final IOException details) {
+                LOGGER.warn(MessageCodes.MG_119, mediaPath, details.getMessage());
+            }
+
+            LOGGER.info(MessageCodes.MG_120, files.size(), mediaPath);
+            index.addAll(files);
+        }
+
+        return index;
+    }
+}
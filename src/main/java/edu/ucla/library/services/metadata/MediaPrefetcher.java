@@ -0,0 +1,264 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reads the start of media files in the background, before they're probed, so a slow first read (e.g. a recall from
+ * tape on an HSM mount) overlaps with the probes of earlier rows rather than being paid when the row comes up. What's
+ * read is thrown away; the point is to have the file staged and its first blocks in the page cache when ffprobe
+ * opens it. Java has no way to ask for readahead (like <code>posix_fadvise</code>), so the blocks are actually read,
+ * a chunk at a time so each read in flight only holds a small buffer. Media files that come up while too many reads
+ * are in flight wait their turn, and are read as earlier reads finish.
+ */
+final class MediaPrefetcher implements Closeable {
+
+    /**
+     * The number of bytes read from a media file at a time.
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The number of bytes read from the start of each media file.
+     */
+    private final long myReadSize;
+
+    /**
+     * Permits for the reads that may be in flight at once.
+     */
+    private final Semaphore myReadPermits;
+
+    /**
+     * The channels of the reads in flight, by the media files they're reading.
+     */
+    private final Map<Path, AsynchronousFileChannel> myReads = new ConcurrentHashMap<>();
+
+    /**
+     * The media files waiting for a read to finish before they're read, in the order they came up.
+     */
+    private final Set<Path> myWaiting = new LinkedHashSet<>();
+
+    /**
+     * The number of media files that may be waiting to be read.
+     */
+    private final int myMaxWaiting;
+
+    /**
+     * The number of media files whose reads have been started.
+     */
+    private final LongAdder myPrefetchCount = new LongAdder();
+
+    /**
+     * Whether the prefetcher has been closed.
+     */
+    private volatile boolean myPrefetcherIsClosed;
+
+    /**
+     * Creates a new media prefetcher.
+     *
+     * @param aReadSize The number of bytes read from the start of each media file
+     * @param aMaxReads The number of reads that may be in flight at once; as many more media files again may wait
+     *        for a read to finish
+     */
+    MediaPrefetcher(final long aReadSize, final int aMaxReads) {
+        myReadSize = aReadSize;
+        myReadPermits = new Semaphore(aMaxReads);
+        myMaxWaiting = aMaxReads;
+    }
+
+    /**
+     * Starts reading the start of a media file, unless it's already being read. If too many reads are in flight, the
+     * media file waits until one finishes; if too many media files are already waiting, the one that's waited longest
+     * is dropped, since its row is the nearest and so the most likely to be probed before it could be read. The
+     * read's outcome is ignored: a file that can't be read will fail when it's probed.
+     *
+     * @param aPath The path of a media file
+     */
+    void prefetch(final Path aPath) {
+        if (myPrefetcherIsClosed || myReads.containsKey(aPath)) {
+            return;
+        }
+
+        if (myReadPermits.tryAcquire()) {
+            start(aPath);
+        } else {
+            synchronized (myWaiting) {
+                myWaiting.add(aPath);
+
+                for (final Iterator<Path> iterator = myWaiting.iterator(); myWaiting.size() > myMaxWaiting;) {
+                    iterator.next();
+                    iterator.remove();
+                }
+            }
+        }
+
+        // A read may have finished before the media file started waiting, and so not have started it
+        startWaiting();
+    }
+
+    /**
+     * Gets the number of media files whose reads have been started.
+     *
+     * @return The number of media files prefetched
+     */
+    long getPrefetchCount() {
+        return myPrefetchCount.sum();
+    }
+
+    /**
+     * Stops the reads in flight and prevents more from being started.
+     */
+    @Override
+    public void close() {
+        myPrefetcherIsClosed = true;
+
+        synchronized (myWaiting) {
+            myWaiting.clear();
+        }
+
+        myReads.forEach((path, channel) -> finish(path, channel, true));
+    }
+
+    /**
+     * Starts the reads of waiting media files, for as long as there are permits for them.
+     */
+    private void startWaiting() {
+        while (!myPrefetcherIsClosed && myReadPermits.tryAcquire()) {
+            final Path path;
+
+            synchronized (myWaiting) {
+                final Iterator<Path> iterator = myWaiting.iterator();
+
+                if (iterator.hasNext()) {
+                    path = iterator.next();
+                    iterator.remove();
+                } else {
+                    path = null;
+                }
+            }
+
+            if (path == null) {
+                myReadPermits.release();
+                return;
+            }
+
+            start(path);
+        }
+    }
+
+    /**
+     * Starts reading the start of a media file, once a permit has been acquired for it. If the read can't be started,
+     * the permit is released.
+     *
+     * @param aPath The path of a media file
+     */
+    private void start(final Path aPath) {
+        final AsynchronousFileChannel channel;
+
+        try {
+            channel = AsynchronousFileChannel.open(aPath, StandardOpenOption.READ);
+        } catch (final IOException | UnsupportedOperationException details) {
+            myReadPermits.release();
+            return;
+        }
+
+        if (myReads.putIfAbsent(aPath, channel) != null) {
+            finish(aPath, channel, false); // Another thread started reading it first
+            return;
+        }
+
+        myPrefetchCount.increment();
+        new ChunkHandler(aPath, channel).read(0);
+    }
+
+    /**
+     * Finishes a read, closing its channel and releasing its permit to a media file that's waiting, if there is one.
+     *
+     * @param aPath The media file that was read
+     * @param aChannel The read's channel
+     * @param aIsTracked Whether the read is tracked in the reads in flight
+     */
+    private void finish(final Path aPath, final AsynchronousFileChannel aChannel, final boolean aIsTracked) {
+        if (!aIsTracked || myReads.remove(aPath, aChannel)) {
+            try {
+                aChannel.close();
+            } catch (final IOException details) {
+                // Nothing was written, so there's nothing to lose
+            }
+
+            myReadPermits.release();
+            startWaiting();
+        }
+    }
+
+    /**
+     * Reads a media file a chunk at a time, until enough of it has been read or it ends.
+     */
+    private final class ChunkHandler implements CompletionHandler<Integer, Long> {
+
+        /**
+         * The media file being read.
+         */
+        private final Path myPath;
+
+        /**
+         * The channel from which the media file is read.
+         */
+        private final AsynchronousFileChannel myChannel;
+
+        /**
+         * The buffer into which each chunk is read, and then thrown away.
+         */
+        private final ByteBuffer myBuffer = ByteBuffer.allocate(CHUNK_SIZE);
+
+        /**
+         * Creates a new handler for the reads of a media file.
+         *
+         * @param aPath The media file being read
+         * @param aChannel The channel from which the media file is read
+         */
+        private ChunkHandler(final Path aPath, final AsynchronousFileChannel aChannel) {
+            myPath = aPath;
+            myChannel = aChannel;
+        }
+
+        /**
+         * Starts reading a chunk of the media file.
+         *
+         * @param aPosition The position in the media file at which the chunk starts
+         */
+        private void read(final long aPosition) {
+            myBuffer.clear();
+            myChannel.read(myBuffer, aPosition, aPosition, this);
+        }
+
+        @Override
+        public void completed(final Integer aByteCount, final Long aPosition) {
+            final long position = aPosition + Math.max(0, aByteCount);
+
+            if (aByteCount < 0 || position >= myReadSize || myPrefetcherIsClosed) {
+                finish(myPath, myChannel, true);
+            } else {
+                read(position);
+            }
+        }
+
+        @Override
+        public void failed(final Throwable aError, final Long aPosition) {
+            finish(myPath, myChannel, true);
+        }
+    }
+}
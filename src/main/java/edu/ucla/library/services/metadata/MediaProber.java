@@ -0,0 +1,21 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Something that extracts the A/V metadata we add to the CSV from a media file. Implementations must be safe for
+ * concurrent use, since a single prober is shared by every row of a run.
+ */
+public interface MediaProber {
+
+    /**
+     * Probes a media file.
+     *
+     * @param aPath The path of a media file
+     * @return The media info extracted from the media file
+     * @throws IOException If the media file can't be read or probed
+     */
+    MediaInfo probe(Path aPath) throws IOException;
+}
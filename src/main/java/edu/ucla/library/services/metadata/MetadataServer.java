@@ -0,0 +1,491 @@
+
+package edu.ucla.library.services.metadata;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.opencsv.exceptions.CsvException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import info.freelibrary.util.I18nRuntimeException;
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Mixin;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+/**
+ * A long-running service that enriches CSV files sent to it over HTTP, so a batch of small CSV files doesn't pay for
+ * starting the JVM and checking ffprobe each time. The media prober, probe memo and cache, and worker pool are set up
+ * once and shared by every request.
+ * <p>
+ * A CSV file can be uploaded as the body of a <code>POST</code> to <code>/enrich</code>, or, if the server was started
+ * with <code>--csv-root</code>, named by a <code>GET</code> of <code>/enrich?path=...</code>. Either way, the enriched
+ * CSV file is streamed back as its rows are built. The run's metrics are available from <code>/metrics</code>.
+ * </p>
+ */
+@Command(name = MetadataServer.COMMAND, description = "Enrich CSV files sent to a local HTTP service.")
+@SuppressWarnings("PMD.SystemPrintln")
+public final class MetadataServer implements Callable<Integer> {
+
+    /**
+     * The name of the command that runs the server.
+     */
+    static final String COMMAND = "serve";
+
+    /**
+     * The path of the endpoint that enriches CSV files.
+     */
+    static final String ENRICH_PATH = "/enrich";
+
+    /**
+     * The path of the endpoint that reports the metrics.
+     */
+    static final String METRICS_PATH = "/metrics";
+
+    /**
+     * The path of the endpoint that reports whether the server is up.
+     */
+    static final String HEALTH_PATH = "/health";
+
+    /**
+     * Logger for the MetadataServer.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetadataServer.class, MessageCodes.BUNDLE);
+
+    /**
+     * The query parameter that names a CSV file in the CSV root.
+     */
+    private static final String PATH_PARAM = "path=";
+
+    /**
+     * The name given to uploaded CSV files in their summaries.
+     */
+    private static final Path UPLOAD = Path.of("upload");
+
+    /**
+     * The number of seconds in-flight requests are given to finish when the server is stopped.
+     */
+    private static final int STOP_DELAY = 10;
+
+    /**
+     * Path to media files to be read.
+     */
+    @Parameters(index = "0", split = "\\,", splitSynopsisLabel = ",",
+            description = "The parent directories/mount points holding media files, separated by commas.")
+    private List<String> myMediaPath;
+
+    /**
+     * Path to ffmpeg probe utility.
+     */
+    @Parameters(index = "1", description = "The path to ffprobe executable.")
+    private String myFfmpegPath;
+
+    /**
+     * The address the server listens on.
+     */
+    @Option(names = "--bind", defaultValue = "127.0.0.1", paramLabel = "ADDRESS",
+            description = "The address the server listens on (default: ${DEFAULT-VALUE}).")
+    private String myAddress;
+
+    /**
+     * The port the server listens on.
+     */
+    @Option(names = "--port", defaultValue = "8888",
+            description = "The port the server listens on (default: ${DEFAULT-VALUE}).")
+    private int myPort;
+
+    /**
+     * The number of requests that are handled at once.
+     */
+    @Option(names = "--request-threads", defaultValue = "4", paramLabel = "N",
+            description = "The number of requests handled at once (default: ${DEFAULT-VALUE}).")
+    private int myRequestThreads;
+
+    /**
+     * A directory whose CSV files may be enriched by path.
+     */
+    @Option(names = "--csv-root", paramLabel = "DIR",
+            description = "A directory whose CSV files can be enriched by path, as well as by being uploaded.")
+    private Path myCsvRoot;
+
+    /**
+     * The options that control how rows are enriched.
+     */
+    @Mixin
+    private EnrichmentOptions myOptions = new EnrichmentOptions();
+
+    /**
+     * The MetadataSetter that enriches the CSV files, which stays open while the server runs.
+     */
+    private MetadataSetter myEngine;
+
+    /**
+     * The HTTP server.
+     */
+    private HttpServer myServer;
+
+    /**
+     * The threads that handle requests.
+     */
+    private ExecutorService myRequestExecutor;
+
+    /**
+     * Whether the server has been stopped.
+     */
+    private final AtomicBoolean myServerIsStopped = new AtomicBoolean();
+
+    /**
+     * A latch that's released when the server has been stopped.
+     */
+    private final CountDownLatch myStopLatch = new CountDownLatch(1);
+
+    /**
+     * Creates a new server for the command line.
+     */
+    MetadataServer() {
+        // Configured by picocli
+    }
+
+    /**
+     * Creates a new server that uses an already opened MetadataSetter.
+     *
+     * @param aEngine An open MetadataSetter
+     * @param aCsvRoot A directory whose CSV files may be enriched by path, or null if they may only be uploaded
+     */
+    MetadataServer(final MetadataSetter aEngine, final Path aCsvRoot) {
+        myEngine = aEngine;
+        myCsvRoot = aCsvRoot;
+    }
+
+    /**
+     * Runs the server until the JVM is shut down.
+     */
+    @Override
+    public Integer call() {
+        final MetadataSetter engine = new MetadataSetter(myOptions, myMediaPath, myFfmpegPath);
+        final int exitCode;
+
+        if (!engine.fileDirExists(myMediaPath) ||
+                myCsvRoot != null && !engine.fileDirExists(List.of(myCsvRoot.toString()))) {
+            return ExitCodes.FILE_DOESNT_EXIST;
+        }
+
+        if (myRequestThreads < 1) {
+            System.err.println(LOGGER.getMessage(MessageCodes.MG_110, "--request-threads", myRequestThreads));
+            return ExitCodes.INVALID_OPTION;
+        }
+
+        if ((exitCode = engine.open()) != ExitCodes.SUCCESS) {
+            return exitCode;
+        }
+
+        myEngine = engine;
+
+        try {
+            final int port = start(new InetSocketAddress(myAddress, myPort), myRequestThreads);
+
+            System.out.println(LOGGER.getMessage(MessageCodes.MG_129, myAddress, port));
+            Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+            myStopLatch.await();
+        } catch (final IOException details) {
+            System.err.println(LOGGER.getMessage(MessageCodes.MG_130, details.getMessage()));
+            stop();
+            return ExitCodes.READ_WRITE_ERROR;
+        } catch (final InterruptedException details) {
+            Thread.currentThread().interrupt();
+            stop();
+        }
+
+        return ExitCodes.SUCCESS;
+    }
+
+    /**
+     * Starts the HTTP server.
+     *
+     * @param aAddress The address and port to listen on; a port of 0 picks a free port
+     * @param aRequestThreads The number of requests to handle at once
+     * @return The port the server is listening on
+     * @throws IOException If the server can't listen on the address
+     */
+    int start(final InetSocketAddress aAddress, final int aRequestThreads) throws IOException {
+        myServer = HttpServer.create(aAddress, 0);
+        myRequestExecutor = Executors.newFixedThreadPool(aRequestThreads);
+
+        myServer.createContext(ENRICH_PATH, this::enrich);
+        myServer.createContext(METRICS_PATH, this::reportMetrics);
+        myServer.createContext(HEALTH_PATH, exchange -> send(exchange, 200, "ok"));
+        myServer.setExecutor(myRequestExecutor);
+        myServer.start();
+
+        return myServer.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server, giving in-flight requests a little time to finish, and then closes the MetadataSetter, which
+     * saves the probe cache.
+     */
+    void stop() {
+        if (myServerIsStopped.compareAndSet(false, true)) {
+            if (myServer != null) {
+                myServer.stop(STOP_DELAY);
+                myRequestExecutor.shutdownNow();
+            }
+
+            myEngine.close();
+            myStopLatch.countDown();
+        }
+    }
+
+    /**
+     * Enriches an uploaded CSV file, or one named by its path in the CSV root, streaming the enriched CSV file back.
+     * The exchange is only closed once the response is complete; closing it after a failure would end the chunked
+     * body cleanly, so a truncated CSV file would look like a complete one.
+     *
+     * @param aExchange A request and its response
+     * @throws IOException If the request fails after the response has started, so it can only be cut short
+     */
+    private void enrich(final HttpExchange aExchange) throws IOException {
+        final String method = aExchange.getRequestMethod();
+        final CsvSummary summary;
+        final Reader source;
+
+        if ("POST".equals(method)) {
+            summary = new CsvSummary(UPLOAD);
+            source = new InputStreamReader(aExchange.getRequestBody(), UTF_8);
+        } else if ("GET".equals(method)) {
+            final Path csvFile = findCsvFile(aExchange);
+
+            if (csvFile == null) {
+                return; // An error has been sent
+            }
+
+            summary = new CsvSummary(csvFile);
+            source = Files.newBufferedReader(csvFile, UTF_8);
+        } else {
+            aExchange.getResponseHeaders().set("Allow", "GET, POST");
+            send(aExchange, 405, LOGGER.getMessage(MessageCodes.MG_133, method));
+            return;
+        }
+
+        try (source) {
+            enrich(aExchange, source, summary);
+        }
+
+        aExchange.close();
+    }
+
+    /**
+     * Enriches a CSV file, streaming the enriched CSV file back. If the request fails before any of the response has
+     * been sent, an error is sent instead; if it fails after, the response is cut short so it doesn't look complete.
+     *
+     * @param aExchange A request and its response
+     * @param aSource A reader for the CSV file
+     * @param aSummary A summary of the CSV file
+     * @throws IOException If the request fails after the response has started
+     */
+    private void enrich(final HttpExchange aExchange, final Reader aSource, final CsvSummary aSummary)
+            throws IOException {
+        final ResponseStream response = new ResponseStream(aExchange);
+        final Writer target = new BufferedWriter(new OutputStreamWriter(response, UTF_8));
+        final int status;
+        final String error;
+
+        aSummary.start();
+        aExchange.getResponseHeaders().set("Content-Type", "text/csv; charset=UTF-8");
+
+        try {
+            myEngine.forgetMissingMedia();
+            myEngine.addMetaToCsv(aSource, target, aSummary);
+            target.close();
+            aSummary.succeed();
+            System.out.println(aSummary);
+            return;
+        } catch (final CsvException | FileFormatException details) {
+            status = 400;
+            error = details.getMessage();
+        } catch (final FileNotFoundException details) {
+            status = 422;
+            error = details.getMessage();
+        } catch (final IOException | I18nRuntimeException details) {
+            status = 500;
+            error = details.getMessage();
+        }
+
+        aSummary.fail(error);
+        System.err.println(aSummary);
+
+        if (response.isCommitted()) {
+            // Throwing, without closing the exchange, makes the HTTP server drop the connection before the body's
+            // last chunk is sent, so the client sees a truncated response rather than a complete one
+            throw new IOException(LOGGER.getMessage(MessageCodes.MG_134, error));
+        }
+
+        aExchange.getResponseHeaders().remove("Content-Type");
+        send(aExchange, status, error);
+    }
+
+    /**
+     * Finds the CSV file named by a request's <code>path</code> parameter, sending an error if it isn't in the CSV
+     * root or the server doesn't have one.
+     *
+     * @param aExchange A request and its response
+     * @return The CSV file, or null if an error was sent
+     * @throws IOException If an error can't be sent
+     */
+    private Path findCsvFile(final HttpExchange aExchange) throws IOException {
+        final String query = aExchange.getRequestURI().getRawQuery();
+        final String path = query == null ? null : Arrays.stream(query.split("&"))
+                .filter(param -> param.startsWith(PATH_PARAM)).findFirst()
+                .map(param -> URLDecoder.decode(param.substring(PATH_PARAM.length()), UTF_8)).orElse(null);
+        final Path root;
+        final Path csvFile;
+
+        if (myCsvRoot == null) {
+            send(aExchange, 403, LOGGER.getMessage(MessageCodes.MG_131));
+            return null;
+        }
+
+        if (path == null) {
+            send(aExchange, 400, LOGGER.getMessage(MessageCodes.MG_131));
+            return null;
+        }
+
+        root = myCsvRoot.toRealPath();
+        csvFile = root.resolve(path).normalize();
+
+        // The real path is checked too, so a symbolic link can't lead out of the CSV root
+        if (!csvFile.startsWith(root) || !Files.isRegularFile(csvFile) || !csvFile.toRealPath().startsWith(root)) {
+            send(aExchange, 404, LOGGER.getMessage(MessageCodes.MG_132, path));
+            return null;
+        }
+
+        return csvFile;
+    }
+
+    /**
+     * Sends the metrics of the CSV files enriched since the server started, in the Prometheus text format.
+     *
+     * @param aExchange A request and its response
+     * @throws IOException If the metrics can't be sent
+     */
+    private void reportMetrics(final HttpExchange aExchange) throws IOException {
+        aExchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=UTF-8");
+        send(aExchange, 200, myEngine.getMetrics().toPrometheusText());
+    }
+
+    /**
+     * Sends a complete text response.
+     *
+     * @param aExchange A request and its response
+     * @param aStatus The response's status code
+     * @param aBody The response's body
+     * @throws IOException If the response can't be sent
+     */
+    private static void send(final HttpExchange aExchange, final int aStatus, final String aBody) throws IOException {
+        final byte[] body = (aBody.endsWith("\n") ? aBody : aBody + "\n").getBytes(UTF_8);
+
+        if (!aExchange.getResponseHeaders().containsKey("Content-Type")) {
+            aExchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        }
+
+        try (OutputStream output = aExchange.getResponseBody()) {
+            aExchange.sendResponseHeaders(aStatus, body.length);
+            output.write(body);
+        } finally {
+            aExchange.close();
+        }
+    }
+
+    /**
+     * A response body that only sends the response's headers, with a status of 200, once something is written to it.
+     * Until then, the request can still fail with an error status.
+     */
+    private static final class ResponseStream extends OutputStream {
+
+        /**
+         * The request and its response.
+         */
+        private final HttpExchange myExchange;
+
+        /**
+         * Whether the response's headers have been sent.
+         */
+        private boolean myResponseIsCommitted;
+
+        /**
+         * Creates a new response body.
+         *
+         * @param aExchange A request and its response
+         */
+        private ResponseStream(final HttpExchange aExchange) {
+            myExchange = aExchange;
+        }
+
+        @Override
+        public void write(final int aByte) throws IOException {
+            commit().write(aByte);
+        }
+
+        @Override
+        public void write(final byte[] aBytes, final int aOffset, final int aLength) throws IOException {
+            commit().write(aBytes, aOffset, aLength);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            commit().flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            commit().close();
+        }
+
+        /**
+         * Whether the response's headers have been sent.
+         *
+         * @return True if the response has started; else, false
+         */
+        private boolean isCommitted() {
+            return myResponseIsCommitted;
+        }
+
+        /**
+         * Sends the response's headers, if they haven't been sent, so the body can be streamed.
+         *
+         * @return The response body
+         * @throws IOException If the headers can't be sent
+         */
+        private OutputStream commit() throws IOException {
+            if (!myResponseIsCommitted) {
+                myResponseIsCommitted = true;
+                myExchange.sendResponseHeaders(200, 0); // A length of 0 means the body is sent in chunks
+            }
+
+            return myExchange.getResponseBody();
+        }
+    }
+}
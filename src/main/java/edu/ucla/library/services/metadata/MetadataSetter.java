@@ -2,34 +2,49 @@
 package edu.ucla.library.services.metadata;
 
 import static info.freelibrary.util.Constants.EMPTY;
-import static java.nio.charset.StandardCharsets.UTF_8;
 
-import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import com.opencsv.CSVReader;
 import com.opencsv.CSVWriter;
 import com.opencsv.exceptions.CsvException;
+import com.opencsv.exceptions.CsvValidationException;
 
 import info.freelibrary.util.I18nRuntimeException;
 import info.freelibrary.util.Logger;
 import info.freelibrary.util.LoggerFactory;
-import info.freelibrary.util.StringUtils;
 
-import net.bramp.ffmpeg.FFprobe;
-import net.bramp.ffmpeg.probe.FFmpegFormat;
-import net.bramp.ffmpeg.probe.FFmpegProbeResult;
-import net.bramp.ffmpeg.probe.FFmpegStream;
 import picocli.CommandLine;
+import picocli.CommandLine.Mixin;
+import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 
 /**
@@ -43,6 +58,28 @@ public final class MetadataSetter implements Callable<Integer> {
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(MetadataSetter.class, MessageCodes.BUNDLE);
 
+    /**
+     * The number of rows per worker thread that may be read ahead of the row that's next to be written.
+     */
+    private static final int ROWS_IN_FLIGHT_PER_THREAD = 4;
+
+    /**
+     * The matcher that picks out the CSV files in a directory of CSV files.
+     */
+    static final BiPredicate<Path, BasicFileAttributes> CSV_FILES =
+            (filePath, fileAttr) -> fileAttr.isRegularFile() && filePath.toFile().getName().endsWith("csv");
+
+    /**
+     * The number of seconds a watch is given to finish the CSV file it's working on when the JVM is shut down.
+     */
+    private static final int WATCH_STOP_DELAY = 30;
+
+    /**
+     * The least number of CSV files read, or media file names resolved, at once by --validate-first; resolving names
+     * mostly waits on the media mounts, so it's worth doing more at once than there are probe threads.
+     */
+    private static final int VALIDATION_THREADS = 8;
+
     /**
      * Path to CSV file (or directory of CSV files) to be updated.
      */
@@ -74,9 +111,123 @@ public final class MetadataSetter implements Callable<Integer> {
     private String myOutputPath;
 
     /**
-     * Header metadata from the CSV file.
+     * The options that control how rows are enriched.
+     */
+    @Mixin
+    private EnrichmentOptions myOptions = new EnrichmentOptions();
+
+    /**
+     * The number of CSV files processed at the same time when a directory of CSV files is supplied.
+     */
+    @Option(names = "--csv-parallelism", defaultValue = "1",
+            description = "The number of CSV files to process concurrently (default: ${DEFAULT-VALUE}).")
+    private int myCsvParallelism;
+
+    /**
+     * Whether a run that died part way through is continued from its last checkpoint.
+     */
+    @Option(names = "--resume",
+            description = "Continue an earlier run that didn't finish from its last checkpoint.")
+    private boolean myRunIsResumed;
+
+    /**
+     * A file to which the run's metrics are written when it ends.
+     */
+    @Option(names = "--metrics-file", paramLabel = "FILE",
+            description = { "A file to which the run's counters and stage latencies are written when it ends, in the",
+                "Prometheus text format if FILE ends with .prom and as JSON if not." })
+    private Path myMetricsPath;
+
+    /**
+     * Whether the CSV directory is watched for new and changed CSV files after its CSV files are processed.
+     */
+    @Option(names = "--watch",
+            description = "Keep running, enriching CSV files as they're added to or changed in the CSV directory.")
+    private boolean myCsvDirIsWatched;
+
+    /**
+     * The number of seconds a watched CSV file must go unchanged before it's enriched.
+     */
+    @Option(names = "--watch-settle", defaultValue = "2", paramLabel = "SECONDS",
+            description = { "How long a new or changed CSV file must go unchanged before it's enriched in --watch",
+                "mode (default: ${DEFAULT-VALUE})." })
+    private int myWatchSettleTime;
+
+    /**
+     * Whether the CSV files are all checked for problems before any media files are probed.
+     */
+    @Option(names = "--validate-first",
+            description = { "Check every CSV file for missing columns, file names without extensions, and missing",
+                "media files before any media files are probed, and stop if a CSV file couldn't be enriched." })
+    private boolean myCsvFilesAreValidatedFirst;
+
+    /**
+     * The worker pool that probes rows when more than one thread has been requested.
+     */
+    private ExecutorService myExecutor;
+
+    /**
+     * The scheduler that decides the order in which rows are started on the worker pool, if they aren't started in the
+     * order they're read.
+     */
+    private ProbeScheduler myScheduler;
+
+    /**
+     * The limits on the number of probes run at once on each media mount, if they adapt to how the mounts are coping.
      */
-    private CsvHeaders myCsvHeaders;
+    private MountLimiter myMountLimiter;
+
+    /**
+     * Permits for the probes that may run at once, when each row has its own virtual thread, so the number of rows in
+     * flight doesn't limit them.
+     */
+    private Semaphore myProbePermits;
+
+    /**
+     * The resolver that finds the CSV's file names in the media mounts.
+     */
+    private MediaPathResolver myResolver;
+
+    /**
+     * The media prober shared by every row of the run.
+     */
+    private MediaProber myProber;
+
+    /**
+     * The prober that reads media files' headers in-process, if that was requested; the files it can't read are
+     * probed with the media prober.
+     */
+    private HeaderMediaProber myHeaderProber;
+
+    /**
+     * The cache of probe results, if one was requested.
+     */
+    private ProbeCache myProbeCache;
+
+    /**
+     * The run-wide memo of probe results, unless it was turned off.
+     */
+    private ProbeMemo myProbeMemo;
+
+    /**
+     * The prefetcher that reads the media files of upcoming rows in the background, if prefetching was requested.
+     */
+    private MediaPrefetcher myPrefetcher;
+
+    /**
+     * The journal in which the run's progress is recorded.
+     */
+    private CheckpointJournal myJournal;
+
+    /**
+     * The run's counters and stage latencies.
+     */
+    private final RunMetrics myMetrics = new RunMetrics();
+
+    /**
+     * A latch that's released when the run has finished and what it opened has been closed.
+     */
+    private final CountDownLatch myRunIsOver = new CountDownLatch(1);
 
     /**
      * Private constructor for MetadataSetter class.
@@ -85,13 +236,46 @@ public final class MetadataSetter implements Callable<Integer> {
     }
 
     /**
-     * Main method for command-line execution.
+     * Creates a MetadataSetter that uses the supplied media prober and path resolver, rather than ffprobe and the media
+     * mounts from the command line. This lets the CSV handling be exercised (e.g. by the benchmarks) without ffprobe.
+     *
+     * @param aProber A media prober
+     * @param aResolver A media path resolver
+     */
+    MetadataSetter(final MediaProber aProber, final MediaPathResolver aResolver) {
+        myProber = aProber;
+        myResolver = aResolver;
+    }
+
+    /**
+     * Creates a MetadataSetter that enriches CSV files streamed to it, rather than the CSV files named on the command
+     * line. It's used by the serve command, which opens it once and keeps it open between requests.
+     *
+     * @param aOptions The options that control how rows are enriched
+     * @param aMediaPath The media mounts in which the CSV files' media files are found
+     * @param aFfprobePath The path to the ffprobe executable
+     */
+    MetadataSetter(final EnrichmentOptions aOptions, final List<String> aMediaPath, final String aFfprobePath) {
+        myOptions = aOptions;
+        myMediaPath = aMediaPath;
+        myFfmpegPath = aFfprobePath;
+    }
+
+    /**
+     * Main method for command-line execution. A first argument of <code>serve</code> or <code>spool</code> runs that
+     * command instead.
      *
      * @param args array of parameters
      */
     @SuppressWarnings("uncommentedmain")
     public static void main(final String[] args) {
-        System.exit(new CommandLine(new MetadataSetter()).execute(args));
+        if (args.length > 0 && MetadataServer.COMMAND.equals(args[0])) {
+            System.exit(new CommandLine(new MetadataServer()).execute(Arrays.copyOfRange(args, 1, args.length)));
+        } else if (args.length > 0 && SpoolCommand.COMMAND.equals(args[0])) {
+            System.exit(new CommandLine(new SpoolCommand()).execute(Arrays.copyOfRange(args, 1, args.length)));
+        } else {
+            System.exit(new CommandLine(new MetadataSetter()).execute(args));
+        }
     }
 
     /**
@@ -99,12 +283,42 @@ public final class MetadataSetter implements Callable<Integer> {
      */
     @Override
     public Integer call() {
+        final int exitCode;
+
         if (!fileDirExists(Arrays.asList(myCsvPath)) || !fileDirExists(myMediaPath)) {
             return ExitCodes.FILE_DOESNT_EXIST;
         }
 
-        if (!validFFProbe(myFfmpegPath)) {
-            return ExitCodes.PROBE_DOESNT_EXIST;
+        if (myCsvParallelism < 1) {
+            System.err.println(LOGGER.getMessage(MessageCodes.MG_110, "--csv-parallelism", myCsvParallelism));
+            return ExitCodes.INVALID_OPTION;
+        }
+
+        if (myCsvDirIsWatched && !Files.isDirectory(Paths.get(myCsvPath))) {
+            System.err.println(LOGGER.getMessage(MessageCodes.MG_136, myCsvPath));
+            return ExitCodes.INVALID_OPTION;
+        }
+
+        if (myWatchSettleTime < 0) {
+            System.err.println(LOGGER.getMessage(MessageCodes.MG_117, "--watch-settle", myWatchSettleTime));
+            return ExitCodes.INVALID_OPTION;
+        }
+
+        if (myCsvFilesAreValidatedFirst && myCsvDirIsWatched) {
+            System.err.println(LOGGER.getMessage(MessageCodes.MG_159));
+            return ExitCodes.INVALID_OPTION;
+        }
+
+        if (myCsvFilesAreValidatedFirst) {
+            final int validationCode = validateCsvs();
+
+            if (validationCode != ExitCodes.SUCCESS) {
+                return validationCode;
+            }
+        }
+
+        if ((exitCode = open()) != ExitCodes.SUCCESS) {
+            return exitCode;
         }
 
         try {
@@ -114,24 +328,307 @@ public final class MetadataSetter implements Callable<Integer> {
                 Files.createDirectories(Paths.get(myOutputPath));
             }
 
-            if (Files.isDirectory(basePath)) {
-                Files.find(Paths.get(myCsvPath), Integer.MAX_VALUE,
-                        (filePath, fileAttr) -> fileAttr.isRegularFile() && filePath.toFile().getName().endsWith("csv"))
-                        .forEach(this::addMetaToCsv);
+            myJournal = new CheckpointJournal(Paths.get(myOutputPath), myRunIsResumed);
+
+            if (myCsvDirIsWatched) {
+                watchCsvs(basePath);
+            } else if (Files.isDirectory(basePath)) {
+                final List<CsvSummary> summaries;
+
+                try (Stream<Path> csvFiles = Files.find(Paths.get(myCsvPath), Integer.MAX_VALUE, CSV_FILES)) {
+                    summaries = csvFiles.map(CsvSummary::new).collect(Collectors.toList());
+                }
+
+                addMetaToCsvs(summaries);
             } else if (Files.isRegularFile(basePath)) {
-                addMetaToCsv(basePath);
+                addMetaToCsv(new CsvSummary(basePath));
             }
+
+            myJournal.delete(); // The run finished, so there's nothing to resume
         } catch (final I18nRuntimeException details) { // Exceptions from addMetaToCsv()
             System.err.println(details.getMessage());
+            System.err.println(LOGGER.getMessage(MessageCodes.MG_122, myJournal.getPath()));
             return ExitCodes.READ_WRITE_ERROR;
         } catch (final IOException details) { // IOException from Files' methods
             System.err.println(LOGGER.getMessage(MessageCodes.MG_101, details.getMessage()));
             return ExitCodes.READ_WRITE_ERROR;
+        } finally {
+            closeJournal();
+            close();
+            reportMetrics();
+            myRunIsOver.countDown();
+        }
+
+        return ExitCodes.SUCCESS;
+    }
+
+    /**
+     * Checks all the CSV files for problems before any media files are probed, outputting each problem found. The
+     * media path resolver is set up here, so the media files found are already resolved when the CSV files are
+     * enriched.
+     *
+     * @return {@link ExitCodes#SUCCESS} if no problem would stop a CSV file; else, the exit code of the problem
+     */
+    private int validateCsvs() {
+        final Path basePath = Paths.get(myCsvPath);
+        final List<Path> csvFiles;
+        final CsvValidator.Report report;
+
+        if (Files.isDirectory(basePath)) {
+            try (Stream<Path> stream = Files.find(basePath, Integer.MAX_VALUE, CSV_FILES)) {
+                csvFiles = stream.sorted().collect(Collectors.toList());
+            } catch (final IOException details) {
+                System.err.println(LOGGER.getMessage(MessageCodes.MG_101, details.getMessage()));
+                return ExitCodes.READ_WRITE_ERROR;
+            }
+        } else {
+            csvFiles = List.of(basePath);
+        }
+
+        if (myResolver == null) {
+            myResolver = new MediaPathResolver(myMediaPath, myOptions.areMountsIndexed());
+        }
+
+        System.out.println(LOGGER.getMessage(MessageCodes.MG_150, csvFiles.size()));
+
+        try {
+            report = new CsvValidator(myResolver, myOptions.isIncremental(),
+                    Math.max(VALIDATION_THREADS, myOptions.getThreads())).validate(csvFiles);
+        } catch (final InterruptedException details) {
+            Thread.currentThread().interrupt();
+            return ExitCodes.READ_WRITE_ERROR;
+        }
+
+        report.getProblems().forEach(System.err::println);
+        System.out.println(report.getSummary());
+
+        if (report.getStoppingProblemCount() > 0) {
+            System.err.println(LOGGER.getMessage(MessageCodes.MG_158));
+            return ExitCodes.VALIDATION_FAILED;
         }
 
         return ExitCodes.SUCCESS;
     }
 
+    /**
+     * Checks the enrichment options and sets up what's shared by every row: the media prober, the probe memo and
+     * cache, the media path resolver, and the worker pool. Once it's open, the MetadataSetter must be closed.
+     *
+     * @return {@link ExitCodes#SUCCESS} if the MetadataSetter is open; else, the exit code of the problem
+     */
+    int open() {
+        if (myOptions.getProbeTimeout() < 0) {
+            final int timeout = myOptions.getProbeTimeout();
+
+            System.err.println(LOGGER.getMessage(MessageCodes.MG_117, "--probe-timeout", timeout));
+            return ExitCodes.INVALID_OPTION;
+        }
+
+        if (myOptions.getMaxProbes() < 0) {
+            System.err.println(LOGGER.getMessage(MessageCodes.MG_117, "--max-probes", myOptions.getMaxProbes()));
+            return ExitCodes.INVALID_OPTION;
+        }
+
+        if (myOptions.getProbeWindow() < 0) {
+            System.err.println(LOGGER.getMessage(MessageCodes.MG_117, "--probe-window", myOptions.getProbeWindow()));
+            return ExitCodes.INVALID_OPTION;
+        }
+
+        if (myOptions.getThreads() < 1) {
+            System.err.println(LOGGER.getMessage(MessageCodes.MG_110, "--threads", myOptions.getThreads()));
+            return ExitCodes.INVALID_OPTION;
+        }
+
+        if (myOptions.getProbeMemoSize() < 0) {
+            final int memoSize = myOptions.getProbeMemoSize();
+
+            System.err.println(LOGGER.getMessage(MessageCodes.MG_117, "--probe-memo-size", memoSize));
+            return ExitCodes.INVALID_OPTION;
+        }
+
+        if (myOptions.getPrefetchRows() < 0) {
+            System.err.println(LOGGER.getMessage(MessageCodes.MG_117, "--prefetch", myOptions.getPrefetchRows()));
+            return ExitCodes.INVALID_OPTION;
+        }
+
+        if (myOptions.getPrefetchSize() < 1) {
+            System.err.println(LOGGER.getMessage(MessageCodes.MG_110, "--prefetch-size", myOptions.getPrefetchSize()));
+            return ExitCodes.INVALID_OPTION;
+        }
+
+        if (myProber == null && !validFFProbe(myFfmpegPath)) {
+            return ExitCodes.PROBE_DOESNT_EXIST;
+        }
+
+        if (myOptions.isHeaderProbe()) {
+            myHeaderProber = new HeaderMediaProber(myProber); // ffprobe is still used for the files it can't read
+        }
+
+        if (myOptions.getProbeMemoSize() > 0) {
+            myProbeMemo = new ProbeMemo(myOptions.getProbeMemoSize());
+        }
+
+        if (myOptions.getProbeCachePath() != null) {
+            final Path cachePath = myOptions.getProbeCachePath();
+
+            try {
+                myProbeCache = new ProbeCache(cachePath, myOptions.isProbeCacheHashed(), myOptions.isLeanProbe());
+            } catch (final IOException details) {
+                System.err.println(LOGGER.getMessage(MessageCodes.MG_112, cachePath, details.getMessage()));
+                return ExitCodes.READ_WRITE_ERROR;
+            }
+        }
+
+        if (myResolver == null) {
+            myResolver = new MediaPathResolver(myMediaPath, myOptions.areMountsIndexed());
+        }
+
+        if (myOptions.getPrefetchRows() > 0) {
+            final long prefetchSize = myOptions.getPrefetchSize() * 1024L * 1024L;
+            final int maxReads = myOptions.getPrefetchRows() * Math.max(1, myCsvParallelism);
+
+            // Each CSV file being processed reads ahead on its own, so their prefetches share the limit
+            myPrefetcher = new MediaPrefetcher(prefetchSize, maxReads);
+        }
+
+        // When CSV files are processed concurrently, their rows share one pool so --threads caps probes across files
+        if (myOptions.getThreads() > 1 || myCsvParallelism > 1 || myOptions.useVirtualThreads() ||
+                myOptions.getProbeOrder() != ProbeScheduler.ProbeOrder.FIFO) {
+            myExecutor = newRowExecutor();
+        }
+
+        if (myOptions.useAdaptiveProbes()) {
+            myMountLimiter = new MountLimiter(getMaxProbes());
+        }
+
+        // Rows are still submitted in the order they're read, but the scheduler decides which of them start first;
+        // with adaptive probes, it also holds back the rows whose mounts are busy, so they don't tie up threads
+        if (myOptions.getProbeOrder() != ProbeScheduler.ProbeOrder.FIFO ||
+                myMountLimiter != null && myExecutor != null) {
+            myScheduler = new ProbeScheduler(myExecutor, myOptions.getThreads(), myOptions.getProbeOrder(),
+                    myMountLimiter);
+        }
+
+        return ExitCodes.SUCCESS;
+    }
+
+    /**
+     * Creates the executor on which rows are enriched. If virtual threads were requested and the JVM has them, each
+     * row gets its own virtual thread and the probes are capped by permits instead; otherwise, it's a pool of
+     * --threads platform threads.
+     *
+     * @return The executor on which rows are enriched
+     */
+    private ExecutorService newRowExecutor() {
+        if (myOptions.useVirtualThreads()) {
+            final Optional<ExecutorService> executor = VirtualThreads.newPerTaskExecutor();
+
+            if (executor.isPresent()) {
+                myProbePermits = new Semaphore(getMaxProbes());
+                System.out.println(LOGGER.getMessage(MessageCodes.MG_140, getMaxProbes()));
+                return executor.get();
+            }
+
+            System.err.println(LOGGER.getMessage(MessageCodes.MG_139, myOptions.getThreads()));
+        }
+
+        return Executors.newFixedThreadPool(myOptions.getThreads());
+    }
+
+    /**
+     * Gets the number of probes that may run at once.
+     *
+     * @return The --max-probes value, or the --threads value if it wasn't set
+     */
+    private int getMaxProbes() {
+        return myOptions.getMaxProbes() > 0 ? myOptions.getMaxProbes() : myOptions.getThreads();
+    }
+
+    /**
+     * Releases what was set up when the MetadataSetter was opened: the worker pool and any prefetches are stopped, and
+     * the probe cache is saved.
+     */
+    void close() {
+        if (myExecutor != null) {
+            myExecutor.shutdownNow();
+        }
+
+        if (myPrefetcher != null) {
+            myPrefetcher.close();
+        }
+
+        saveProbeCache();
+    }
+
+    /**
+     * Forgets the media file names that couldn't be found, so media files that have arrived since are found the next
+     * time their file names are listed.
+     */
+    void forgetMissingMedia() {
+        if (myResolver != null) {
+            myResolver.forgetMissing();
+        }
+    }
+
+    /**
+     * Gets the metrics of the rows enriched since the MetadataSetter was created.
+     *
+     * @return The run's counters and stage latencies
+     */
+    RunMetrics getMetrics() {
+        return myMetrics;
+    }
+
+    /**
+     * Outputs a summary of the run's metrics and, if one was requested, writes them to the metrics file. A metrics
+     * file that can't be written doesn't fail the run.
+     */
+    private void reportMetrics() {
+        myMetrics.stop();
+        myMetrics.getSummary().forEach(System.out::println);
+
+        if (myMountLimiter != null) {
+            myMountLimiter.getSummary().forEach(System.out::println);
+        }
+
+        if (myMetricsPath != null) {
+            try {
+                myMetrics.save(myMetricsPath);
+            } catch (final IOException details) {
+                System.err.println(LOGGER.getMessage(MessageCodes.MG_128, myMetricsPath, details.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Closes the checkpoint journal, if one was opened. A journal that can't be closed doesn't fail the run, since its
+     * entries have already been forced to disk.
+     */
+    private void closeJournal() {
+        if (myJournal != null) {
+            try {
+                myJournal.close();
+            } catch (final IOException details) {
+                System.err.println(LOGGER.getMessage(MessageCodes.MG_104, details.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Saves the probe cache, if one was requested. A cache that can't be saved doesn't fail the run, since the CSV
+     * files have already been written.
+     */
+    private void saveProbeCache() {
+        if (myProbeCache != null) {
+            try {
+                myProbeCache.save();
+            } catch (final IOException details) {
+                final Path cachePath = myOptions.getProbeCachePath();
+                System.err.println(LOGGER.getMessage(MessageCodes.MG_112, cachePath, details.getMessage()));
+            }
+        }
+    }
+
     /**
      * Verify a directory or file exists.
      *
@@ -160,55 +657,294 @@ public final class MetadataSetter implements Callable<Integer> {
     }
 
     /**
-     * Verify ffprobe executable exists.
+     * Verify ffprobe executable exists. A valid executable becomes the media prober used for the rest of the run.
      *
      * @param aFileName The file path of executable
      * @return True/false for valid ffprobe executable.
      */
     public boolean validFFProbe(final String aFileName) {
+        final int maxProbes = getMaxProbes();
+        final long timeout = TimeUnit.SECONDS.toMillis(myOptions.getProbeTimeout());
+        final boolean lean = myOptions.isLeanProbe();
+        final FfProbeMediaProber prober = new FfProbeMediaProber(aFileName, lean, timeout, maxProbes);
+
         try {
-            new FFprobe(myFfmpegPath).version();
+            prober.version();
         } catch (final IOException details) {
-            System.err.println(LOGGER.getMessage(MessageCodes.MG_102, myFfmpegPath));
+            System.err.println(LOGGER.getMessage(MessageCodes.MG_102, aFileName));
             return false;
         }
 
+        myProber = prober;
         return true;
     }
 
+    /**
+     * Method to process a directory's CSV files, several at a time if requested. Processing stops at the first CSV
+     * file that fails (though CSV files that are already being processed are finished). A summary of each CSV file
+     * is output at the end.
+     *
+     * @param aSummaryList Summaries of the CSV files to be read and copied/updated
+     * @throws I18nRuntimeException A wrapped exception thrown while adding A/V metadata to the first failed CSV file
+     */
+    private void addMetaToCsvs(final List<CsvSummary> aSummaryList) {
+        I18nRuntimeException failure = null;
+
+        if (myCsvParallelism == 1) {
+            for (final CsvSummary summary : aSummaryList) {
+                try {
+                    addMetaToCsv(summary);
+                } catch (final I18nRuntimeException details) {
+                    failure = details;
+                    break;
+                }
+            }
+        } else {
+            failure = addMetaToCsvsConcurrently(aSummaryList);
+        }
+
+        System.out.println(LOGGER.getMessage(MessageCodes.MG_113));
+        aSummaryList.forEach(summary -> System.out.println(summary));
+
+        if (myProbeMemo != null) {
+            System.out.println(LOGGER.getMessage(MessageCodes.MG_118, myProbeMemo.getHitCount(),
+                    myProbeMemo.getMissCount(), myProbeMemo.getEvictionCount()));
+        }
+
+        if (myPrefetcher != null) {
+            System.out.println(LOGGER.getMessage(MessageCodes.MG_138, myPrefetcher.getPrefetchCount()));
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Enriches the CSV files in a directory that haven't been enriched since they were last changed, and then watches
+     * the directory, enriching CSV files as they're added or changed, until the JVM is shut down. The media prober,
+     * probe memo, and probe cache stay warm from one CSV file to the next; the probe cache is saved after each batch,
+     * so it's kept even if the watch is killed. A CSV file that fails doesn't stop the watch.
+     *
+     * @param aCsvDir A directory of CSV files
+     * @throws IOException If the directory can't be watched
+     */
+    private void watchCsvs(final Path aCsvDir) throws IOException {
+        final long settleTime = TimeUnit.SECONDS.toMillis(myWatchSettleTime);
+
+        try (CsvWatcher watcher = new CsvWatcher(aCsvDir, this::isStaleCsvFile, settleTime)) {
+            List<Path> csvFiles;
+
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> stopWatching(watcher)));
+            System.out.println(LOGGER.getMessage(MessageCodes.MG_135, aCsvDir));
+
+            // The watch is started first, so a CSV file added while the directory is being read isn't missed
+            try (Stream<Path> stream = Files.find(aCsvDir, Integer.MAX_VALUE, this::isStaleCsvFile)) {
+                csvFiles = stream.sorted().collect(Collectors.toList());
+            }
+
+            while (true) {
+                forgetMissingMedia();
+
+                for (final Path csvFile : csvFiles) {
+                    // It may have been enriched since it was reported (e.g. if it was reported twice)
+                    if (isStaleCsvFile(csvFile, Files.readAttributes(csvFile, BasicFileAttributes.class))) {
+                        watchedCsvChanged(new CsvSummary(csvFile));
+                    }
+                }
+
+                saveProbeCache();
+                csvFiles = watcher.take();
+            }
+        } catch (final ClosedWatchServiceException details) {
+            // The watch was stopped because the JVM is shutting down
+        } catch (final InterruptedException details) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Enriches a CSV file that was added to or changed in the watched directory, outputting its summary.
+     *
+     * @param aSummary A summary of the CSV file
+     */
+    private void watchedCsvChanged(final CsvSummary aSummary) {
+        try {
+            addMetaToCsv(aSummary);
+            System.out.println(aSummary);
+        } catch (final I18nRuntimeException details) {
+            System.err.println(aSummary);
+        }
+    }
+
+    /**
+     * Stops a watch when the JVM is shut down, giving the CSV file it's working on time to be finished and the probe
+     * cache time to be saved.
+     *
+     * @param aWatcher The watch on the CSV directory
+     */
+    private void stopWatching(final CsvWatcher aWatcher) {
+        try {
+            aWatcher.close();
+            myRunIsOver.await(WATCH_STOP_DELAY, TimeUnit.SECONDS);
+        } catch (final IOException details) {
+            System.err.println(LOGGER.getMessage(MessageCodes.MG_101, details.getMessage()));
+        } catch (final InterruptedException details) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Whether a file is a CSV file whose output is missing or older than it, so it's yet to be enriched since it was
+     * last changed. A file in the output directory is never stale, so a watched directory can hold the output
+     * directory without its output being enriched again.
+     *
+     * @param aPath A file
+     * @param aAttributes The file's attributes
+     * @return True if the file is a CSV file that needs to be enriched; else, false
+     */
+    private boolean isStaleCsvFile(final Path aPath, final BasicFileAttributes aAttributes) {
+        final Path outputDir = Paths.get(myOutputPath).toAbsolutePath().normalize();
+        final Path outputFile = getOutputFile(aPath);
+
+        if (!CSV_FILES.test(aPath, aAttributes) || aPath.toAbsolutePath().normalize().startsWith(outputDir)) {
+            return false;
+        }
+
+        try {
+            return Files.getLastModifiedTime(outputFile).compareTo(aAttributes.lastModifiedTime()) < 0;
+        } catch (final IOException details) {
+            return true; // It hasn't been output
+        }
+    }
+
+    /**
+     * Gets the output file of a CSV file. A CSV file in a subdirectory of the CSV directory is output to the same
+     * subdirectory of the output directory, so CSV files with the same name in different subdirectories don't
+     * overwrite each other's output.
+     *
+     * @param aPath A CSV file
+     * @return The file to which the CSV file's output is written
+     */
+    private Path getOutputFile(final Path aPath) {
+        final Path csvPath = Paths.get(myCsvPath).toAbsolutePath().normalize();
+        final Path csvFile = aPath.toAbsolutePath().normalize();
+
+        if (Files.isDirectory(csvPath) && csvFile.startsWith(csvPath)) {
+            return Paths.get(myOutputPath).resolve(csvPath.relativize(csvFile));
+        }
+
+        return Paths.get(myOutputPath, aPath.toFile().getName());
+    }
+
+    /**
+     * Method to process a directory's CSV files concurrently. When a CSV file fails, no more CSV files are started.
+     *
+     * @param aSummaryList Summaries of the CSV files to be read and copied/updated
+     * @return The exception thrown while processing the first failed CSV file, or null if none failed
+     */
+    private I18nRuntimeException addMetaToCsvsConcurrently(final List<CsvSummary> aSummaryList) {
+        final int poolSize = Math.max(1, Math.min(myCsvParallelism, aSummaryList.size()));
+        final ExecutorService csvExecutor = Executors.newFixedThreadPool(poolSize);
+        final List<Future<?>> futures = new ArrayList<>(aSummaryList.size());
+        I18nRuntimeException failure = null;
+
+        try {
+            for (final CsvSummary summary : aSummaryList) {
+                futures.add(csvExecutor.submit(() -> addMetaToCsv(summary)));
+            }
+
+            for (final Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (final CancellationException details) {
+                    // The CSV file was never started because an earlier one failed
+                } catch (final ExecutionException details) {
+                    if (failure == null) {
+                        failure = details.getCause() instanceof I18nRuntimeException
+                                ? (I18nRuntimeException) details.getCause()
+                                : new I18nRuntimeException(details.getCause(), MessageCodes.BUNDLE,
+                                        MessageCodes.MG_000, details.getCause().getMessage());
+                        futures.forEach(pending -> pending.cancel(false));
+                    }
+                }
+            }
+        } catch (final InterruptedException details) {
+            Thread.currentThread().interrupt();
+            failure = new I18nRuntimeException(details, MessageCodes.BUNDLE, MessageCodes.MG_000, details.getMessage());
+        } finally {
+            csvExecutor.shutdownNow();
+        }
+
+        return failure;
+    }
+
+    /**
+     * Method to process CSV file(s) to add columns for media metadata.
+     *
+     * @param aSummary A summary of the CSV file to be read and copied/updated
+     * @throws I18nRuntimeException A wrapped exception thrown while adding A/V metadata
+     */
+    private void addMetaToCsv(final CsvSummary aSummary) {
+        aSummary.start();
+
+        if (myJournal.isComplete(aSummary.getPath())) {
+            System.out.println(LOGGER.getMessage(MessageCodes.MG_121, aSummary.getPath()));
+            aSummary.succeed();
+            return;
+        }
+
+        try {
+            addMetaToCsv(aSummary.getPath(), aSummary);
+            aSummary.succeed();
+        } catch (final I18nRuntimeException details) {
+            aSummary.fail(details.getMessage());
+            throw details;
+        }
+    }
+
     /**
      * Method to process CSV file(s) to add columns for media metadata.
      *
      * @param aPath Path to file to be read and copied/updated
+     * @param aSummary A summary of the CSV file to which progress is recorded
      * @throws I18nRuntimeException A wrapped exception thrown while adding A/V metadata
      */
-    private void addMetaToCsv(final Path aPath) {
-        final File outputFile = Paths.get(myOutputPath, aPath.toFile().getName()).toFile();
+    private void addMetaToCsv(final Path aPath, final CsvSummary aSummary) {
+        final Path outputFile = getOutputFile(aPath);
+
+        try {
+            Files.createDirectories(outputFile.getParent());
+        } catch (final IOException details) {
+            throw new I18nRuntimeException(details, MessageCodes.BUNDLE, MessageCodes.MG_104, details.getMessage());
+        }
 
         try (CSVReader reader = new CSVReader(Files.newBufferedReader(aPath));
-                CSVWriter writer = new CSVWriter(Files.newBufferedWriter(outputFile.toPath(), UTF_8))) {
-            final List<String[]> input = reader.readAll();
-            final List<String[]> output = new ArrayList<>(input.size());
-            final boolean hasAllMetas = allMetaFieldsPresent(input.get(0));
+                CheckpointedCsvWriter writer = new CheckpointedCsvWriter(aPath, outputFile, myJournal)) {
+            final String[] headerRow = reader.readNext();
 
             // Informational message that lets the user know which CSV file is being processed
             System.out.println(LOGGER.getMessage(MessageCodes.MG_103, aPath));
 
-            myCsvHeaders = new CsvHeaders(input.get(0));
-
-            if (!hasAllMetas) {
-                output.add(buildHeaderRow(input.get(0)));
-            } else {
-                output.add(input.get(0));
+            if (headerRow == null) {
+                writer.commit();
+                return; // An empty CSV file has nothing to which metadata can be added
             }
 
-            for (int index = 1; index < input.size(); index++) {
-                output.add(buildARow(hasAllMetas, input.get(index)));
-            }
+            final boolean hasAllMetas = allMetaFieldsPresent(headerRow);
+            final String[] outputHeaderRow = hasAllMetas ? headerRow : buildHeaderRow(headerRow);
+            final CsvHeaders csvHeaders = new CsvHeaders(outputHeaderRow); // Indexes of the output file's columns
 
-            for (final String[] row : output) {
-                writer.writeNext(row);
+            writer.writeHeader(outputHeaderRow);
+
+            // Rows that were written before an earlier run died don't need to be read again
+            for (long index = 0; index < writer.getResumedRowCount() && reader.readNext() != null; index++) {
+                aSummary.rowResumed();
+                aSummary.rowWritten();
             }
+
+            addMetaToRows(reader, writer::writeNext, csvHeaders, aSummary, hasAllMetas);
+            writer.commit();
         } catch (final IOException details) { // Catches FileNotFoundException(s) and other IOException(s), too
             throw new I18nRuntimeException(details, MessageCodes.BUNDLE, MessageCodes.MG_104, details.getMessage());
         } catch (final FileFormatException | CsvException details) {
@@ -216,13 +952,234 @@ public final class MetadataSetter implements Callable<Integer> {
         }
     }
 
+    /**
+     * Enriches a CSV file that's read from a stream, writing the enriched CSV file to another stream as its rows are
+     * built. Nothing is checkpointed, so this is meant for CSV files that are sent to the serve command.
+     *
+     * @param aSource A reader for the source CSV file
+     * @param aTarget A writer for the enriched CSV file, which is flushed but not closed
+     * @param aSummary A summary of the CSV file to which progress is recorded
+     * @throws IOException If the CSV file can't be read or written
+     * @throws CsvException If the CSV file isn't valid CSV or doesn't have a File Name column
+     * @throws FileFormatException If a media file doesn't have a file extension
+     */
+    void addMetaToCsv(final Reader aSource, final Writer aTarget, final CsvSummary aSummary)
+            throws IOException, CsvException, FileFormatException {
+        final CSVReader reader = new CSVReader(aSource);
+        final CSVWriter writer = new CSVWriter(aTarget);
+        final String[] headerRow = reader.readNext();
+
+        if (headerRow != null) {
+            final boolean hasAllMetas = allMetaFieldsPresent(headerRow);
+            final String[] outputHeaderRow = hasAllMetas ? headerRow : buildHeaderRow(headerRow);
+            final CsvHeaders csvHeaders = new CsvHeaders(outputHeaderRow);
+
+            if (!csvHeaders.hasFileNameIndex()) {
+                throw new CsvValidationException(LOGGER.getMessage(MessageCodes.MG_107));
+            }
+
+            writer.writeNext(outputHeaderRow);
+            addMetaToRows(reader, row -> {
+                writer.writeNext(row);
+
+                if (writer.getException() != null) { // e.g. the client went away, so there's no point going on
+                    throw writer.getException();
+                }
+            }, csvHeaders, aSummary, hasAllMetas);
+        }
+
+        writer.flush();
+    }
+
+    /**
+     * Reads, builds, and writes the remaining rows of a CSV file, using the worker pool if there is one. If prefetching
+     * was requested, rows are read ahead so their media files can be prefetched.
+     *
+     * @param aReader A reader positioned after the header row of the source file
+     * @param aWriter A writer for the output file
+     * @param aCsvHeaders The headers of the CSV file the rows come from
+     * @param aSummary A summary of the CSV file to which progress is recorded
+     * @param aHasColumns An indication that the CSV has column names
+     * @throws IOException If there is trouble reading the source file or writing the output file
+     * @throws CsvValidationException If a row of the source file is not valid CSV
+     * @throws FileFormatException If a media file doesn't have a file extension
+     */
+    private void addMetaToRows(final CSVReader aReader, final RowWriter aWriter, final CsvHeaders aCsvHeaders,
+            final CsvSummary aSummary, final boolean aHasColumns)
+            throws IOException, CsvValidationException, FileFormatException {
+        final int distance = myPrefetcher == null ? 0 : myOptions.getPrefetchRows();
+        final RowReadahead reader = new RowReadahead(aReader, distance, row -> {
+            if (myPrefetcher != null) {
+                prefetch(aCsvHeaders, aHasColumns, row);
+            }
+        });
+
+        if (myExecutor == null) {
+            String[] row;
+
+            while ((row = reader.readNext()) != null) {
+                writeRow(aWriter, aSummary, buildARow(aCsvHeaders, aSummary, aHasColumns, row));
+            }
+        } else {
+            writeRows(reader, aWriter, aCsvHeaders, aSummary, aHasColumns);
+        }
+    }
+
+    /**
+     * Reads, builds, and writes the remaining rows of a CSV file using the worker pool. Only a bounded number of rows
+     * are in flight at any one time and rows are written in the order in which they were read.
+     *
+     * @param aReader A reader positioned after the header row of the source file
+     * @param aWriter A writer for the output file
+     * @param aCsvHeaders The headers of the CSV file the rows come from
+     * @param aSummary A summary of the CSV file to which progress is recorded
+     * @param aHasColumns An indication that the CSV has column names
+     * @throws IOException If there is trouble reading the source file
+     * @throws CsvValidationException If a row of the source file is not valid CSV
+     * @throws FileFormatException If a media file doesn't have a file extension
+     */
+    private void writeRows(final RowReadahead aReader, final RowWriter aWriter, final CsvHeaders aCsvHeaders,
+            final CsvSummary aSummary, final boolean aHasColumns)
+            throws IOException, CsvValidationException, FileFormatException {
+        final int maxInFlight = myOptions.getProbeWindow() > 0 ? myOptions.getProbeWindow() :
+                myOptions.getThreads() * ROWS_IN_FLIGHT_PER_THREAD;
+        final Deque<Future<String[]>> futures = new ArrayDeque<>(maxInFlight);
+
+        try {
+            String[] row;
+
+            while ((row = aReader.readNext()) != null) {
+                final String[] source = row;
+                final Callable<String[]> task = () -> buildARow(aCsvHeaders, aSummary, aHasColumns, source);
+
+                if (myScheduler == null) {
+                    futures.addLast(myExecutor.submit(task));
+                } else {
+                    final Path mediaFile = getProbedFile(aCsvHeaders, aHasColumns, source);
+                    final String mount = myMountLimiter == null || mediaFile == null ? null :
+                            myResolver.getMount(mediaFile);
+
+                    futures.addLast(myScheduler.submit(task, mediaFile, mount));
+                }
+
+                if (futures.size() >= maxInFlight) {
+                    writeRow(aWriter, aSummary, await(futures.removeFirst()));
+                }
+            }
+
+            while (!futures.isEmpty()) {
+                writeRow(aWriter, aSummary, await(futures.removeFirst()));
+            }
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    /**
+     * Starts prefetching the media file of a row that's been read ahead, if the row will be probed and its media file
+     * can't be answered from the probe memo or cache (which would make reading it a waste, or on an HSM mount, an
+     * unneeded recall). Problems with the row are left to be reported when its turn comes.
+     *
+     * @param aCsvHeaders The headers of the CSV file the row comes from
+     * @param aHasColumns An indication that the CSV has column names
+     * @param aRow A CSV row that's been read ahead
+     */
+    private void prefetch(final CsvHeaders aCsvHeaders, final boolean aHasColumns, final String... aRow) {
+        final Path filePath = getProbedFile(aCsvHeaders, aHasColumns, aRow);
+
+        if (filePath != null) {
+            myPrefetcher.prefetch(filePath);
+        }
+    }
+
+    /**
+     * Gets the media file a row will have to probe, looking it up as it will be when the row is built. Problems with
+     * the row are left to be reported when the row is built.
+     *
+     * @param aCsvHeaders The headers of the CSV file the row comes from
+     * @param aHasColumns An indication that the CSV has column names
+     * @param aRow A CSV row that hasn't been built yet
+     * @return The row's media file, or null if the row won't probe one, because it has no media file, its media
+     *         file can't have A/V metadata, or its media file can be answered from the probe memo or cache
+     */
+    private Path getProbedFile(final CsvHeaders aCsvHeaders, final boolean aHasColumns, final String... aRow) {
+        final int fileColumnIndex = aCsvHeaders.getFileNameIndex();
+        final String fileName = fileColumnIndex != -1 && fileColumnIndex < aRow.length ? aRow[fileColumnIndex] : null;
+        final Path filePath;
+
+        if (fileName == null || !fileName.contains(".") || !fileExpected(aCsvHeaders, aRow) ||
+                myOptions.isIncremental() && aHasColumns && alreadyEnriched(aCsvHeaders, aRow)) {
+            return null;
+        }
+
+        try {
+            filePath = myResolver.resolve(fileName);
+        } catch (final FileNotFoundException details) {
+            return null;
+        }
+
+        if (!MimeTypeDetector.mayBeAudioOrVideo(filePath) || myProbeMemo != null && myProbeMemo.contains(filePath) ||
+                myProbeCache != null && myProbeCache.isCurrent(filePath)) {
+            return null;
+        }
+
+        return filePath;
+    }
+
+    /**
+     * Writes a row to the output file, recording it in the CSV file's summary and the run's metrics.
+     *
+     * @param aWriter A writer for the output file
+     * @param aSummary A summary of the CSV file to which progress is recorded
+     * @param aRow A modified CSV row
+     * @throws IOException If the row can't be written
+     */
+    private void writeRow(final RowWriter aWriter, final CsvSummary aSummary, final String... aRow)
+            throws IOException {
+        final long startTime = System.nanoTime();
+
+        aWriter.writeNext(aRow);
+        myMetrics.record(RunMetrics.Stage.WRITE, startTime);
+        myMetrics.rowWritten();
+        aSummary.rowWritten();
+    }
+
+    /**
+     * Waits for a row being built on the worker pool, unwrapping any exception thrown while building it.
+     *
+     * @param aFuture A row that's being built
+     * @return The modified CSV row
+     * @throws FileNotFoundException If a media file could not be found
+     * @throws FileFormatException If a media file doesn't have a file extension
+     */
+    private String[] await(final Future<String[]> aFuture) throws FileNotFoundException, FileFormatException {
+        try {
+            return aFuture.get();
+        } catch (final InterruptedException details) {
+            Thread.currentThread().interrupt();
+            throw new I18nRuntimeException(details, MessageCodes.BUNDLE, MessageCodes.MG_000, details.getMessage());
+        } catch (final ExecutionException details) {
+            final Throwable cause = details.getCause();
+
+            if (cause instanceof FileNotFoundException) {
+                throw (FileNotFoundException) cause;
+            } else if (cause instanceof FileFormatException) {
+                throw (FileFormatException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new I18nRuntimeException(cause, MessageCodes.BUNDLE, MessageCodes.MG_000, cause.getMessage());
+        }
+    }
+
     /**
      * Method to copy base headers and add new columns.
      *
      * @param aSource The original headers from the source file.
      * @return Array of header names.
      */
-    private String[] buildHeaderRow(final String... aSource) {
+    static String[] buildHeaderRow(final String... aSource) {
         final String[] headers = Arrays.copyOf(aSource, aSource.length + 4);
 
         headers[headers.length - Constants.WIDTH_OFFSET] = Constants.HEADER_WIDTH;
@@ -234,8 +1191,12 @@ public final class MetadataSetter implements Callable<Integer> {
     }
 
     /**
-     * Method to copy/modify data rows from source file.
+     * Method to copy/modify data rows from source file. The copy has at least as many columns as the output's header
+     * row, so a row that's shorter than the header row (e.g. because its trailing empty columns were left off) still
+     * has room for the media columns.
      *
+     * @param aCsvHeaders The headers of the output file, including the number of columns in its header row
+     * @param aSummary A summary of the CSV file to which progress is recorded
      * @param aSource The original row from the source file
      * @param aHasColumns An indication that the CSV has column names
      * @return The modified CSV row
@@ -244,14 +1205,19 @@ public final class MetadataSetter implements Callable<Integer> {
      * @throws FileFormatException If the media file doesn't have a file extension
      */
     @SuppressWarnings("PMD.CollapsibleIfStatements")
-    private String[] buildARow(final boolean aHasColumns, final String... aSource)
-            throws FileNotFoundException, FileFormatException {
-        final int fileColumnIndex = myCsvHeaders.getFileNameIndex();
-        final String[] line = Arrays.copyOf(aSource, aHasColumns ? aSource.length : aSource.length + 4);
+    String[] buildARow(final CsvHeaders aCsvHeaders, final CsvSummary aSummary, final boolean aHasColumns,
+            final String... aSource) throws FileNotFoundException, FileFormatException {
+        final int fileColumnIndex = aCsvHeaders.getFileNameIndex();
+        final String[] line = Arrays.copyOf(aSource, Math.max(aSource.length, aCsvHeaders.getColumnCount()));
         final String fileName = line[fileColumnIndex];
 
+        if (myOptions.isIncremental() && aHasColumns && alreadyEnriched(aCsvHeaders, line)) {
+            aSummary.rowSkipped();
+            return line;
+        }
+
         if (fileColumnIndex != -1) {
-            if (fileExpected(line) && !fileName.trim().equals(EMPTY)) {
+            if (fileExpected(aCsvHeaders, line) && fileName != null && !fileName.trim().equals(EMPTY)) {
                 if (!fileName.contains(".")) {
                     throw new FileFormatException(line[fileColumnIndex]); // Check that file has an extension
                 }
@@ -260,76 +1226,233 @@ public final class MetadataSetter implements Callable<Integer> {
                     getFullFilePath(fileName); // Throws FileNotFoundException if path doesn't exist
                 }
 
-                addMetadata(line);
+                addMetadata(aCsvHeaders, aSummary, line);
             }
         }
 
         return line;
     }
 
+    /**
+     * Tests whether a row already has A/V metadata. Width and height aren't checked, since audio files don't have
+     * them.
+     *
+     * @param aCsvHeaders The headers of the CSV file the row comes from
+     * @param aRow A CSV row
+     * @return True if the row has a media.duration and a media.format value
+     */
+    static boolean alreadyEnriched(final CsvHeaders aCsvHeaders, final String... aRow) {
+        return hasValue(aCsvHeaders.getMediaDurationIndex(), aRow) &&
+                hasValue(aCsvHeaders.getMediaFormatIndex(), aRow);
+    }
+
+    /**
+     * Tests whether a row has a value in the supplied column.
+     *
+     * @param aIndex The index position of a column
+     * @param aRow A CSV row
+     * @return True if the row has a non-blank value in the column
+     */
+    private static boolean hasValue(final int aIndex, final String... aRow) {
+        return aIndex != -1 && aIndex < aRow.length && aRow[aIndex] != null && !aRow[aIndex].trim().equals(EMPTY);
+    }
+
     /**
      * Tests whether a file is expected.
      *
+     * @param aCsvHeaders The headers of the CSV file the row comes from
      * @param aRow A CSV row
      * @return True if a file is expected for this supplied row
      */
-    private boolean fileExpected(final String... aRow) {
-        return !"Collection".equals(aRow[myCsvHeaders.getObjectTypeIndex()]);
+    static boolean fileExpected(final CsvHeaders aCsvHeaders, final String... aRow) {
+        final int objectTypeIndex = aCsvHeaders.getObjectTypeIndex();
+
+        // A row that stops short of the 'Object Type' column isn't a collection
+        return objectTypeIndex >= aRow.length || !"Collection".equals(aRow[objectTypeIndex]);
     }
 
     /**
      * Method to extract metadata from media file and add to output row.
      *
+     * @param aCsvHeaders The headers of the CSV file the row comes from
+     * @param aSummary A summary of the CSV file to which progress is recorded
      * @param aRow The row from the output file.
      * @throws FileNotFoundException If a media file could be found
      * @throws FfProbeException If FFProbe encounters an error while reading the media file
      */
     @SuppressWarnings({ "PMD.CognitiveComplexity", "PMD.CyclomaticComplexity" })
-    private void addMetadata(final String... aRow) {
-        final String csvSourceFile = aRow[myCsvHeaders.getFileNameIndex()];
+    private void addMetadata(final CsvHeaders aCsvHeaders, final CsvSummary aSummary, final String... aRow) {
+        final String csvSourceFile = aRow[aCsvHeaders.getFileNameIndex()];
 
         try {
             final Path filePath = getFullFilePath(csvSourceFile);
-            final FFprobe ffprobe = new FFprobe(myFfmpegPath);
-            final FFmpegProbeResult probeResult = ffprobe.probe(filePath.toString());
-            final FFmpegFormat format = probeResult.getFormat();
-            final String mimeType = Files.probeContentType(filePath);
-
-            if (mimeType.contains("audio") || mimeType.contains("video")) {
-                aRow[aRow.length - Constants.DURATION_OFFSET] = String.valueOf(format.duration);
-
-                if (myCsvHeaders.hasFormatExtentIndex() &&
-                        aRow[myCsvHeaders.getFormatExtentIndex()].trim().equals(EMPTY)) {
-                    final double rawDuration = format.duration;
-                    final int hours = (int) rawDuration / Constants.ONE_HOUR;
-                    final int minutes = (int) (rawDuration % Constants.ONE_HOUR) / Constants.ONE_MINUTE;
-                    final int seconds = (int) rawDuration % Constants.ONE_MINUTE;
-                    final String formattedHours = hours > 0 ? String.format("%02dh", hours) : EMPTY;
-                    final StringBuffer formattedDuration = new StringBuffer();
-
-                    formattedDuration.append(formattedHours).append(String.format(" %02dm %02ds", minutes, seconds));
-                    aRow[myCsvHeaders.getFormatExtentIndex()] = formattedDuration.toString().trim();
+            final MediaInfo mediaInfo;
+            final String mimeType;
+            final long startTime;
+
+            // Files like images can't have A/V metadata, whatever the probe reports, so they aren't probed
+            if (!MimeTypeDetector.mayBeAudioOrVideo(filePath)) {
+                myMetrics.nonAvMediaSkipped();
+                return;
+            }
+
+            myMetrics.mediaLookedUp();
+            mediaInfo = myProbeMemo != null ? myProbeMemo.get(filePath, this::probe) : probe(filePath);
+            startTime = System.nanoTime();
+            mimeType = MimeTypeDetector.detect(filePath, mediaInfo.getFormatName());
+            myMetrics.record(RunMetrics.Stage.DETECT, startTime);
+
+            aSummary.mediaProbed();
+
+            if (MimeTypeDetector.isAudioOrVideo(mimeType)) {
+                aRow[aCsvHeaders.getMediaDurationIndex()] = String.valueOf(mediaInfo.getDuration());
+
+                if (aCsvHeaders.hasFormatExtentIndex() && !hasValue(aCsvHeaders.getFormatExtentIndex(), aRow)) {
+                    aRow[aCsvHeaders.getFormatExtentIndex()] = formatExtent(mediaInfo.getDuration());
                 }
 
-                aRow[aRow.length - Constants.FORMAT_OFFSET] = mimeType;
+                aRow[aCsvHeaders.getMediaFormatIndex()] = mimeType;
 
-                if (probeResult.getStreams() != null) {
-                    for (final FFmpegStream stream : probeResult.getStreams()) {
-                        if (stream.width != 0) {
-                            aRow[aRow.length - Constants.WIDTH_OFFSET] = String.valueOf(stream.width);
-                        }
+                if (mediaInfo.getWidth() != 0) {
+                    aRow[aCsvHeaders.getMediaWidthIndex()] = String.valueOf(mediaInfo.getWidth());
+                }
 
-                        if (stream.height != 0) {
-                            aRow[aRow.length - Constants.HEIGHT_OFFSET] = String.valueOf(stream.height);
-                        }
-                    }
+                if (mediaInfo.getHeight() != 0) {
+                    aRow[aCsvHeaders.getMediaHeightIndex()] = String.valueOf(mediaInfo.getHeight());
                 }
             }
         } catch (final IOException details) {
+            aSummary.probeFailed();
+            myMetrics.probeFailed();
             System.err.println(LOGGER.getMessage(MessageCodes.MG_106, csvSourceFile, details.getMessage()));
         }
     }
 
+    /**
+     * Formats a duration for the Format.extent column (e.g. "01h 02m 03s", or "02m 03s" if it's under an hour).
+     *
+     * @param aDuration A duration in seconds
+     * @return The formatted duration
+     */
+    static String formatExtent(final double aDuration) {
+        final int hours = (int) aDuration / Constants.ONE_HOUR;
+        final int minutes = (int) (aDuration % Constants.ONE_HOUR) / Constants.ONE_MINUTE;
+        final int seconds = (int) aDuration % Constants.ONE_MINUTE;
+        final String formattedHours = hours > 0 ? String.format("%02dh", hours) : EMPTY;
+        final StringBuffer formattedDuration = new StringBuffer();
+
+        formattedDuration.append(formattedHours).append(String.format(" %02dm %02ds", minutes, seconds));
+        return formattedDuration.toString().trim();
+    }
+
+    /**
+     * Probes a media file, using the persistent probe cache if one was requested.
+     *
+     * @param aPath The path of a media file
+     * @return The media info for the media file
+     * @throws IOException If the media file can't be read or probed
+     */
+    private MediaInfo probe(final Path aPath) throws IOException {
+        return myProbeCache != null ? myProbeCache.get(aPath, this::probeMedia) : probeMedia(aPath);
+    }
+
+    /**
+     * Probes a media file, timing the probe. If its header can be read in-process, that's all that's done. If not, it's
+     * probed with the media prober: when each row has its own virtual thread, the probe first waits for a permit; with
+     * adaptive probes, it first waits for its mount's turn too, and its latency and outcome then adjust the mount's
+     * limit. In-process header reads don't wait for either, or count towards the mount's latency, since they don't
+     * start a process and take a fraction of the time.
+     *
+     * @param aPath The path of a media file
+     * @return The media info extracted from the media file
+     * @throws IOException If the media file can't be read or probed
+     */
+    private MediaInfo probeMedia(final Path aPath) throws IOException {
+        final String mount;
+        final long startTime;
+        boolean probeIsDone = false;
+        boolean probeSucceeded = false;
+
+        if (myHeaderProber != null) {
+            final MediaInfo mediaInfo = readHeader(aPath);
+
+            if (mediaInfo != null) {
+                return mediaInfo;
+            }
+        }
+
+        mount = myMountLimiter == null ? null : myResolver.getMount(aPath);
+
+        // A probe waits for its mount's turn before it takes one of the probes shared by all the mounts
+        try {
+            if (mount != null) {
+                myMountLimiter.acquire(mount);
+            }
+
+            if (myProbePermits != null) {
+                try {
+                    myProbePermits.acquire();
+                } catch (final InterruptedException details) {
+                    if (mount != null) {
+                        myMountLimiter.cancel(mount);
+                    }
+
+                    throw details;
+                }
+            }
+        } catch (final InterruptedException details) {
+            Thread.currentThread().interrupt();
+            throw (InterruptedIOException) new InterruptedIOException(details.getMessage()).initCause(details);
+        }
+
+        startTime = System.nanoTime();
+        myMetrics.mediaProbed();
+
+        try {
+            final MediaInfo mediaInfo = myProber.probe(aPath);
+
+            probeIsDone = true;
+            probeSucceeded = true;
+            return mediaInfo;
+        } catch (final InterruptedIOException details) {
+            throw details; // The run is being stopped, which says nothing about the mount
+        } catch (final IOException details) {
+            probeIsDone = true;
+            throw details;
+        } finally {
+            myMetrics.record(RunMetrics.Stage.PROBE, startTime);
+
+            if (myProbePermits != null) {
+                myProbePermits.release();
+            }
+
+            if (mount != null && probeIsDone) {
+                myMountLimiter.release(mount, System.nanoTime() - startTime, probeSucceeded);
+            } else if (mount != null) {
+                myMountLimiter.cancel(mount);
+            }
+        }
+    }
+
+    /**
+     * Reads a media file's info from its header in-process, timing the read if it succeeds.
+     *
+     * @param aPath The path of a media file
+     * @return The media info, or null if it can't be read from the file's header
+     * @throws IOException If the media file can't be read
+     */
+    private MediaInfo readHeader(final Path aPath) throws IOException {
+        final long startTime = System.nanoTime();
+        final MediaInfo mediaInfo = myHeaderProber.readHeader(aPath);
+
+        if (mediaInfo != null) {
+            myMetrics.mediaProbed();
+            myMetrics.record(RunMetrics.Stage.PROBE, startTime);
+        }
+
+        return mediaInfo;
+    }
+
     /**
      * Gets the full path from the supplied partial path.
      *
@@ -338,16 +1461,13 @@ public final class MetadataSetter implements Callable<Integer> {
      * @throws FileNotFoundException If the file could not be found at any of the possible paths
      */
     private Path getFullFilePath(final String aPartialPath) throws FileNotFoundException {
-        for (final String mediaPath : myMediaPath) {
-            final Path path = Path.of(mediaPath, aPartialPath);
+        final long startTime = System.nanoTime();
 
-            if (Files.exists(path)) {
-                return path;
-            }
+        try {
+            return myResolver.resolve(aPartialPath);
+        } finally {
+            myMetrics.record(RunMetrics.Stage.RESOLVE, startTime);
         }
-
-        throw new FileNotFoundException(LOGGER.getMessage(MessageCodes.MG_105, aPartialPath,
-                myMediaPath.contains(",") ? StringUtils.toString(',', myMediaPath) : myMediaPath));
     }
 
     /**
@@ -356,10 +1476,25 @@ public final class MetadataSetter implements Callable<Integer> {
      * @param aHeaderRow A CSV header row
      * @return True if all required metadata fields are present; else, false
      */
-    private boolean allMetaFieldsPresent(final String... aHeaderRow) {
+    static boolean allMetaFieldsPresent(final String... aHeaderRow) {
         return Arrays.stream(aHeaderRow).anyMatch(Constants.HEADER_WIDTH::equals) &&
                 Arrays.stream(aHeaderRow).anyMatch(Constants.HEADER_HEIGHT::equals) &&
                 Arrays.stream(aHeaderRow).anyMatch(Constants.HEADER_DURATION::equals) &&
                 Arrays.stream(aHeaderRow).anyMatch(Constants.HEADER_FORMAT::equals);
     }
+
+    /**
+     * Somewhere the enriched rows of a CSV file are written.
+     */
+    @FunctionalInterface
+    private interface RowWriter {
+
+        /**
+         * Writes a row.
+         *
+         * @param aRow A CSV row
+         * @throws IOException If the row can't be written
+         */
+        void writeNext(String... aRow) throws IOException;
+    }
 }
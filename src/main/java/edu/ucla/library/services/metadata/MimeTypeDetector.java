@@ -0,0 +1,129 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Detects the MIME type of a media file from its file extension and the container format name reported by the probe.
+ * Detection is a table lookup, so it doesn't read the file or consult the operating system's MIME type database.
+ */
+public final class MimeTypeDetector {
+
+    /**
+     * The MIME type used when neither the file extension nor the format name is recognized.
+     */
+    public static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+
+    /**
+     * MIME types by (lower-case) file extension, matching the common /etc/mime.types entries.
+     */
+    private static final Map<String, String> EXTENSIONS = Map.ofEntries(
+            // Audio
+            Map.entry("mp3", "audio/mpeg"), Map.entry("mp2", "audio/mpeg"), Map.entry("mpga", "audio/mpeg"),
+            Map.entry("wav", "audio/x-wav"), Map.entry("aif", "audio/x-aiff"), Map.entry("aiff", "audio/x-aiff"),
+            Map.entry("aifc", "audio/x-aiff"), Map.entry("flac", "audio/flac"), Map.entry("m4a", "audio/mp4"),
+            Map.entry("aac", "audio/aac"), Map.entry("ac3", "audio/ac3"), Map.entry("ogg", "audio/ogg"),
+            Map.entry("oga", "audio/ogg"), Map.entry("opus", "audio/ogg"), Map.entry("wma", "audio/x-ms-wma"),
+            Map.entry("mka", "audio/x-matroska"), Map.entry("au", "audio/basic"), Map.entry("snd", "audio/basic"),
+            Map.entry("mid", "audio/midi"), Map.entry("midi", "audio/midi"),
+            // Video
+            Map.entry("mp4", "video/mp4"), Map.entry("m4v", "video/mp4"), Map.entry("mov", "video/quicktime"),
+            Map.entry("qt", "video/quicktime"), Map.entry("mpg", "video/mpeg"), Map.entry("mpeg", "video/mpeg"),
+            Map.entry("mpe", "video/mpeg"), Map.entry("m2v", "video/mpeg"), Map.entry("vob", "video/mpeg"),
+            Map.entry("ts", "video/mp2t"), Map.entry("mts", "video/mp2t"), Map.entry("m2ts", "video/mp2t"),
+            Map.entry("avi", "video/x-msvideo"), Map.entry("mkv", "video/x-matroska"), Map.entry("webm", "video/webm"),
+            Map.entry("wmv", "video/x-ms-wmv"), Map.entry("asf", "video/x-ms-asf"), Map.entry("flv", "video/x-flv"),
+            Map.entry("3gp", "video/3gpp"), Map.entry("3g2", "video/3gpp2"), Map.entry("ogv", "video/ogg"),
+            Map.entry("dv", "video/x-dv"),
+            // Images and documents
+            Map.entry("jpg", "image/jpeg"), Map.entry("jpeg", "image/jpeg"), Map.entry("jpe", "image/jpeg"),
+            Map.entry("png", "image/png"), Map.entry("tif", "image/tiff"), Map.entry("tiff", "image/tiff"),
+            Map.entry("gif", "image/gif"), Map.entry("bmp", "image/bmp"), Map.entry("jp2", "image/jp2"),
+            Map.entry("webp", "image/webp"), Map.entry("pdf", "application/pdf"),
+            Map.entry("mxf", "application/mxf"));
+
+    /**
+     * MIME types by the container format name reported by ffprobe, used when the file extension isn't recognized.
+     * Names that ffprobe reports as a comma-separated list are looked up by their first entry.
+     */
+    private static final Map<String, String> FORMAT_NAMES = Map.ofEntries(Map.entry("mp3", "audio/mpeg"),
+            Map.entry("wav", "audio/x-wav"), Map.entry("w64", "audio/x-wav"), Map.entry("aiff", "audio/x-aiff"),
+            Map.entry("flac", "audio/flac"), Map.entry("ogg", "audio/ogg"), Map.entry("aac", "audio/aac"),
+            Map.entry("ac3", "audio/ac3"), Map.entry("au", "audio/basic"), Map.entry("mov", "video/mp4"),
+            Map.entry("mpeg", "video/mpeg"), Map.entry("mpegvideo", "video/mpeg"), Map.entry("mpegts", "video/mp2t"),
+            Map.entry("avi", "video/x-msvideo"), Map.entry("matroska", "video/x-matroska"),
+            Map.entry("asf", "video/x-ms-asf"), Map.entry("flv", "video/x-flv"), Map.entry("dv", "video/x-dv"),
+            Map.entry("mxf", "application/mxf"), Map.entry("image2", "image/jpeg"),
+            Map.entry("jpeg_pipe", "image/jpeg"), Map.entry("png_pipe", "image/png"),
+            Map.entry("tiff_pipe", "image/tiff"), Map.entry("gif", "image/gif"), Map.entry("bmp_pipe", "image/bmp"));
+
+    /**
+     * Private constructor for MimeTypeDetector class.
+     */
+    private MimeTypeDetector() {
+    }
+
+    /**
+     * Detects the MIME type of a media file.
+     *
+     * @param aPath The path of a media file
+     * @param aFormatName The container format name reported by the probe; may be null
+     * @return The MIME type of the media file, which is never null
+     */
+    public static String detect(final Path aPath, final String aFormatName) {
+        final String mimeType = EXTENSIONS.get(getExtension(aPath));
+
+        if (mimeType != null) {
+            return mimeType;
+        }
+
+        if (aFormatName != null) {
+            final int commaIndex = aFormatName.indexOf(',');
+            final String formatName = commaIndex == -1 ? aFormatName : aFormatName.substring(0, commaIndex);
+
+            return FORMAT_NAMES.getOrDefault(formatName.trim().toLowerCase(Locale.ROOT), DEFAULT_MIME_TYPE);
+        }
+
+        return DEFAULT_MIME_TYPE;
+    }
+
+    /**
+     * Tests whether a media file may have A/V metadata, judging by its file extension alone, so files that can't
+     * don't need to be probed. A file whose extension is recognized as something other than audio or video (e.g. a
+     * JPEG or TIFF image) can't, since its extension decides its MIME type whatever the probe reports. A file whose
+     * extension isn't recognized may, since its MIME type then depends on the format name reported by the probe.
+     *
+     * @param aPath The path of a media file
+     * @return True if the media file may have A/V metadata; else, false
+     */
+    public static boolean mayBeAudioOrVideo(final Path aPath) {
+        final String mimeType = EXTENSIONS.get(getExtension(aPath));
+        return mimeType == null || isAudioOrVideo(mimeType);
+    }
+
+    /**
+     * Tests whether a MIME type is an audio or video type.
+     *
+     * @param aMimeType A MIME type
+     * @return True if the MIME type is an audio or video type; else, false
+     */
+    public static boolean isAudioOrVideo(final String aMimeType) {
+        return aMimeType.contains("audio") || aMimeType.contains("video");
+    }
+
+    /**
+     * Gets the lower-case extension of a file.
+     *
+     * @param aPath The path of a file
+     * @return The file's extension, or an empty string if it doesn't have one
+     */
+    static String getExtension(final Path aPath) {
+        final Path fileName = aPath.getFileName();
+        final String name = fileName == null ? "" : fileName.toString();
+        final int dotIndex = name.lastIndexOf('.');
+
+        return dotIndex == -1 ? "" : name.substring(dotIndex + 1).toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,363 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * Limits the number of probes that run at once on each media mount, adapting each mount's limit to how the mount is
+ * coping, so a fast local mount and a slow network or HSM mount can each run at their own best concurrency. The limits
+ * follow AIMD (additive increase, multiplicative decrease), like TCP's congestion window: while probes come back
+ * without errors and no slower than the mount's recent probes usually are, its limit creeps up; when they slow to more
+ * than twice that, or start failing, its limit is halved. What's usual is the 90th percentile of the recent probes'
+ * latencies rather than the fastest of them, so the ordinary spread of a mount's file sizes isn't taken for
+ * congestion.
+ */
+final class MountLimiter {
+
+    /**
+     * Logger for the MountLimiter.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(MountLimiter.class, MessageCodes.BUNDLE);
+
+    /**
+     * The factor by which a mount's limit is cut when it's congested.
+     */
+    private static final double BACKOFF = 0.5;
+
+    /**
+     * How many times the mount's baseline latency a probe can take before the mount is seen as congested.
+     */
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    /**
+     * The percentile of the recent probes' latencies that's a mount's baseline latency.
+     */
+    private static final double BASELINE_PERCENTILE = 0.9;
+
+    /**
+     * The share of recent probes that can fail before the mount is seen as congested.
+     */
+    private static final double ERROR_RATE_LIMIT = 0.25;
+
+    /**
+     * The weight of each probe in the mount's moving error rate.
+     */
+    private static final double ERROR_WEIGHT = 0.1;
+
+    /**
+     * The number of recent successful probes from which a mount's baseline latency is taken, so the baseline follows
+     * the mount as the run goes.
+     */
+    private static final int BASELINE_SAMPLES = 100;
+
+    /**
+     * The number of successful probes a mount needs before its probes' latencies are judged against its baseline.
+     */
+    private static final int MIN_BASELINE_SAMPLES = 10;
+
+    /**
+     * The highest limit a mount can reach.
+     */
+    private final int myMaxLimit;
+
+    /**
+     * The mounts' limits, by mount.
+     */
+    private final Map<String, Limit> myLimits = new ConcurrentHashMap<>();
+
+    /**
+     * The mount whose turn each thread was handed, and hasn't used yet.
+     */
+    private final ThreadLocal<String> myHeldTurns = new ThreadLocal<>();
+
+    /**
+     * Creates a new mount limiter.
+     *
+     * @param aMaxLimit The highest limit a mount can reach
+     */
+    MountLimiter(final int aMaxLimit) {
+        myMaxLimit = aMaxLimit;
+    }
+
+    /**
+     * Waits until another probe can run on a mount. If the thread was handed a turn on the mount, that turn is used
+     * without waiting.
+     *
+     * @param aMount A media mount, as it was given on the command line
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    void acquire(final String aMount) throws InterruptedException {
+        if (aMount.equals(myHeldTurns.get())) {
+            myHeldTurns.remove();
+        } else {
+            myLimits.computeIfAbsent(aMount, mount -> new Limit()).acquire();
+        }
+    }
+
+    /**
+     * Takes a turn on a mount if another probe can run on it now, without waiting.
+     *
+     * @param aMount A media mount, as it was given on the command line
+     * @return True if a turn was taken; else, false
+     */
+    boolean tryAcquire(final String aMount) {
+        return myLimits.computeIfAbsent(aMount, mount -> new Limit()).tryAcquire();
+    }
+
+    /**
+     * Hands a turn taken with {@link #tryAcquire(String)} to the current thread, so the thread's next probe on the
+     * mount uses it rather than waiting.
+     *
+     * @param aMount The media mount the turn is on
+     */
+    void hold(final String aMount) {
+        myHeldTurns.set(aMount);
+    }
+
+    /**
+     * Gives back the turn handed to the current thread, if the thread didn't use it for a probe.
+     */
+    void dropHeldTurn() {
+        final String mount = myHeldTurns.get();
+
+        if (mount != null) {
+            myHeldTurns.remove();
+            cancel(mount);
+        }
+    }
+
+    /**
+     * Records that a probe on a mount has finished, adjusting the mount's limit.
+     *
+     * @param aMount A media mount, as it was given on the command line
+     * @param aLatency The number of nanoseconds the probe took
+     * @param aSucceeded Whether the probe succeeded
+     */
+    void release(final String aMount, final long aLatency, final boolean aSucceeded) {
+        myLimits.get(aMount).release(aLatency, aSucceeded);
+    }
+
+    /**
+     * Gives back a mount's turn that wasn't used for a probe, without adjusting the mount's limit.
+     *
+     * @param aMount A media mount, as it was given on the command line
+     */
+    void cancel(final String aMount) {
+        myLimits.get(aMount).cancel();
+    }
+
+    /**
+     * Gets the number of probes that can currently run at once on a mount.
+     *
+     * @param aMount A media mount, as it was given on the command line
+     * @return The mount's limit, or zero if nothing has been probed on it
+     */
+    int getLimit(final String aMount) {
+        final Limit limit = myLimits.get(aMount);
+        return limit == null ? 0 : limit.get();
+    }
+
+    /**
+     * Gets a summary of each mount's limit, suitable for showing to the user.
+     *
+     * @return A line for each mount on which media files were probed, in mount order
+     */
+    List<String> getSummary() {
+        return new TreeMap<>(myLimits).entrySet().stream().map(entry -> entry.getValue().toString(entry.getKey()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * The concurrency limit of one mount.
+     */
+    private final class Limit {
+
+        /**
+         * The number of probes that can run at once; the fraction is how far it is towards the next probe.
+         */
+        private double myLimit = 1;
+
+        /**
+         * The number of probes running.
+         */
+        private int myRunningCount;
+
+        /**
+         * Whether the limit is still growing by a whole probe for each probe that finishes, as it does until the
+         * mount is first congested, so a fast mount reaches its best concurrency quickly.
+         */
+        private boolean myLimitIsStarting = true;
+
+        /**
+         * The latencies of the recent successful probes, in nanoseconds, oldest overwritten first.
+         */
+        private final long[] myRecentLatencies = new long[BASELINE_SAMPLES];
+
+        /**
+         * The number of successful probes that have finished.
+         */
+        private long mySuccessCount;
+
+        /**
+         * The moving share of probes that failed.
+         */
+        private double myErrorRate;
+
+        /**
+         * When the limit was last cut, in nanoseconds.
+         */
+        private long myCutTime = System.nanoTime();
+
+        /**
+         * The number of probes that have finished.
+         */
+        private long myProbeCount;
+
+        /**
+         * The number of probes that failed.
+         */
+        private long myFailureCount;
+
+        /**
+         * The total latency of the probes that have finished, in nanoseconds.
+         */
+        private long myTotalLatency;
+
+        /**
+         * The lowest the limit has been cut to.
+         */
+        private int myLowestLimit = Integer.MAX_VALUE;
+
+        /**
+         * The highest the limit has grown to.
+         */
+        private int myHighestLimit;
+
+        /**
+         * Waits until another probe can run on the mount.
+         *
+         * @throws InterruptedException If the thread is interrupted while waiting
+         */
+        private synchronized void acquire() throws InterruptedException {
+            while (myRunningCount >= get()) {
+                wait();
+            }
+
+            myRunningCount += 1;
+        }
+
+        /**
+         * Takes a turn on the mount if another probe can run on it now.
+         *
+         * @return True if a turn was taken; else, false
+         */
+        private synchronized boolean tryAcquire() {
+            if (myRunningCount >= get()) {
+                return false;
+            }
+
+            myRunningCount += 1;
+            return true;
+        }
+
+        /**
+         * Records that a probe on the mount has finished, adjusting the limit.
+         *
+         * @param aLatency The number of nanoseconds the probe took
+         * @param aSucceeded Whether the probe succeeded
+         */
+        private synchronized void release(final long aLatency, final boolean aSucceeded) {
+            final boolean limitWasReached = myRunningCount >= get();
+            final boolean isCongested;
+
+            myRunningCount -= 1;
+            myProbeCount += 1;
+            myTotalLatency += aLatency;
+            myErrorRate += ERROR_WEIGHT * ((aSucceeded ? 0 : 1) - myErrorRate);
+
+            if (aSucceeded) {
+                final long baseline = getBaseline();
+
+                isCongested = baseline > 0 && aLatency > baseline * LATENCY_TOLERANCE;
+                myRecentLatencies[(int) (mySuccessCount++ % BASELINE_SAMPLES)] = aLatency;
+            } else {
+                myFailureCount += 1;
+                isCongested = myErrorRate > ERROR_RATE_LIMIT;
+            }
+
+            if (isCongested) {
+                // Probes that were started before the last cut don't count against the cut limit
+                if (System.nanoTime() - myCutTime > aLatency) {
+                    myLimit = Math.max(1, myLimit * BACKOFF);
+                    myLimitIsStarting = false;
+                    myCutTime = System.nanoTime();
+                }
+            } else if (limitWasReached) {
+                // The limit only grows when it's actually holding probes back
+                myLimit = Math.min(myMaxLimit, myLimit + (myLimitIsStarting ? 1 : 1 / myLimit));
+            }
+
+            myLowestLimit = Math.min(myLowestLimit, get());
+            myHighestLimit = Math.max(myHighestLimit, get());
+            notifyAll();
+        }
+
+        /**
+         * Gives back a turn that wasn't used for a probe.
+         */
+        private synchronized void cancel() {
+            myRunningCount -= 1;
+            notifyAll();
+        }
+
+        /**
+         * Gets the number of probes that can run at once.
+         *
+         * @return The whole part of the limit
+         */
+        private synchronized int get() {
+            return (int) myLimit;
+        }
+
+        /**
+         * Gets a summary of the limit.
+         *
+         * @param aMount The mount the limit is for
+         * @return A description of the limit, suitable for showing to the user
+         */
+        private synchronized String toString(final String aMount) {
+            final long meanLatency = myProbeCount == 0 ? 0 : myTotalLatency / myProbeCount;
+
+            return LOGGER.getMessage(MessageCodes.MG_149, aMount, get(), myLowestLimit, myHighestLimit, myProbeCount,
+                    myFailureCount, TimeUnit.NANOSECONDS.toMillis(meanLatency));
+        }
+
+        /**
+         * Gets the mount's baseline latency, the 90th percentile of its recent successful probes' latencies.
+         *
+         * @return The baseline latency in nanoseconds, or zero if too few probes have succeeded to know it
+         */
+        private long getBaseline() {
+            final int count = (int) Math.min(mySuccessCount, BASELINE_SAMPLES);
+            final long[] latencies;
+
+            if (count < MIN_BASELINE_SAMPLES) {
+                return 0;
+            }
+
+            latencies = Arrays.copyOf(myRecentLatencies, count);
+            Arrays.sort(latencies);
+
+            return latencies[(int) Math.ceil(count * BASELINE_PERCENTILE) - 1];
+        }
+    }
+}
@@ -0,0 +1,430 @@
+
+package edu.ucla.library.services.metadata;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * A persistent cache of probe results, stored in a local file so that it can be reused across runs. Entries are
+ * keyed by a media file's absolute path and are only used while the file's size and modification time (and,
+ * optionally, a fingerprint of its content) are unchanged, and by a run that probes files the same way (lean or
+ * full) as the run that cached them. Entries for media files that no longer exist are dropped when the cache is saved.
+ */
+public final class ProbeCache {
+
+    /**
+     * Logger for the ProbeCache.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProbeCache.class, MessageCodes.BUNDLE);
+
+    /**
+     * The first line of a cache store file, used to recognize the format of the file.
+     */
+    private static final String STORE_HEADER = "# metagetter probe cache v2";
+
+    /**
+     * The first line of a cache store file written by an older release, whose entries don't record how their media
+     * files were probed.
+     */
+    private static final String OLD_STORE_HEADER = "# metagetter probe cache v1";
+
+    /**
+     * The separator between the fields of a cache entry.
+     */
+    private static final char SEPARATOR = '\t';
+
+    /**
+     * The number of fields in a cache entry.
+     */
+    private static final int FIELD_COUNT = 9;
+
+    /**
+     * The probe mode recorded for an entry from a lean probe.
+     */
+    private static final String LEAN_PROBE = "lean";
+
+    /**
+     * The probe mode recorded for an entry from a full probe.
+     */
+    private static final String FULL_PROBE = "full";
+
+    /**
+     * The placeholder written for an entry that doesn't have a value for an optional field.
+     */
+    private static final String NO_VALUE = "-";
+
+    /**
+     * The number of bytes read from each end of a media file when computing its content fingerprint.
+     */
+    private static final int FINGERPRINT_WINDOW = 1024 * 1024;
+
+    /**
+     * The algorithm used to compute content fingerprints.
+     */
+    private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+    /**
+     * The file in which the cache is stored.
+     */
+    private final Path myStoreFile;
+
+    /**
+     * Whether entries are also checked against a fingerprint of the media file's content.
+     */
+    private final boolean myFileContentIsHashed;
+
+    /**
+     * How media files are probed in this run, which an entry has to have been probed with to be used.
+     */
+    private final String myProbeMode;
+
+    /**
+     * The cached entries, keyed by the absolute path of the media file.
+     */
+    private final Map<String, Entry> myEntries = new ConcurrentHashMap<>();
+
+    /**
+     * Whether the cache has changed since it was loaded.
+     */
+    private final AtomicBoolean myCacheIsModified = new AtomicBoolean();
+
+    /**
+     * Creates a new probe cache, loading any entries already stored in the supplied file.
+     *
+     * @param aStoreFile The file in which the cache is stored
+     * @param aContentHash Whether entries should also be checked against a fingerprint of the file's content
+     * @param aLeanProbe Whether media files are probed with a lean probe, rather than a full one
+     * @throws IOException If the store file exists but can't be read
+     */
+    public ProbeCache(final Path aStoreFile, final boolean aContentHash, final boolean aLeanProbe)
+            throws IOException {
+        myStoreFile = aStoreFile;
+        myFileContentIsHashed = aContentHash;
+        myProbeMode = aLeanProbe ? LEAN_PROBE : FULL_PROBE;
+
+        if (Files.exists(aStoreFile)) {
+            load();
+        }
+    }
+
+    /**
+     * Gets the media info for the supplied media file, using the cached value if the file hasn't changed since it
+     * was cached and otherwise probing the file with the supplied loader and caching the result.
+     *
+     * @param aPath The path of a media file
+     * @param aLoader The loader that probes the media file on a cache miss
+     * @return The media info for the supplied media file
+     * @throws IOException If the media file can't be read or probed
+     */
+    public MediaInfo get(final Path aPath, final Loader aLoader) throws IOException {
+        final String key = aPath.toAbsolutePath().normalize().toString();
+        final BasicFileAttributes attributes = Files.readAttributes(aPath, BasicFileAttributes.class);
+        final long size = attributes.size();
+        final long modified = attributes.lastModifiedTime().toMillis();
+        final String fingerprint = myFileContentIsHashed ? fingerprint(aPath, size) : NO_VALUE;
+        final Entry cached = myEntries.get(key);
+        final MediaInfo mediaInfo;
+
+        if (cached != null && cached.matches(size, modified, fingerprint, myProbeMode)) {
+            return cached.myMediaInfo;
+        }
+
+        mediaInfo = aLoader.load(aPath);
+
+        // Keys with our separators in them can't be written to the store file, so they're just not cached
+        if (key.indexOf(SEPARATOR) == -1 && key.indexOf('\n') == -1 && key.indexOf('\r') == -1) {
+            myEntries.put(key, new Entry(size, modified, fingerprint, myProbeMode, mediaInfo));
+            myCacheIsModified.set(true);
+        }
+
+        return mediaInfo;
+    }
+
+    /**
+     * Whether the cached media info for the supplied media file can be used without reading the file, because the
+     * file hasn't changed since it was cached. When content fingerprints are checked, the file has to be read, so
+     * this is always false.
+     *
+     * @param aPath The path of a media file
+     * @return True if the media file's cached media info is current; else, false
+     */
+    public boolean isCurrent(final Path aPath) {
+        final Entry cached = myEntries.get(aPath.toAbsolutePath().normalize().toString());
+
+        if (cached == null || myFileContentIsHashed) {
+            return false;
+        }
+
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(aPath, BasicFileAttributes.class);
+            final long modified = attributes.lastModifiedTime().toMillis();
+
+            return cached.matches(attributes.size(), modified, NO_VALUE, myProbeMode);
+        } catch (final IOException details) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the number of entries in the cache.
+     *
+     * @return The number of entries in the cache
+     */
+    public int size() {
+        return myEntries.size();
+    }
+
+    /**
+     * Writes the cache to its store file if it has changed since it was loaded, leaving out the entries for media
+     * files that no longer exist. The store file is replaced atomically, so an interrupted save leaves the previous
+     * version in place.
+     *
+     * @throws IOException If the store file can't be written
+     */
+    public void save() throws IOException {
+        if (!myCacheIsModified.getAndSet(false)) {
+            return;
+        }
+
+        myEntries.keySet().removeIf(key -> !Files.exists(Paths.get(key)));
+
+        final Path parent = myStoreFile.toAbsolutePath().getParent();
+        final Path tmpFile;
+
+        Files.createDirectories(parent);
+        tmpFile = Files.createTempFile(parent, myStoreFile.getFileName().toString(), ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(tmpFile, UTF_8)) {
+            writer.write(STORE_HEADER);
+            writer.newLine();
+
+            for (final Map.Entry<String, Entry> entry : myEntries.entrySet()) {
+                writer.write(entry.getValue().toLine(entry.getKey()));
+                writer.newLine();
+            }
+        } catch (final IOException details) {
+            Files.deleteIfExists(tmpFile);
+            myCacheIsModified.set(true);
+            throw details;
+        }
+
+        Files.move(tmpFile, myStoreFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the entries in the store file. Lines that can't be parsed are skipped.
+     *
+     * @throws IOException If the store file can't be read
+     */
+    private void load() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(myStoreFile, UTF_8)) {
+            final String header = reader.readLine();
+            String line;
+
+            if (header == null || OLD_STORE_HEADER.equals(header)) {
+                return; // An older release's entries would all be misses, since they don't record their probe mode
+            }
+
+            if (!STORE_HEADER.equals(header)) {
+                LOGGER.warn(MessageCodes.MG_111, myStoreFile);
+                return;
+            }
+
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+
+                if (fields.length != FIELD_COUNT) {
+                    continue;
+                }
+
+                try {
+                    final MediaInfo mediaInfo = new MediaInfo(NO_VALUE.equals(fields[5]) ? null : fields[5],
+                            Double.parseDouble(fields[6]), Integer.parseInt(fields[7]), Integer.parseInt(fields[8]));
+
+                    myEntries.put(fields[0], new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                            fields[3], fields[4], mediaInfo));
+                } catch (final NumberFormatException details) {
+                    LOGGER.debug(details.getMessage(), details);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes a fingerprint of a media file's content from its size and the bytes at the start and end of the
+     * file. Reading the whole of a multi-gigabyte master would cost more than probing it, so only a window at each
+     * end is hashed.
+     *
+     * @param aPath The path of a media file
+     * @param aSize The size of the media file
+     * @return A hex-encoded fingerprint of the file's content
+     * @throws IOException If the media file can't be read
+     */
+    private static String fingerprint(final Path aPath, final long aSize) throws IOException {
+        final MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+        } catch (final NoSuchAlgorithmException details) {
+            throw new IllegalStateException(details); // Every Java platform is required to support SHA-256
+        }
+
+        try (FileChannel channel = FileChannel.open(aPath, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(FINGERPRINT_WINDOW);
+
+            digest.update(Long.toString(aSize).getBytes(UTF_8));
+            update(digest, channel, buffer, 0);
+
+            if (aSize > FINGERPRINT_WINDOW) {
+                update(digest, channel, buffer, Math.max(FINGERPRINT_WINDOW, aSize - FINGERPRINT_WINDOW));
+            }
+        }
+
+        final StringBuilder hex = new StringBuilder();
+
+        for (final byte value : digest.digest()) {
+            hex.append(String.format("%02x", value));
+        }
+
+        return hex.toString();
+    }
+
+    /**
+     * Updates a digest with a window of a file's content.
+     *
+     * @param aDigest A digest
+     * @param aChannel A channel for the file being read
+     * @param aBuffer A buffer the size of the window
+     * @param aPosition The position in the file at which the window starts
+     * @throws IOException If the file can't be read
+     */
+    private static void update(final MessageDigest aDigest, final FileChannel aChannel, final ByteBuffer aBuffer,
+            final long aPosition) throws IOException {
+        long position = aPosition;
+        int count;
+
+        aBuffer.clear();
+
+        while (aBuffer.hasRemaining() && (count = aChannel.read(aBuffer, position)) != -1) {
+            position += count;
+        }
+
+        aBuffer.flip();
+        aDigest.update(aBuffer);
+    }
+
+    /**
+     * A loader that probes a media file when its media info isn't in the cache.
+     */
+    @FunctionalInterface
+    public interface Loader {
+
+        /**
+         * Probes the supplied media file.
+         *
+         * @param aPath The path of a media file
+         * @return The media info for the supplied media file
+         * @throws IOException If the media file can't be read or probed
+         */
+        MediaInfo load(Path aPath) throws IOException;
+    }
+
+    /**
+     * A cached probe result and the file attributes it was recorded against.
+     */
+    private static final class Entry {
+
+        /**
+         * The size of the media file when it was probed.
+         */
+        private final long mySize;
+
+        /**
+         * The modification time of the media file, in milliseconds, when it was probed.
+         */
+        private final long myModified;
+
+        /**
+         * The fingerprint of the media file's content when it was probed, or a placeholder if it wasn't computed.
+         */
+        private final String myFingerprint;
+
+        /**
+         * How the media file was probed: lean or full.
+         */
+        private final String myProbeMode;
+
+        /**
+         * The media info from probing the file.
+         */
+        private final MediaInfo myMediaInfo;
+
+        /**
+         * Creates a new cache entry.
+         *
+         * @param aSize The size of the media file when it was probed
+         * @param aModified The modification time of the media file when it was probed
+         * @param aFingerprint The fingerprint of the media file's content when it was probed
+         * @param aProbeMode How the media file was probed
+         * @param aMediaInfo The media info from probing the file
+         */
+        private Entry(final long aSize, final long aModified, final String aFingerprint, final String aProbeMode,
+                final MediaInfo aMediaInfo) {
+            mySize = aSize;
+            myModified = aModified;
+            myFingerprint = aFingerprint;
+            myProbeMode = aProbeMode;
+            myMediaInfo = aMediaInfo;
+        }
+
+        /**
+         * Whether this entry was recorded against a file with the supplied attributes, by a probe of the supplied mode.
+         *
+         * @param aSize The current size of the media file
+         * @param aModified The current modification time of the media file
+         * @param aFingerprint The current fingerprint of the media file, or a placeholder if it isn't being checked
+         * @param aProbeMode How media files are being probed
+         * @return True if the entry can be used for the file; else, false
+         */
+        private boolean matches(final long aSize, final long aModified, final String aFingerprint,
+                final String aProbeMode) {
+            return mySize == aSize && myModified == aModified && myProbeMode.equals(aProbeMode) &&
+                    (NO_VALUE.equals(aFingerprint) || aFingerprint.equals(myFingerprint));
+        }
+
+        /**
+         * Serializes this entry as a line of the store file.
+         *
+         * @param aKey The key under which this entry is cached
+         * @return A line of the store file
+         */
+        private String toLine(final String aKey) {
+            final String formatName = myMediaInfo.getFormatName();
+
+            return new StringBuilder(aKey).append(SEPARATOR).append(mySize).append(SEPARATOR).append(myModified)
+                    .append(SEPARATOR).append(myFingerprint).append(SEPARATOR).append(myProbeMode).append(SEPARATOR)
+                    .append(formatName == null || formatName.isEmpty() ? NO_VALUE : formatName).append(SEPARATOR)
+                    .append(myMediaInfo.getDuration()).append(SEPARATOR).append(myMediaInfo.getWidth())
+                    .append(SEPARATOR).append(myMediaInfo.getHeight()).toString();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * A deadline for a probe process. If the deadline passes before it's cancelled, the process (and any processes it
+ * started) is killed, so a probe that's hung on a corrupt file or an unresponsive mount doesn't hold up the run.
+ */
+final class ProbeDeadline {
+
+    /**
+     * A deadline that never passes, used when probes aren't timed.
+     */
+    private static final ProbeDeadline NONE = new ProbeDeadline();
+
+    /**
+     * A future that's completed when the deadline is cancelled, or completed exceptionally when it passes.
+     */
+    private final CompletableFuture<Void> myFuture = new CompletableFuture<>();
+
+    /**
+     * Creates a new deadline that never passes.
+     */
+    private ProbeDeadline() {
+        // Nothing to watch
+    }
+
+    /**
+     * Creates a new deadline for a process.
+     *
+     * @param aProcess A probe process
+     * @param aTimeout The number of milliseconds the process may run before it's killed
+     */
+    private ProbeDeadline(final Process aProcess, final long aTimeout) {
+        myFuture.orTimeout(aTimeout, TimeUnit.MILLISECONDS).whenComplete((result, error) -> {
+            if (error instanceof TimeoutException) {
+                final List<ProcessHandle> descendants = aProcess.descendants().collect(Collectors.toList());
+
+                // The process is killed first so it can't react to its descendants' deaths (e.g. by answering)
+                aProcess.destroyForcibly();
+                descendants.forEach(ProcessHandle::destroyForcibly);
+            }
+        });
+    }
+
+    /**
+     * Starts a deadline for a process.
+     *
+     * @param aProcess A probe process
+     * @param aTimeout The number of milliseconds the process may run before it's killed; 0 means it's never killed
+     * @return The process's deadline
+     */
+    static ProbeDeadline start(final Process aProcess, final long aTimeout) {
+        return aTimeout > 0 ? new ProbeDeadline(aProcess, aTimeout) : NONE;
+    }
+
+    /**
+     * Cancels the deadline, if it hasn't already passed.
+     */
+    void cancel() {
+        myFuture.complete(null);
+    }
+
+    /**
+     * Whether the deadline passed and the process was killed.
+     *
+     * @return True if the process was killed; else, false
+     */
+    boolean hasPassed() {
+        return myFuture.isCompletedExceptionally();
+    }
+}
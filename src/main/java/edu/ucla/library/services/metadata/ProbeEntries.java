@@ -0,0 +1,98 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.io.IOException;
+
+/**
+ * The entries of ffprobe's compact (<code>key=value</code>) output, collected line by line into media info. When a
+ * file has more than one stream with dimensions, the last stream's width and height are used.
+ */
+final class ProbeEntries {
+
+    /**
+     * The value ffprobe shows for an entry that doesn't apply to a file.
+     */
+    private static final String NOT_APPLICABLE = "N/A";
+
+    /**
+     * The container format name.
+     */
+    private String myFormatName;
+
+    /**
+     * The duration in seconds.
+     */
+    private double myDuration;
+
+    /**
+     * The width of the last stream with dimensions.
+     */
+    private int myWidth;
+
+    /**
+     * The height of the last stream with dimensions.
+     */
+    private int myHeight;
+
+    /**
+     * Adds a line of ffprobe's output. Lines that aren't entries (e.g. error messages, which are mixed in with the
+     * entries) and entries we didn't ask for are ignored.
+     *
+     * @param aLine A line of ffprobe's output
+     * @throws IOException If an entry's value isn't a number when it should be
+     */
+    void add(final String aLine) throws IOException {
+        final int separatorIndex = aLine.indexOf('=');
+
+        if (separatorIndex == -1) {
+            return;
+        }
+
+        final String value = aLine.substring(separatorIndex + 1).trim();
+
+        if (value.isEmpty() || NOT_APPLICABLE.equals(value)) {
+            return;
+        }
+
+        try {
+            switch (aLine.substring(0, separatorIndex)) {
+                case "format_name":
+                    myFormatName = value;
+                    break;
+                case "duration":
+                    myDuration = Double.parseDouble(value);
+                    break;
+                case "width":
+                    myWidth = nonZero(Integer.parseInt(value), myWidth);
+                    break;
+                case "height":
+                    myHeight = nonZero(Integer.parseInt(value), myHeight);
+                    break;
+                default:
+                    // Do nothing for entries we didn't ask for
+            }
+        } catch (final NumberFormatException details) {
+            throw new IOException(details.getMessage(), details);
+        }
+    }
+
+    /**
+     * Gets the media info from the entries added so far.
+     *
+     * @return The media info
+     */
+    MediaInfo toMediaInfo() {
+        return new MediaInfo(myFormatName, myDuration, myWidth, myHeight);
+    }
+
+    /**
+     * Returns a new stream dimension unless it's zero, in which case the previous one is kept.
+     *
+     * @param aDimension A stream dimension
+     * @param aPrevious The previous stream dimension
+     * @return The stream dimension to use
+     */
+    private static int nonZero(final int aDimension, final int aPrevious) {
+        return aDimension != 0 ? aDimension : aPrevious;
+    }
+}
@@ -0,0 +1,248 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import info.freelibrary.util.I18nRuntimeException;
+
+/**
+ * A run-wide, in-memory memo of probe results, so a media file that's listed in several rows or CSV files is only
+ * probed once per run. Rows that ask for a media file that's already being probed wait for that probe rather than
+ * starting another. A result is only used while the media file's size and last modified time are unchanged, so a
+ * media file that's replaced during a long-running watch or serve is probed again. The memo holds a bounded number of
+ * results, evicting the least recently used.
+ */
+public final class ProbeMemo {
+
+    /**
+     * The memoized probe results, in least to most recently used order.
+     */
+    private final Map<Path, Probe> myEntries;
+
+    /**
+     * The number of lookups answered from the memo.
+     */
+    private final AtomicLong myHitCount = new AtomicLong();
+
+    /**
+     * The number of lookups that required a probe.
+     */
+    private final AtomicLong myMissCount = new AtomicLong();
+
+    /**
+     * The number of results evicted to keep the memo within its capacity.
+     */
+    private final AtomicLong myEvictionCount = new AtomicLong();
+
+    /**
+     * Creates a new probe memo.
+     *
+     * @param aCapacity The maximum number of probe results to hold
+     */
+    public ProbeMemo(final int aCapacity) {
+        myEntries = new LinkedHashMap<>(16, 0.75f, true) {
+
+            /**
+             * The <code>serialVersionUID</code> for the memo's map.
+             */
+            private static final long serialVersionUID = -4380517362204158841L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Path, Probe> aEldest) {
+                final boolean isFull = size() > aCapacity;
+
+                if (isFull) {
+                    myEvictionCount.incrementAndGet();
+                }
+
+                return isFull;
+            }
+        };
+    }
+
+    /**
+     * Gets the media info for the supplied media file, probing it with the supplied loader only if it hasn't already
+     * been probed (or isn't already being probed) during this run since it last changed. Failed probes aren't
+     * memoized.
+     *
+     * @param aPath The path of a media file
+     * @param aLoader The loader that probes the media file if it hasn't been probed
+     * @return The media info for the supplied media file
+     * @throws IOException If the media file can't be read or probed
+     */
+    public MediaInfo get(final Path aPath, final ProbeCache.Loader aLoader) throws IOException {
+        final Path key = aPath.toAbsolutePath().normalize();
+        final BasicFileAttributes attributes = Files.readAttributes(aPath, BasicFileAttributes.class);
+        final long size = attributes.size();
+        final long modified = attributes.lastModifiedTime().toMillis();
+        final Probe memoized;
+        final Probe probe;
+
+        synchronized (myEntries) {
+            final Probe current = myEntries.get(key);
+
+            if (current != null && current.matches(size, modified)) {
+                memoized = current;
+                probe = null;
+            } else {
+                memoized = null;
+                probe = new Probe(size, modified);
+                myEntries.put(key, probe); // Replaces the result for an earlier version of the media file
+            }
+        }
+
+        if (memoized != null) {
+            myHitCount.incrementAndGet();
+            return await(memoized.myResult);
+        }
+
+        myMissCount.incrementAndGet();
+
+        try {
+            final MediaInfo mediaInfo = aLoader.load(aPath);
+
+            probe.myResult.complete(mediaInfo);
+            return mediaInfo;
+        } catch (final Throwable details) {
+            // Rows waiting on the probe would wait forever if it weren't finished, whatever went wrong
+            synchronized (myEntries) {
+                myEntries.remove(key, probe);
+            }
+
+            probe.myResult.completeExceptionally(details);
+            throw details;
+        }
+    }
+
+    /**
+     * Whether the media info for the supplied media file, as it is now, has been, or is being, probed during this
+     * run. Unlike {@link #get}, this doesn't count as a lookup.
+     *
+     * @param aPath The path of a media file
+     * @return True if the media file is in the memo and hasn't changed since it was probed; else, false
+     */
+    public boolean contains(final Path aPath) {
+        final Probe memoized;
+
+        synchronized (myEntries) {
+            memoized = myEntries.get(aPath.toAbsolutePath().normalize());
+        }
+
+        if (memoized == null) {
+            return false;
+        }
+
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(aPath, BasicFileAttributes.class);
+            return memoized.matches(attributes.size(), attributes.lastModifiedTime().toMillis());
+        } catch (final IOException details) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the number of lookups answered from the memo.
+     *
+     * @return The number of memo hits
+     */
+    public long getHitCount() {
+        return myHitCount.get();
+    }
+
+    /**
+     * Gets the number of lookups that required a probe.
+     *
+     * @return The number of memo misses
+     */
+    public long getMissCount() {
+        return myMissCount.get();
+    }
+
+    /**
+     * Gets the number of results evicted to keep the memo within its capacity.
+     *
+     * @return The number of evictions
+     */
+    public long getEvictionCount() {
+        return myEvictionCount.get();
+    }
+
+    /**
+     * Waits for a memoized probe to finish.
+     *
+     * @param aProbe A memoized probe
+     * @return The media info from the probe
+     * @throws IOException If the probe failed
+     */
+    private static MediaInfo await(final CompletableFuture<MediaInfo> aProbe) throws IOException {
+        try {
+            return aProbe.get();
+        } catch (final InterruptedException details) {
+            Thread.currentThread().interrupt();
+            throw new I18nRuntimeException(details, MessageCodes.BUNDLE, MessageCodes.MG_000, details.getMessage());
+        } catch (final ExecutionException details) {
+            final Throwable cause = details.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new I18nRuntimeException(cause, MessageCodes.BUNDLE, MessageCodes.MG_000, cause.getMessage());
+        }
+    }
+
+    /**
+     * A memoized probe of a version of a media file.
+     */
+    private static final class Probe {
+
+        /**
+         * The result of the probe, which is finished once the media info is known.
+         */
+        private final CompletableFuture<MediaInfo> myResult = new CompletableFuture<>();
+
+        /**
+         * The size of the media file when it was probed.
+         */
+        private final long mySize;
+
+        /**
+         * The last modified time of the media file, in milliseconds, when it was probed.
+         */
+        private final long myModified;
+
+        /**
+         * Creates a new memoized probe.
+         *
+         * @param aSize The size of the media file
+         * @param aModified The last modified time of the media file, in milliseconds
+         */
+        private Probe(final long aSize, final long aModified) {
+            mySize = aSize;
+            myModified = aModified;
+        }
+
+        /**
+         * Whether the probe is of the supplied version of the media file.
+         *
+         * @param aSize The size of the media file
+         * @param aModified The last modified time of the media file, in milliseconds
+         * @return True if the probe is of that version; else, false
+         */
+        private boolean matches(final long aSize, final long aModified) {
+            return mySize == aSize && myModified == aModified;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import net.bramp.ffmpeg.ProcessFunction;
+import net.bramp.ffmpeg.RunProcessFunction;
+
+/**
+ * Starts ffprobe processes, limiting how many run at once and how long each may run. A process counts against the
+ * limit until it has actually exited, so processes that were killed but are stuck in an uninterruptible read on a
+ * flaky mount can't pile up.
+ */
+final class ProbeProcessFunction implements ProcessFunction {
+
+    /**
+     * The function that starts the processes.
+     */
+    private final ProcessFunction myProcessFunction = new RunProcessFunction();
+
+    /**
+     * The permits to run a process, or null if the number of processes isn't limited.
+     */
+    private final Semaphore myPermits;
+
+    /**
+     * The number of milliseconds a process may run before it's killed; 0 means it's never killed.
+     */
+    private final long myTimeout;
+
+    /**
+     * The deadline of the last process started by each thread.
+     */
+    private final ThreadLocal<ProbeDeadline> myDeadlines = new ThreadLocal<>();
+
+    /**
+     * Creates a new function that starts ffprobe processes.
+     *
+     * @param aTimeout The number of milliseconds a process may run before it's killed; 0 means it's never killed
+     * @param aMaxProcesses The most processes that may run at once; 0 means there's no limit
+     */
+    ProbeProcessFunction(final long aTimeout, final int aMaxProcesses) {
+        myPermits = aMaxProcesses > 0 ? new Semaphore(aMaxProcesses) : null;
+        myTimeout = aTimeout;
+    }
+
+    @Override
+    public Process run(final List<String> aArgs) throws IOException {
+        final Process process;
+
+        myDeadlines.remove();
+
+        if (myPermits != null) {
+            try {
+                myPermits.acquire();
+            } catch (final InterruptedException details) {
+                Thread.currentThread().interrupt();
+                throw (IOException) new InterruptedIOException(details.getMessage()).initCause(details);
+            }
+        }
+
+        try {
+            process = myProcessFunction.run(aArgs);
+        } catch (final IOException | RuntimeException details) {
+            release();
+            throw details;
+        }
+
+        final ProbeDeadline deadline = ProbeDeadline.start(process, myTimeout);
+
+        myDeadlines.set(deadline);
+        process.onExit().thenRun(() -> {
+            deadline.cancel();
+            release();
+        });
+
+        return process;
+    }
+
+    /**
+     * Whether the last process started by the current thread was killed because it ran past its deadline.
+     *
+     * @return True if the current thread's last process timed out; else, false
+     */
+    boolean hasTimedOut() {
+        final ProbeDeadline deadline = myDeadlines.get();
+        return deadline != null && deadline.hasPassed();
+    }
+
+    /**
+     * Gets the number of milliseconds a process may run before it's killed.
+     *
+     * @return The probe timeout in milliseconds; 0 means processes are never killed
+     */
+    long getTimeout() {
+        return myTimeout;
+    }
+
+    /**
+     * Returns a permit to run a process, if the number of processes is limited.
+     */
+    private void release() {
+        if (myPermits != null) {
+            myPermits.release();
+        }
+    }
+}
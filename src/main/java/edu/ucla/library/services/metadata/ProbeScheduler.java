@@ -0,0 +1,344 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * Decides the order in which the rows waiting to be enriched are started, so rows aren't always probed in the order
+ * they're read from the CSV file. Rows are queued as they're read and only a fixed number are run at once; when one
+ * finishes, the queued row that comes first in the probe order is started. The rows' results are still returned as
+ * futures, so the caller can write them in their original order.
+ * <p>
+ * With a mount limiter, a row that will probe a file is only started once its mount has a turn free, which is then
+ * handed to the thread the row runs on. Rows waiting for a busy mount stay queued rather than holding a thread, so the
+ * rows for other mounts can go ahead of them.
+ * </p>
+ */
+final class ProbeScheduler {
+
+    /**
+     * The executor on which the rows are run.
+     */
+    private final Executor myExecutor;
+
+    /**
+     * The number of rows that are run at once.
+     */
+    private final int myMaxRunning;
+
+    /**
+     * The order in which the queued rows are started.
+     */
+    private final ProbeOrder myOrder;
+
+    /**
+     * The probe order of the queued rows.
+     */
+    private static final Comparator<Row<?>> QUEUE_ORDER = Comparator.<Row<?>, String>comparing(row -> row.myGroup)
+            .thenComparingLong(row -> row.myRank).thenComparingLong(row -> row.mySequence);
+
+    /**
+     * The limiter that decides when each mount has a turn free, or null if rows don't wait for their mounts.
+     */
+    private final MountLimiter myMountLimiter;
+
+    /**
+     * The rows that are waiting to be started, in probe order, by the mount they'll probe a file on; the rows that
+     * won't wait for a mount are under null.
+     */
+    private final Map<String, Queue<Row<?>>> myQueues = new HashMap<>();
+
+    /**
+     * The number of rows that are running.
+     */
+    private int myRunningCount;
+
+    /**
+     * The number of rows that have been queued, which breaks ties in the probe order.
+     */
+    private long mySequence;
+
+    /**
+     * Creates a new probe scheduler.
+     *
+     * @param aExecutor The executor on which the rows are run
+     * @param aMaxRunning The number of rows that are run at once
+     * @param aOrder The order in which the queued rows are started
+     */
+    ProbeScheduler(final Executor aExecutor, final int aMaxRunning, final ProbeOrder aOrder) {
+        this(aExecutor, aMaxRunning, aOrder, null);
+    }
+
+    /**
+     * Creates a new probe scheduler that only starts a row once its mount has a turn free.
+     *
+     * @param aExecutor The executor on which the rows are run
+     * @param aMaxRunning The number of rows that are run at once
+     * @param aOrder The order in which the queued rows are started
+     * @param aMountLimiter The limiter that decides when each mount has a turn free, or null if rows don't wait
+     */
+    ProbeScheduler(final Executor aExecutor, final int aMaxRunning, final ProbeOrder aOrder,
+            final MountLimiter aMountLimiter) {
+        myExecutor = aExecutor;
+        myMaxRunning = aMaxRunning;
+        myOrder = aOrder;
+        myMountLimiter = aMountLimiter;
+    }
+
+    /**
+     * Queues a row to be enriched, and starts it if fewer than the maximum number of rows are running.
+     *
+     * @param <T> The type of the row's result
+     * @param aTask The task that enriches the row
+     * @param aMediaFile The media file the row will probe, or null if it won't probe one
+     * @return The row's result
+     * @throws RejectedExecutionException If the executor has been shut down
+     */
+    <T> Future<T> submit(final Callable<T> aTask, final Path aMediaFile) {
+        return submit(aTask, aMediaFile, null);
+    }
+
+    /**
+     * Queues a row to be enriched, and starts it if fewer than the maximum number of rows are running and, if it
+     * probes a file on a mount, the mount has a turn free.
+     *
+     * @param <T> The type of the row's result
+     * @param aTask The task that enriches the row
+     * @param aMediaFile The media file the row will probe, or null if it won't probe one
+     * @param aMount The mount the media file is on, or null if the row doesn't wait for a turn on it
+     * @return The row's result
+     * @throws RejectedExecutionException If the executor has been shut down
+     */
+    <T> Future<T> submit(final Callable<T> aTask, final Path aMediaFile, final String aMount) {
+        final Row<T> row;
+
+        synchronized (this) {
+            row = new Row<>(aTask, mySequence++, myMountLimiter == null ? null : aMount);
+        }
+
+        myOrder.rank(row, aMediaFile);
+
+        synchronized (this) {
+            myQueues.computeIfAbsent(row.myMount, mount -> new PriorityQueue<>(QUEUE_ORDER)).add(row);
+        }
+
+        startQueuedRows();
+        return row;
+    }
+
+    /**
+     * Starts queued rows, in probe order, until the maximum number of rows are running or there are none left.
+     */
+    private void startQueuedRows() {
+        while (true) {
+            final Row<?> row;
+
+            synchronized (this) {
+                if (myRunningCount >= myMaxRunning || (row = pollStartableRow()) == null) {
+                    return;
+                }
+
+                myRunningCount += 1;
+            }
+
+            try {
+                myExecutor.execute(row);
+            } catch (final RejectedExecutionException details) {
+                synchronized (this) {
+                    myRunningCount -= 1;
+                }
+
+                if (row.myMount != null) {
+                    myMountLimiter.cancel(row.myMount);
+                }
+
+                row.cancel(false);
+                throw details;
+            }
+        }
+    }
+
+    /**
+     * Takes the first queued row, in probe order, that can be started now: either it won't wait for a mount, or its
+     * mount has a turn free, in which case the turn is taken for it.
+     *
+     * @return The row to start, or null if none of the queued rows can be started
+     */
+    private Row<?> pollStartableRow() {
+        final List<Queue<Row<?>>> queues = myQueues.values().stream().filter(queue -> !queue.isEmpty())
+                .sorted(Comparator.comparing(Queue::peek, QUEUE_ORDER)).collect(Collectors.toList());
+
+        for (final Queue<Row<?>> queue : queues) {
+            final Row<?> row = queue.peek();
+
+            if (row.myMount == null || myMountLimiter.tryAcquire(row.myMount)) {
+                return queue.poll();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Records that a row has finished (or was cancelled before it started) and starts the next queued row.
+     */
+    private void rowFinished() {
+        synchronized (this) {
+            myRunningCount -= 1;
+        }
+
+        startQueuedRows();
+    }
+
+    /**
+     * The orders in which queued rows can be started.
+     */
+    enum ProbeOrder {
+
+        /**
+         * The order in which the rows were read from the CSV file.
+         */
+        FIFO {
+
+            @Override
+            void rank(final Row<?> aRow, final Path aMediaFile) {
+                // The rows' sequence numbers are all that's needed
+            }
+        },
+
+        /**
+         * The rows with the largest media files first, so the longest probes don't all end up at the end of the run
+         * with the other threads idle. The rows that won't be probed go before them all, since they take next to no
+         * time and let more rows be read.
+         */
+        LARGEST_FIRST {
+
+            @Override
+            void rank(final Row<?> aRow, final Path aMediaFile) {
+                if (aMediaFile == null) {
+                    aRow.myRank = Long.MIN_VALUE;
+                } else {
+                    try {
+                        aRow.myRank = -Files.size(aMediaFile);
+                    } catch (final IOException details) {
+                        aRow.myRank = Long.MIN_VALUE; // Its probe will fail fast
+                    }
+                }
+            }
+        },
+
+        /**
+         * The rows grouped by the directories of their media files and, within a directory, in inode order (where the
+         * file system has inodes), so the media files are read in roughly the order they're laid out on disk rather
+         * than jumping between directories. The rows that won't be probed go first.
+         */
+        LOCALITY {
+
+            @Override
+            void rank(final Row<?> aRow, final Path aMediaFile) {
+                if (aMediaFile != null) {
+                    final Path dir = aMediaFile.toAbsolutePath().getParent();
+
+                    aRow.myGroup = dir == null ? "/" : dir.toString();
+
+                    try {
+                        aRow.myRank = ((Number) Files.getAttribute(aMediaFile, "unix:ino")).longValue();
+                    } catch (final IOException | UnsupportedOperationException | IllegalArgumentException details) {
+                        // Without inodes, the files in a directory are probed in the order they're read
+                    }
+                }
+            }
+        };
+
+        /**
+         * Ranks a row in this order.
+         *
+         * @param aRow A row that's about to be queued
+         * @param aMediaFile The media file the row will probe, or null if it won't probe one
+         */
+        abstract void rank(Row<?> aRow, Path aMediaFile);
+
+        /**
+         * Gets the order's name as it's given on the command line.
+         *
+         * @return The order's name
+         */
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+    }
+
+    /**
+     * A row that's queued to be enriched, and its result once it has been.
+     *
+     * @param <T> The type of the row's result
+     */
+    private final class Row<T> extends FutureTask<T> {
+
+        /**
+         * The number of the row in the order in which rows were queued.
+         */
+        private final long mySequence;
+
+        /**
+         * The mount on which the row takes a turn before it's started, or null if it doesn't wait for a mount.
+         */
+        private final String myMount;
+
+        /**
+         * The group of rows the row is started with; groups are started in name order.
+         */
+        private String myGroup = "";
+
+        /**
+         * The row's rank in its group; lower ranks are started first.
+         */
+        private long myRank;
+
+        /**
+         * Creates a new queued row.
+         *
+         * @param aTask The task that enriches the row
+         * @param aSequence The number of the row in the order in which rows were queued
+         * @param aMount The mount on which the row takes a turn before it's started, or null if it doesn't wait
+         */
+        private Row(final Callable<T> aTask, final long aSequence, final String aMount) {
+            super(aTask);
+            mySequence = aSequence;
+            myMount = aMount;
+        }
+
+        @Override
+        public void run() {
+            if (myMount != null) {
+                myMountLimiter.hold(myMount); // The row's probe uses the turn it was started with
+            }
+
+            try {
+                super.run();
+            } finally {
+                if (myMount != null) {
+                    myMountLimiter.dropHeldTurn(); // e.g. the row's file was read from its header or the probe memo
+                }
+
+                rowFinished();
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Consumer;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+
+/**
+ * A reader of CSV rows that reads a fixed number of rows ahead of the row that's being returned, telling a listener
+ * about each row as it's read. This lets work for upcoming rows (e.g. prefetching their media files) start before
+ * their turn comes.
+ */
+final class RowReadahead {
+
+    /**
+     * The reader of the CSV file's rows.
+     */
+    private final CSVReader myReader;
+
+    /**
+     * The number of rows read ahead of the row that's being returned.
+     */
+    private final int myDistance;
+
+    /**
+     * The listener that's told about each row as it's read.
+     */
+    private final Consumer<String[]> myListener;
+
+    /**
+     * The rows that have been read but not yet returned.
+     */
+    private final Deque<String[]> myRows = new ArrayDeque<>();
+
+    /**
+     * Whether all of the CSV file's rows have been read.
+     */
+    private boolean myReaderIsDone;
+
+    /**
+     * The exception thrown while reading ahead, which is held until the rows read before it have been returned.
+     */
+    private Exception myReadError;
+
+    /**
+     * Creates a new reader of CSV rows.
+     *
+     * @param aReader A reader of a CSV file's rows
+     * @param aDistance The number of rows to read ahead of the row that's being returned
+     * @param aListener A listener to tell about each row as it's read
+     */
+    RowReadahead(final CSVReader aReader, final int aDistance, final Consumer<String[]> aListener) {
+        myReader = aReader;
+        myDistance = aDistance;
+        myListener = aListener;
+    }
+
+    /**
+     * Gets the next row, first reading ahead so there are as many rows after it as possible, up to the readahead
+     * distance. If a row can't be read, the rows before it are still returned before the exception is thrown, just as
+     * if they hadn't been read ahead.
+     *
+     * @return The next row, or null if there are no more
+     * @throws IOException If the CSV file can't be read
+     * @throws CsvValidationException If a row of the CSV file isn't valid CSV
+     */
+    String[] readNext() throws IOException, CsvValidationException {
+        while (!myReaderIsDone && myRows.size() <= myDistance) {
+            try {
+                final String[] row = myReader.readNext();
+
+                if (row == null) {
+                    myReaderIsDone = true;
+                } else {
+                    myListener.accept(row);
+                    myRows.addLast(row);
+                }
+            } catch (final IOException | CsvValidationException details) {
+                myReaderIsDone = true;
+                myReadError = details;
+            }
+        }
+
+        if (myRows.isEmpty() && myReadError instanceof IOException) {
+            throw (IOException) myReadError;
+        } else if (myRows.isEmpty() && myReadError instanceof CsvValidationException) {
+            throw (CsvValidationException) myReadError;
+        }
+
+        return myRows.pollFirst();
+    }
+}
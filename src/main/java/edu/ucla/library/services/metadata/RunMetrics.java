@@ -0,0 +1,443 @@
+
+package edu.ucla.library.services.metadata;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * Counters and latency histograms for a run, so it's possible to see where a slow run spends its time. They may be
+ * updated by several worker threads at once. At the end of a run, they can be summarized for the user and written to
+ * a metrics file, as JSON or in the Prometheus text format.
+ */
+public final class RunMetrics {
+
+    /**
+     * The file extension of metrics files written in the Prometheus text format (the one node_exporter's textfile
+     * collector reads).
+     */
+    public static final String PROMETHEUS_EXTENSION = ".prom";
+
+    /**
+     * Logger for the RunMetrics.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(RunMetrics.class, MessageCodes.BUNDLE);
+
+    /**
+     * The prefix of the Prometheus metric names.
+     */
+    private static final String PREFIX = "metagetter_";
+
+    /**
+     * The percentiles that are reported for each stage's latencies.
+     */
+    private static final double[] PERCENTILES = { 0.5, 0.99 };
+
+    /**
+     * The latencies of each stage of row processing.
+     */
+    private final Map<Stage, LatencyHistogram> myLatencies = new EnumMap<>(Stage.class);
+
+    /**
+     * The number of data rows written to output files.
+     */
+    private final LongAdder myRowCount = new LongAdder();
+
+    /**
+     * The number of times a media file's info was looked up, whether or not it was found in a cache.
+     */
+    private final LongAdder myLookupCount = new LongAdder();
+
+    /**
+     * The number of media files that were actually probed.
+     */
+    private final LongAdder myProbeCount = new LongAdder();
+
+    /**
+     * The number of media files that couldn't be found or probed.
+     */
+    private final LongAdder myFailureCount = new LongAdder();
+
+    /**
+     * The number of media files that weren't looked up because they can't have A/V metadata.
+     */
+    private final LongAdder myNonAvCount = new LongAdder();
+
+    /**
+     * The time at which the run started, in nanoseconds.
+     */
+    private final long myStartTime = System.nanoTime();
+
+    /**
+     * The time at which the run stopped, in nanoseconds, or 0 if it's still going.
+     */
+    private volatile long myStopTime;
+
+    /**
+     * Creates a new set of run metrics.
+     */
+    public RunMetrics() {
+        for (final Stage stage : Stage.values()) {
+            myLatencies.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Records the latency of a stage.
+     *
+     * @param aStage A stage of row processing
+     * @param aStartTime The time at which the stage started, from {@link System#nanoTime()}
+     */
+    public void record(final Stage aStage, final long aStartTime) {
+        myLatencies.get(aStage).record(System.nanoTime() - aStartTime);
+    }
+
+    /**
+     * Records that a data row was written to an output file.
+     */
+    public void rowWritten() {
+        myRowCount.increment();
+    }
+
+    /**
+     * Records that a media file's info was looked up.
+     */
+    public void mediaLookedUp() {
+        myLookupCount.increment();
+    }
+
+    /**
+     * Records that a media file was probed, rather than found in a cache.
+     */
+    public void mediaProbed() {
+        myProbeCount.increment();
+    }
+
+    /**
+     * Records that a media file couldn't be found or probed.
+     */
+    public void probeFailed() {
+        myFailureCount.increment();
+    }
+
+    /**
+     * Records that a media file wasn't looked up because it can't have A/V metadata.
+     */
+    public void nonAvMediaSkipped() {
+        myNonAvCount.increment();
+    }
+
+    /**
+     * Records that the run has stopped, so its rate is measured over the run and not up to when it's reported.
+     */
+    public void stop() {
+        if (myStopTime == 0) {
+            myStopTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * Gets the latencies of a stage.
+     *
+     * @param aStage A stage of row processing
+     * @return The stage's latency histogram
+     */
+    public LatencyHistogram getLatencies(final Stage aStage) {
+        return myLatencies.get(aStage);
+    }
+
+    /**
+     * Gets the number of data rows written to output files.
+     *
+     * @return The number of rows written
+     */
+    public long getRowCount() {
+        return myRowCount.sum();
+    }
+
+    /**
+     * Gets the number of media file lookups that were answered by the probe memo or cache, without probing.
+     *
+     * @return The number of cache hits
+     */
+    public long getCacheHitCount() {
+        return Math.max(0, myLookupCount.sum() - myProbeCount.sum());
+    }
+
+    /**
+     * Gets the number of seconds the run took, or has taken so far.
+     *
+     * @return The run's elapsed time in seconds
+     */
+    public double getElapsedSeconds() {
+        final long stopTime = myStopTime == 0 ? System.nanoTime() : myStopTime;
+        return (stopTime - myStartTime) / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * Gets the number of data rows written per second.
+     *
+     * @return The run's throughput in rows per second
+     */
+    public double getRowsPerSecond() {
+        final double seconds = getElapsedSeconds();
+        return seconds > 0 ? getRowCount() / seconds : 0;
+    }
+
+    /**
+     * Gets a summary of the metrics, suitable for showing to the user: a line for the run and one for each stage that
+     * was timed.
+     *
+     * @return The lines of the summary
+     */
+    public List<String> getSummary() {
+        final List<String> lines = new ArrayList<>();
+
+        lines.add(LOGGER.getMessage(MessageCodes.MG_126, getRowCount(), format(getElapsedSeconds()),
+                format(getRowsPerSecond()), myLookupCount.sum(), getCacheHitCount(), myProbeCount.sum(),
+                myFailureCount.sum(), myNonAvCount.sum()));
+
+        for (final Stage stage : Stage.values()) {
+            final LatencyHistogram latencies = myLatencies.get(stage);
+
+            if (latencies.getCount() > 0) {
+                lines.add(LOGGER.getMessage(MessageCodes.MG_127, stage.getName(), latencies.getCount(),
+                        millis(latencies.getMean()), millis(latencies.getPercentile(PERCENTILES[0])),
+                        millis(latencies.getPercentile(PERCENTILES[1])), millis(latencies.getMax())));
+            }
+        }
+
+        return lines;
+    }
+
+    /**
+     * Gets the metrics in the Prometheus text format.
+     *
+     * @return The metrics as Prometheus exposition text
+     */
+    public String toPrometheusText() {
+        final StringWriter metrics = new StringWriter();
+
+        try (PrintWriter printer = new PrintWriter(metrics)) {
+            writePrometheus(printer);
+        }
+
+        return metrics.toString();
+    }
+
+    /**
+     * Writes the metrics to a file, replacing it atomically so a scraper never sees a partly written file. The
+     * metrics are written in the Prometheus text format if the file name ends with {@link #PROMETHEUS_EXTENSION};
+     * otherwise, they're written as JSON.
+     *
+     * @param aPath The metrics file
+     * @throws IOException If the metrics file can't be written
+     */
+    public void save(final Path aPath) throws IOException {
+        final Path parent = aPath.toAbsolutePath().getParent();
+        final StringWriter metrics = new StringWriter();
+        final Path tmpFile;
+
+        if (aPath.getFileName().toString().endsWith(PROMETHEUS_EXTENSION)) {
+            metrics.write(toPrometheusText());
+        } else {
+            try (PrintWriter printer = new PrintWriter(metrics)) {
+                writeJson(printer);
+            }
+        }
+
+        Files.createDirectories(parent);
+        tmpFile = Files.createTempFile(parent, aPath.getFileName().toString(), ".tmp");
+
+        try {
+            Files.writeString(tmpFile, metrics.toString(), UTF_8);
+        } catch (final IOException details) {
+            Files.deleteIfExists(tmpFile);
+            throw details;
+        }
+
+        Files.move(tmpFile, aPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes the metrics as a JSON object.
+     *
+     * @param aPrinter A writer for the metrics file
+     */
+    private void writeJson(final PrintWriter aPrinter) {
+        final Stage[] stages = Stage.values();
+
+        aPrinter.println("{");
+        aPrinter.printf(Locale.ROOT, "  \"elapsedSeconds\": %.3f,%n", getElapsedSeconds());
+        aPrinter.printf(Locale.ROOT, "  \"rows\": %d,%n", getRowCount());
+        aPrinter.printf(Locale.ROOT, "  \"rowsPerSecond\": %.3f,%n", getRowsPerSecond());
+        aPrinter.printf(Locale.ROOT, "  \"mediaLookups\": %d,%n", myLookupCount.sum());
+        aPrinter.printf(Locale.ROOT, "  \"cacheHits\": %d,%n", getCacheHitCount());
+        aPrinter.printf(Locale.ROOT, "  \"probes\": %d,%n", myProbeCount.sum());
+        aPrinter.printf(Locale.ROOT, "  \"probeFailures\": %d,%n", myFailureCount.sum());
+        aPrinter.printf(Locale.ROOT, "  \"nonAvSkips\": %d,%n", myNonAvCount.sum());
+        aPrinter.println("  \"stages\": {");
+
+        for (int index = 0; index < stages.length; index++) {
+            final LatencyHistogram latencies = myLatencies.get(stages[index]);
+
+            aPrinter.printf(Locale.ROOT,
+                    "    \"%s\": { \"count\": %d, \"meanMs\": %s, \"p50Ms\": %s, \"p99Ms\": %s, \"maxMs\": %s }%s%n",
+                    stages[index].getName(), latencies.getCount(), millis(latencies.getMean()),
+                    millis(latencies.getPercentile(PERCENTILES[0])), millis(latencies.getPercentile(PERCENTILES[1])),
+                    millis(latencies.getMax()), index < stages.length - 1 ? "," : "");
+        }
+
+        aPrinter.println("  }");
+        aPrinter.println("}");
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text format, whose lines always end with a line feed.
+     *
+     * @param aPrinter A writer for the metrics file
+     */
+    private void writePrometheus(final PrintWriter aPrinter) {
+        final String latency = PREFIX + "stage_latency_seconds";
+
+        writeMetric(aPrinter, "rows_total", "counter", "Data rows written to output CSV files.", getRowCount());
+        writeMetric(aPrinter, "media_lookups_total", "counter", "Media files whose info was looked up.",
+                myLookupCount.sum());
+        writeMetric(aPrinter, "cache_hits_total", "counter", "Media file lookups answered without probing.",
+                getCacheHitCount());
+        writeMetric(aPrinter, "probes_total", "counter", "Media files probed.", myProbeCount.sum());
+        writeMetric(aPrinter, "probe_failures_total", "counter", "Media files that couldn't be found or probed.",
+                myFailureCount.sum());
+        writeMetric(aPrinter, "non_av_skips_total", "counter", "Media files not probed because they can't be A/V.",
+                myNonAvCount.sum());
+        writeMetric(aPrinter, "run_duration_seconds", "gauge", "Duration of the run.", getElapsedSeconds());
+        writeMetric(aPrinter, "rows_per_second", "gauge", "Data rows written per second.", getRowsPerSecond());
+
+        aPrinter.printf("# HELP %s Latency of each stage of row processing.\n", latency);
+        aPrinter.printf("# TYPE %s summary\n", latency);
+
+        for (final Stage stage : Stage.values()) {
+            final LatencyHistogram latencies = myLatencies.get(stage);
+
+            for (final double percentile : PERCENTILES) {
+                aPrinter.printf(Locale.ROOT, "%s{stage=\"%s\",quantile=\"%s\"} %s\n", latency, stage.getName(),
+                        percentile, seconds(latencies.getPercentile(percentile)));
+            }
+
+            aPrinter.printf(Locale.ROOT, "%s_sum{stage=\"%s\"} %s\n", latency, stage.getName(),
+                    seconds(latencies.getSum()));
+            aPrinter.printf(Locale.ROOT, "%s_count{stage=\"%s\"} %d\n", latency, stage.getName(),
+                    latencies.getCount());
+        }
+    }
+
+    /**
+     * Writes a metric with a single value in the Prometheus text format.
+     *
+     * @param aPrinter A writer for the metrics file
+     * @param aName The metric's name, without the prefix
+     * @param aType The metric's type
+     * @param aHelp A description of the metric
+     * @param aValue The metric's value
+     */
+    private static void writeMetric(final PrintWriter aPrinter, final String aName, final String aType,
+            final String aHelp, final Number aValue) {
+        aPrinter.printf("# HELP %s%s %s\n", PREFIX, aName, aHelp);
+        aPrinter.printf("# TYPE %s%s %s\n", PREFIX, aName, aType);
+        aPrinter.printf(Locale.ROOT, "%s%s %s\n", PREFIX, aName, aValue);
+    }
+
+    /**
+     * Formats a number for the user.
+     *
+     * @param aNumber A number
+     * @return The number with one decimal place
+     */
+    private static String format(final double aNumber) {
+        return String.format(Locale.ROOT, "%.1f", aNumber);
+    }
+
+    /**
+     * Formats a latency in milliseconds.
+     *
+     * @param aNanos A latency in nanoseconds
+     * @return The latency in milliseconds, with three decimal places
+     */
+    private static String millis(final long aNanos) {
+        return String.format(Locale.ROOT, "%.3f", aNanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /**
+     * Formats a latency in seconds.
+     *
+     * @param aNanos A latency in nanoseconds
+     * @return The latency in seconds
+     */
+    private static String seconds(final long aNanos) {
+        return String.valueOf(aNanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * The stages of row processing that are timed.
+     */
+    public enum Stage {
+
+        /**
+         * Finding a row's media file in the media mounts.
+         */
+        RESOLVE("resolve"),
+
+        /**
+         * Probing a media file (cache hits aren't timed).
+         */
+        PROBE("probe"),
+
+        /**
+         * Working out a media file's MIME type.
+         */
+        DETECT("detect"),
+
+        /**
+         * Writing a row to the output file.
+         */
+        WRITE("write");
+
+        /**
+         * The stage's name in the summary and metrics file.
+         */
+        private final String myName;
+
+        /**
+         * Creates a new stage.
+         *
+         * @param aName The stage's name in the summary and metrics file
+         */
+        Stage(final String aName) {
+            myName = aName;
+        }
+
+        /**
+         * Gets the stage's name in the summary and metrics file.
+         *
+         * @return The stage's name
+         */
+        public String getName() {
+            return myName;
+        }
+    }
+}
@@ -0,0 +1,370 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.opencsv.exceptions.CsvException;
+
+import info.freelibrary.util.I18nRuntimeException;
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Mixin;
+import picocli.CommandLine.Model.CommandSpec;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+import picocli.CommandLine.Spec;
+
+/**
+ * Commands that share the enrichment of CSV files between metagetter processes on several hosts, through a spool
+ * directory on a mount they all see. The CSV files are planned into batches of rows once, any number of workers
+ * enrich the batches, and the enriched batches are then merged into the output CSV files. Workers can be added or
+ * stopped at any time; the batches of a worker that dies are picked up by the others once its leases expire.
+ *
+ * @see WorkSpool
+ */
+@Command(name = SpoolCommand.COMMAND, description = "Share the enrichment of CSV files between hosts.",
+        subcommands = { SpoolCommand.Plan.class, SpoolCommand.Work.class, SpoolCommand.Merge.class })
+@SuppressWarnings("PMD.SystemPrintln")
+public final class SpoolCommand implements Callable<Integer> {
+
+    /**
+     * The name of the command that manages a work spool.
+     */
+    static final String COMMAND = "spool";
+
+    /**
+     * Logger for the SpoolCommand.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpoolCommand.class, MessageCodes.BUNDLE);
+
+    /**
+     * The number of times a lease is renewed in each lease time, so one late renewal doesn't lose it.
+     */
+    private static final int RENEWALS_PER_LEASE = 3;
+
+    /**
+     * The picocli model of the command.
+     */
+    @Spec
+    private CommandSpec mySpec;
+
+    /**
+     * Creates a new spool command for the command line.
+     */
+    SpoolCommand() {
+        // Configured by picocli
+    }
+
+    /**
+     * Shows the command's usage, since one of its subcommands is needed.
+     */
+    @Override
+    public Integer call() {
+        mySpec.commandLine().usage(System.err);
+        return ExitCodes.INVALID_OPTION;
+    }
+
+    /**
+     * Checks that the files and directories named on the command line exist.
+     *
+     * @param aPaths Files and directories
+     * @return True if they all exist; else, false
+     */
+    private static boolean exist(final Path... aPaths) {
+        boolean result = true;
+
+        for (final Path path : aPaths) {
+            if (!Files.exists(path)) {
+                System.err.println(LOGGER.getMessage(MessageCodes.MG_100, path));
+                result = false;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Splits CSV files into batches of rows in a work spool.
+     */
+    @Command(name = "plan", description = "Split CSV files into batches of rows for workers to enrich.")
+    static final class Plan implements Callable<Integer> {
+
+        /**
+         * Path to the CSV file(s) to be planned.
+         */
+        @Parameters(index = "0", description = "The path to a CSV file or a directory of CSV files.")
+        private Path myCsvPath;
+
+        /**
+         * The spool directory.
+         */
+        @Parameters(index = "1", description = "The spool directory, on a mount shared by the workers.")
+        private Path mySpoolDir;
+
+        /**
+         * The maximum number of rows in a batch.
+         */
+        @Option(names = "--batch-size", defaultValue = "500", paramLabel = "N",
+                description = "The maximum number of rows in a batch (default: ${DEFAULT-VALUE}).")
+        private int myBatchSize;
+
+        @Override
+        public Integer call() {
+            final WorkSpool spool = new WorkSpool(mySpoolDir, 0);
+            final List<Path> csvFiles;
+
+            if (!exist(myCsvPath)) {
+                return ExitCodes.FILE_DOESNT_EXIST;
+            }
+
+            if (myBatchSize < 1) {
+                System.err.println(LOGGER.getMessage(MessageCodes.MG_110, "--batch-size", myBatchSize));
+                return ExitCodes.INVALID_OPTION;
+            }
+
+            try {
+                try (Stream<Path> stream = Files.find(myCsvPath, Integer.MAX_VALUE, MetadataSetter.CSV_FILES)) {
+                    csvFiles = stream.sorted().collect(Collectors.toList());
+                }
+
+                for (final Path csvFile : csvFiles) {
+                    final int batchCount = spool.plan(csvFile, myBatchSize);
+
+                    System.out.println(LOGGER.getMessage(MessageCodes.MG_141, csvFile, batchCount, myBatchSize));
+                }
+            } catch (final IOException | CsvException details) {
+                System.err.println(LOGGER.getMessage(MessageCodes.MG_148, mySpoolDir, details.getMessage()));
+                return ExitCodes.READ_WRITE_ERROR;
+            }
+
+            return ExitCodes.SUCCESS;
+        }
+    }
+
+    /**
+     * Enriches the batches in a work spool until there are none left.
+     */
+    @Command(name = "work", description = "Enrich batches of rows from a spool until they're all done.")
+    static final class Work implements Callable<Integer> {
+
+        /**
+         * The spool directory.
+         */
+        @Parameters(index = "0", description = "The spool directory, on a mount shared by the workers.")
+        private Path mySpoolDir;
+
+        /**
+         * Path to media files to be read.
+         */
+        @Parameters(index = "1", split = "\\,", splitSynopsisLabel = ",",
+                description = "The parent directories/mount points holding media files, separated by commas.")
+        private List<String> myMediaPath;
+
+        /**
+         * Path to ffmpeg probe utility.
+         */
+        @Parameters(index = "2", description = "The path to ffprobe executable.")
+        private String myFfmpegPath;
+
+        /**
+         * The number of seconds a lease lasts without being renewed.
+         */
+        @Option(names = "--lease-time", defaultValue = "300", paramLabel = "SECONDS",
+                description = "The number of seconds before a dead worker's batches are picked up by others "
+                        + "(default: ${DEFAULT-VALUE}).")
+        private int myLeaseTime;
+
+        /**
+         * The number of seconds to wait before looking for batches again, when the others are all leased.
+         */
+        @Option(names = "--poll", defaultValue = "5", paramLabel = "SECONDS",
+                description = "The number of seconds to wait for batches leased by other workers "
+                        + "(default: ${DEFAULT-VALUE}).")
+        private int myPollTime;
+
+        /**
+         * The options that control how rows are enriched.
+         */
+        @Mixin
+        private EnrichmentOptions myOptions = new EnrichmentOptions();
+
+        @Override
+        public Integer call() {
+            final MetadataSetter engine = new MetadataSetter(myOptions, myMediaPath, myFfmpegPath);
+            final WorkSpool spool = new WorkSpool(mySpoolDir, TimeUnit.SECONDS.toMillis(myLeaseTime));
+            final ScheduledExecutorService renewer;
+            int exitCode = ExitCodes.SUCCESS;
+            int batchCount = 0;
+
+            if (!exist(mySpoolDir) || !engine.fileDirExists(myMediaPath)) {
+                return ExitCodes.FILE_DOESNT_EXIST;
+            }
+
+            if (myLeaseTime < 1) {
+                System.err.println(LOGGER.getMessage(MessageCodes.MG_110, "--lease-time", myLeaseTime));
+                return ExitCodes.INVALID_OPTION;
+            }
+
+            if (myPollTime < 0) {
+                System.err.println(LOGGER.getMessage(MessageCodes.MG_117, "--poll", myPollTime));
+                return ExitCodes.INVALID_OPTION;
+            }
+
+            if ((exitCode = engine.open()) != ExitCodes.SUCCESS) {
+                return exitCode;
+            }
+
+            renewer = Executors.newSingleThreadScheduledExecutor(task -> {
+                final Thread thread = new Thread(task, "lease-renewer");
+
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            try {
+                while (!spool.isFinished()) {
+                    final Optional<WorkSpool.Lease> lease = spool.claim();
+
+                    if (lease.isEmpty()) {
+                        TimeUnit.SECONDS.sleep(myPollTime); // The rest are being enriched by other workers
+                    } else if (enrich(engine, lease.get(), renewer)) {
+                        batchCount += 1;
+                    } else {
+                        exitCode = ExitCodes.READ_WRITE_ERROR;
+                    }
+                }
+
+                System.out.println(LOGGER.getMessage(MessageCodes.MG_143, batchCount));
+            } catch (final IOException details) {
+                System.err.println(LOGGER.getMessage(MessageCodes.MG_148, mySpoolDir, details.getMessage()));
+                exitCode = ExitCodes.READ_WRITE_ERROR;
+            } catch (final InterruptedException details) {
+                Thread.currentThread().interrupt();
+            } finally {
+                renewer.shutdownNow();
+                engine.close();
+                engine.getMetrics().stop();
+                engine.getMetrics().getSummary().forEach(System.out::println);
+            }
+
+            return exitCode;
+        }
+
+        /**
+         * Enriches a leased batch, renewing the lease while it's being enriched. A batch that can't be enriched (e.g.
+         * because a row's media file is missing) is recorded as failed, so it isn't claimed again; a batch that can't
+         * be read or written is released, so another worker can try it. If the lease was taken over by another worker
+         * while the batch was being enriched, the batch is left to that worker.
+         *
+         * @param aEngine The MetadataSetter that enriches the batch
+         * @param aLease A lease on the batch
+         * @param aRenewer The thread that renews the lease
+         * @return True if the batch was enriched; else, false
+         * @throws IOException If the batch can't be read or the enriched batch can't be written
+         */
+        boolean enrich(final MetadataSetter aEngine, final WorkSpool.Lease aLease,
+                final ScheduledExecutorService aRenewer) throws IOException {
+            final long renewalTime = TimeUnit.SECONDS.toMillis(myLeaseTime) / RENEWALS_PER_LEASE;
+            final ScheduledFuture<?> renewal =
+                    aRenewer.scheduleAtFixedRate(aLease::renew, renewalTime, renewalTime, TimeUnit.MILLISECONDS);
+            final CsvSummary summary = new CsvSummary(Path.of(aLease.getName()));
+
+            summary.start();
+            aEngine.forgetMissingMedia();
+
+            try (Reader reader = Files.newBufferedReader(aLease.getBatchFile()); Writer writer = aLease.openResult()) {
+                aEngine.addMetaToCsv(reader, writer, summary);
+            } catch (final CsvException | FileFormatException | FileNotFoundException | I18nRuntimeException details) {
+                // A missing media file comes from the batch's rows, not the spool, so another worker would fail too
+                summary.fail(details.getMessage());
+
+                if (!aLease.fail(details.getMessage())) {
+                    System.err.println(LOGGER.getMessage(MessageCodes.MG_161, aLease.getName()));
+                }
+
+                System.err.println(summary);
+                return false;
+            } catch (final IOException details) {
+                aLease.release();
+                throw details;
+            } finally {
+                renewal.cancel(false);
+            }
+
+            if (!aLease.complete()) {
+                System.out.println(LOGGER.getMessage(MessageCodes.MG_161, aLease.getName()));
+            }
+
+            summary.succeed();
+            System.out.println(summary);
+            return true;
+        }
+    }
+
+    /**
+     * Merges the enriched batches in a work spool into output CSV files.
+     */
+    @Command(name = "merge", description = "Merge the enriched batches in a spool into output CSV files.")
+    static final class Merge implements Callable<Integer> {
+
+        /**
+         * The spool directory.
+         */
+        @Parameters(index = "0", description = "The spool directory, on a mount shared by the workers.")
+        private Path mySpoolDir;
+
+        /**
+         * The directory to which the output CSV files are written.
+         */
+        @Parameters(index = "1", description = "The output directory.")
+        private Path myOutputDir;
+
+        @Override
+        public Integer call() {
+            final WorkSpool spool = new WorkSpool(mySpoolDir, 0);
+            int exitCode = ExitCodes.SUCCESS;
+
+            if (!exist(mySpoolDir)) {
+                return ExitCodes.FILE_DOESNT_EXIST;
+            }
+
+            try {
+                Files.createDirectories(myOutputDir);
+
+                for (final String csvName : spool.getCsvNames()) {
+                    final Path outputFile = myOutputDir.resolve(csvName);
+
+                    try {
+                        System.out.println(LOGGER.getMessage(MessageCodes.MG_146, spool.merge(csvName, outputFile),
+                                outputFile));
+                    } catch (final IOException | CsvException details) {
+                        // The other CSV files are still merged; this one can be merged again once it's finished
+                        System.err.println(LOGGER.getMessage(MessageCodes.MG_147, csvName, details.getMessage()));
+                        exitCode = ExitCodes.READ_WRITE_ERROR;
+                    }
+                }
+            } catch (final IOException details) {
+                System.err.println(LOGGER.getMessage(MessageCodes.MG_148, mySpoolDir, details.getMessage()));
+                exitCode = ExitCodes.READ_WRITE_ERROR;
+            }
+
+            return exitCode;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+
+package edu.ucla.library.services.metadata;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads, which the JVM only has from Java 21. The project is built for Java 11, so they're looked
+ * up reflectively when they're asked for, rather than compiled against.
+ */
+final class VirtualThreads {
+
+    /**
+     * The name of the method in {@link Executors} that creates an executor that runs each task on a new virtual thread.
+     */
+    private static final String FACTORY_METHOD = "newVirtualThreadPerTaskExecutor";
+
+    /**
+     * Private constructor for VirtualThreads class.
+     */
+    private VirtualThreads() {
+    }
+
+    /**
+     * Creates an executor that runs each task on a new virtual thread, if the JVM has virtual threads.
+     *
+     * @return An executor that starts a virtual thread per task, or an empty optional if the JVM doesn't have them
+     *         (before Java 21, or as a preview feature that hasn't been enabled)
+     */
+    static Optional<ExecutorService> newPerTaskExecutor() {
+        try {
+            return Optional.of((ExecutorService) Executors.class.getMethod(FACTORY_METHOD).invoke(null));
+        } catch (final NoSuchMethodException | IllegalAccessException | InvocationTargetException details) {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,667 @@
+
+package edu.ucla.library.services.metadata;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.opencsv.CSVReader;
+import com.opencsv.CSVWriter;
+import com.opencsv.exceptions.CsvException;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * A directory on a shared mount through which metagetter processes on several hosts split up the enrichment of CSV
+ * files. Each CSV file is planned into numbered batches of rows; workers claim batches one at a time by creating lease
+ * files, enrich them, and leave their results behind; and a final merge stitches each CSV file's results back
+ * together in batch order.
+ * <p>
+ * A lease file is created with an exclusive create, so only one worker can get it, and it holds a token that's unique
+ * to that lease. The worker that holds it keeps it alive by updating its modification time, and a lease that hasn't
+ * been updated for the lease time is treated as belonging to a worker that died, so its batch is claimed again. A
+ * lease file is only ever removed by first renaming it to a name of the worker's own and checking its token, so a
+ * worker can't remove a lease that another worker has just taken over; and before a worker renews, completes, fails,
+ * or releases its lease it checks that the lease file still holds its token. A worker that was only slow, and has
+ * lost its lease, can't fail or release a batch that another worker holds. It can still end up enriching a batch at
+ * the same time as the worker that took it over, but results are moved into place atomically, so the batch just has
+ * its result replaced with the same rows. The hosts' clocks need to agree to well within the lease time.
+ * </p>
+ * <pre>
+ * batches/[CSV file]/[batch].csv   the rows of each batch, with the CSV file's header row
+ * leases/[CSV file]/[batch].lease  the batches being enriched, and the workers enriching them
+ * done/[CSV file]/[batch].csv      the enriched batches
+ * done/[CSV file]/[batch].failed   the batches that couldn't be enriched, and why
+ * </pre>
+ */
+final class WorkSpool {
+
+    /**
+     * The spool's subdirectory of planned batches.
+     */
+    static final String BATCHES_DIR = "batches";
+
+    /**
+     * The spool's subdirectory of lease files.
+     */
+    static final String LEASES_DIR = "leases";
+
+    /**
+     * The spool's subdirectory of batch results.
+     */
+    static final String DONE_DIR = "done";
+
+    /**
+     * Logger for the WorkSpool.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorkSpool.class, MessageCodes.BUNDLE);
+
+    /**
+     * The file extension of batches and enriched batches.
+     */
+    private static final String CSV_EXT = ".csv";
+
+    /**
+     * The file extension of lease files.
+     */
+    private static final String LEASE_EXT = ".lease";
+
+    /**
+     * The file extension of the records of failed batches.
+     */
+    private static final String FAILED_EXT = ".failed";
+
+    /**
+     * The format of a batch's file name (without its extension), which is padded so the batches list in order.
+     */
+    private static final String BATCH_NAME = "%06d";
+
+    /**
+     * The prefix of files and directories that are still being written, and that workers ignore.
+     */
+    private static final String TMP_PREFIX = ".";
+
+    /**
+     * The spool directory.
+     */
+    private final Path myDir;
+
+    /**
+     * The number of milliseconds a lease lasts without being renewed.
+     */
+    private final long myLeaseTime;
+
+    /**
+     * Who leases are taken out by, which starts each lease's token.
+     */
+    private final String myOwner;
+
+    /**
+     * Creates a new work spool.
+     *
+     * @param aDir A directory on a mount that's shared by the hosts
+     * @param aLeaseTime The number of milliseconds a lease lasts without being renewed
+     */
+    WorkSpool(final Path aDir, final long aLeaseTime) {
+        myDir = aDir;
+        myLeaseTime = aLeaseTime;
+        myOwner = getHostName() + ':' + ProcessHandle.current().pid();
+    }
+
+    /**
+     * Splits a CSV file into batches of rows, each with the CSV file's header row. The batches only become visible to
+     * workers once they've all been written. A CSV file is known in the spool by its file name, as it is in the output
+     * directory, so two CSV files with the same name can't be planned into the same spool.
+     *
+     * @param aCsvFile A CSV file
+     * @param aBatchSize The maximum number of rows in a batch
+     * @return The number of batches
+     * @throws IOException If the CSV file can't be read or the batches can't be written
+     * @throws CsvException If the CSV file isn't valid CSV
+     */
+    int plan(final Path aCsvFile, final int aBatchSize) throws IOException, CsvException {
+        final String csvName = aCsvFile.getFileName().toString();
+        final Path batchDir = myDir.resolve(BATCHES_DIR).resolve(csvName);
+        final Path tmpDir = myDir.resolve(BATCHES_DIR).resolve(TMP_PREFIX + csvName + '.' + UUID.randomUUID());
+        int batchCount = 0;
+
+        if (Files.exists(batchDir)) {
+            throw new FileAlreadyExistsException(LOGGER.getMessage(MessageCodes.MG_142, csvName));
+        }
+
+        Files.createDirectories(tmpDir);
+        Files.createDirectories(myDir.resolve(LEASES_DIR).resolve(csvName));
+        Files.createDirectories(myDir.resolve(DONE_DIR).resolve(csvName));
+
+        try (CSVReader reader = new CSVReader(Files.newBufferedReader(aCsvFile))) {
+            final String[] headerRow = reader.readNext();
+            String[] row = headerRow == null ? null : reader.readNext();
+
+            // A CSV file with a header row but no other rows still gets a batch, so its output gets a header row
+            while (row != null || batchCount == 0 && headerRow != null) {
+                final Path batchFile = tmpDir.resolve(getBatchName(++batchCount) + CSV_EXT);
+
+                try (CSVWriter writer = new CSVWriter(Files.newBufferedWriter(batchFile))) {
+                    writer.writeNext(headerRow);
+
+                    for (int count = 0; count < aBatchSize && row != null; count++) {
+                        writer.writeNext(row);
+                        row = reader.readNext();
+                    }
+                }
+            }
+
+            Files.move(tmpDir, batchDir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException | CsvException details) {
+            delete(tmpDir);
+            throw details;
+        }
+
+        return batchCount;
+    }
+
+    /**
+     * Claims a batch that hasn't been enriched, either because no worker has claimed it or because the lease of the
+     * worker that claimed it has expired.
+     *
+     * @return A lease on the batch, or an empty optional if there are no batches to claim right now
+     * @throws IOException If the spool can't be read or the lease file can't be written
+     */
+    Optional<Lease> claim() throws IOException {
+        for (final String csvName : getCsvNames()) {
+            for (final Path batchFile : getBatchFiles(csvName)) {
+                final String batchName = getBaseName(batchFile);
+                final Path leaseFile = myDir.resolve(LEASES_DIR).resolve(csvName).resolve(batchName + LEASE_EXT);
+                final String token = myOwner + ':' + UUID.randomUUID();
+
+                // The lease is read back, in case another worker took it over while it was being taken out
+                if (!isFinished(csvName, batchName) && (createLease(leaseFile, token) ||
+                        takeOverLease(leaseFile, token)) && token.equals(readToken(leaseFile))) {
+                    // It may have been finished by the worker whose lease had just expired
+                    if (isFinished(csvName, batchName)) {
+                        removeLease(leaseFile, token);
+                    } else {
+                        return Optional.of(new Lease(csvName, batchFile, leaseFile, token));
+                    }
+                }
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Whether every planned batch has either been enriched or failed.
+     *
+     * @return True if there's nothing left for workers to do; else, false
+     * @throws IOException If the spool can't be read
+     */
+    boolean isFinished() throws IOException {
+        for (final String csvName : getCsvNames()) {
+            for (final Path batchFile : getBatchFiles(csvName)) {
+                if (!isFinished(csvName, getBaseName(batchFile))) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the names of the CSV files that have been planned into the spool.
+     *
+     * @return The names of the planned CSV files, in name order
+     * @throws IOException If the spool can't be read
+     */
+    List<String> getCsvNames() throws IOException {
+        final Path batchesDir = myDir.resolve(BATCHES_DIR);
+
+        if (!Files.isDirectory(batchesDir)) {
+            return List.of();
+        }
+
+        try (Stream<Path> paths = Files.list(batchesDir)) {
+            return paths.map(path -> path.getFileName().toString()).filter(name -> !name.startsWith(TMP_PREFIX))
+                    .sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Stitches a planned CSV file's enriched batches back together, in batch order, as one CSV file. The merged CSV
+     * file is written to a temporary file that's only renamed once it's complete.
+     *
+     * @param aCsvName The name of a planned CSV file
+     * @param aOutputFile The file to which the merged CSV file is written
+     * @return The number of batches merged
+     * @throws IOException If a batch hasn't been enriched, or the batches can't be read or the CSV file written
+     * @throws CsvException If an enriched batch's header row isn't valid CSV
+     */
+    int merge(final String aCsvName, final Path aOutputFile) throws IOException, CsvException {
+        final Path doneDir = myDir.resolve(DONE_DIR).resolve(aCsvName);
+        final List<Path> batchFiles = getBatchFiles(aCsvName);
+        final List<String> unfinished = new ArrayList<>();
+        final Path tmpFile;
+
+        for (final Path batchFile : batchFiles) {
+            final String batchName = getBaseName(batchFile);
+            final Path failedFile = doneDir.resolve(batchName + FAILED_EXT);
+
+            if (Files.exists(failedFile)) {
+                throw new IOException(LOGGER.getMessage(MessageCodes.MG_145, batchName,
+                        Files.readString(failedFile, UTF_8)));
+            } else if (!Files.exists(doneDir.resolve(batchName + CSV_EXT))) {
+                unfinished.add(batchName);
+            }
+        }
+
+        if (!unfinished.isEmpty()) {
+            throw new IOException(LOGGER.getMessage(MessageCodes.MG_144, String.join(", ", unfinished)));
+        }
+
+        tmpFile = aOutputFile.resolveSibling(TMP_PREFIX + aOutputFile.getFileName() + '.' + UUID.randomUUID());
+
+        try (Writer writer = Files.newBufferedWriter(tmpFile)) {
+            for (int index = 0; index < batchFiles.size(); index++) {
+                final Path doneFile = doneDir.resolve(getBaseName(batchFiles.get(index)) + CSV_EXT);
+
+                // The enriched rows are copied as they were written, and only the first batch's header row is kept
+                try (Reader reader = Files.newBufferedReader(doneFile)) {
+                    if (index > 0) {
+                        skipLines(reader, getHeaderLineCount(doneFile));
+                    }
+
+                    reader.transferTo(writer);
+                }
+            }
+        } catch (final IOException | CsvException details) {
+            Files.deleteIfExists(tmpFile);
+            throw details;
+        }
+
+        Files.move(tmpFile, aOutputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return batchFiles.size();
+    }
+
+    /**
+     * Gets the number of lines taken up by a CSV file's header row, which can be more than one if a column name has a
+     * line break in it.
+     *
+     * @param aCsvFile A CSV file
+     * @return The number of lines in the header row
+     * @throws IOException If the CSV file can't be read
+     * @throws CsvException If the CSV file's header row isn't valid CSV
+     */
+    private static long getHeaderLineCount(final Path aCsvFile) throws IOException, CsvException {
+        try (CSVReader reader = new CSVReader(Files.newBufferedReader(aCsvFile))) {
+            reader.readNext();
+            return reader.getLinesRead();
+        }
+    }
+
+    /**
+     * Skips past a number of lines.
+     *
+     * @param aReader A reader
+     * @param aLineCount The number of lines to skip
+     * @throws IOException If the lines can't be read
+     */
+    private static void skipLines(final Reader aReader, final long aLineCount) throws IOException {
+        long lineCount = 0;
+        int character;
+
+        while (lineCount < aLineCount && (character = aReader.read()) != -1) {
+            if (character == '\n') {
+                lineCount += 1;
+            }
+        }
+    }
+
+    /**
+     * Gets a planned CSV file's batches.
+     *
+     * @param aCsvName The name of a planned CSV file
+     * @return The CSV file's batches, in batch order
+     * @throws IOException If the spool can't be read
+     */
+    private List<Path> getBatchFiles(final String aCsvName) throws IOException {
+        try (Stream<Path> paths = Files.list(myDir.resolve(BATCHES_DIR).resolve(aCsvName))) {
+            return paths.filter(path -> path.getFileName().toString().endsWith(CSV_EXT))
+                    .sorted(Comparator.comparingLong(path -> Long.parseLong(getBaseName(path))))
+                    .collect(Collectors.toList());
+        } catch (final NoSuchFileException details) {
+            return List.of(); // It's not a planned CSV file
+        }
+    }
+
+    /**
+     * Whether a batch has either been enriched or failed.
+     *
+     * @param aCsvName The name of the CSV file the batch is from
+     * @param aBatchName The name of the batch
+     * @return True if the batch needs no more work; else, false
+     */
+    private boolean isFinished(final String aCsvName, final String aBatchName) {
+        final Path doneDir = myDir.resolve(DONE_DIR).resolve(aCsvName);
+
+        return Files.exists(doneDir.resolve(aBatchName + CSV_EXT)) ||
+                Files.exists(doneDir.resolve(aBatchName + FAILED_EXT));
+    }
+
+    /**
+     * Tries to create a lease file. The exclusive create makes sure only one worker gets it.
+     *
+     * @param aLeaseFile A lease file
+     * @param aToken The lease's token
+     * @return True if the lease file was created; else, false
+     * @throws IOException If the lease file can't be written
+     */
+    private static boolean createLease(final Path aLeaseFile, final String aToken) throws IOException {
+        try {
+            Files.writeString(aLeaseFile, aToken, UTF_8, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            return true;
+        } catch (final FileAlreadyExistsException details) {
+            return false;
+        }
+    }
+
+    /**
+     * Tries to take over a lease that has expired. The expired lease is removed, which only succeeds if the lease file
+     * still holds the token it held when it was found to have expired, and then the lease is created again.
+     *
+     * @param aLeaseFile A lease file that already exists
+     * @param aToken The token of the lease that takes it over
+     * @return True if the lease was taken over; else, false
+     * @throws IOException If the lease file can't be written
+     */
+    private boolean takeOverLease(final Path aLeaseFile, final String aToken) throws IOException {
+        final String expiredToken = readToken(aLeaseFile);
+
+        try {
+            if (expiredToken == null ||
+                    System.currentTimeMillis() - Files.getLastModifiedTime(aLeaseFile).toMillis() < myLeaseTime) {
+                return false;
+            }
+        } catch (final NoSuchFileException details) {
+            return false; // Its batch was finished, or another worker has taken it over
+        }
+
+        // Another worker may have taken it over since it was found to have expired, and if so it keeps it
+        return removeLease(aLeaseFile, expiredToken) && createLease(aLeaseFile, aToken);
+    }
+
+    /**
+     * Removes a lease file if it holds the supplied token. The lease file is first renamed to a name that's unique to
+     * this worker, which only one worker can do, so its token can be checked without another worker replacing it; if
+     * it turns out to hold another lease's token, it's put back.
+     *
+     * @param aLeaseFile A lease file
+     * @param aToken The token of the lease that's removed
+     * @return True if the lease file held the token and was removed; else, false
+     * @throws IOException If the lease file can't be renamed or removed
+     */
+    private static boolean removeLease(final Path aLeaseFile, final String aToken) throws IOException {
+        final Path movedFile = aLeaseFile.resolveSibling(TMP_PREFIX + aLeaseFile.getFileName() + '.' +
+                UUID.randomUUID());
+
+        try {
+            Files.move(aLeaseFile, movedFile, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final NoSuchFileException details) {
+            return false; // Its batch was finished, or another worker is removing it
+        }
+
+        if (aToken.equals(readToken(movedFile))) {
+            Files.delete(movedFile);
+            return true;
+        }
+
+        try {
+            Files.move(movedFile, aLeaseFile); // Without replacing a lease that's been created since
+        } catch (final FileAlreadyExistsException details) {
+            Files.delete(movedFile);
+        }
+
+        return false;
+    }
+
+    /**
+     * Reads the token a lease file holds.
+     *
+     * @param aLeaseFile A lease file
+     * @return The lease file's token, or null if there's no lease file
+     * @throws IOException If the lease file can't be read
+     */
+    private static String readToken(final Path aLeaseFile) throws IOException {
+        try {
+            return Files.readString(aLeaseFile, UTF_8);
+        } catch (final NoSuchFileException details) {
+            return null;
+        }
+    }
+
+    /**
+     * Deletes a directory of batches that were being planned.
+     *
+     * @param aDir A directory of batches
+     * @throws IOException If the directory can't be deleted
+     */
+    private static void delete(final Path aDir) throws IOException {
+        try (Stream<Path> paths = Files.walk(aDir)) {
+            for (final Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * Gets a spool file's name without its extension.
+     *
+     * @param aPath A file in the spool
+     * @return The file's name without its extension
+     */
+    private static String getBaseName(final Path aPath) {
+        final String fileName = aPath.getFileName().toString();
+
+        return fileName.substring(0, fileName.lastIndexOf('.'));
+    }
+
+    /**
+     * Gets the name of a batch from its number.
+     *
+     * @param aBatchNumber A batch number, starting from one
+     * @return The batch's name
+     */
+    private static String getBatchName(final int aBatchNumber) {
+        return String.format(BATCH_NAME, aBatchNumber);
+    }
+
+    /**
+     * Gets the name of this host, which is recorded in lease files so it's clear who holds them.
+     *
+     * @return The name of this host
+     */
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (final IOException details) {
+            return ManagementFactory.getRuntimeMXBean().getName();
+        }
+    }
+
+    /**
+     * A worker's claim on a batch, which lasts until the batch is finished or released, or until it isn't renewed for
+     * the lease time.
+     */
+    final class Lease {
+
+        /**
+         * The name of the CSV file the batch is from.
+         */
+        private final String myCsvName;
+
+        /**
+         * The batch's rows.
+         */
+        private final Path myBatchFile;
+
+        /**
+         * The lease file.
+         */
+        private final Path myLeaseFile;
+
+        /**
+         * The directory to which the batch's result is written.
+         */
+        private final Path myDoneDir;
+
+        /**
+         * The temporary file to which the enriched batch is written.
+         */
+        private final Path myTmpFile;
+
+        /**
+         * The token the lease file holds while this lease is held.
+         */
+        private final String myToken;
+
+        /**
+         * Creates a new lease.
+         *
+         * @param aCsvName The name of the CSV file the batch is from
+         * @param aBatchFile The batch's rows
+         * @param aLeaseFile The lease file
+         * @param aToken The token the lease file holds while the lease is held
+         */
+        private Lease(final String aCsvName, final Path aBatchFile, final Path aLeaseFile, final String aToken) {
+            myCsvName = aCsvName;
+            myBatchFile = aBatchFile;
+            myLeaseFile = aLeaseFile;
+            myToken = aToken;
+            myDoneDir = myDir.resolve(DONE_DIR).resolve(aCsvName);
+            myTmpFile = myDoneDir.resolve(TMP_PREFIX + aBatchFile.getFileName() + '.' + UUID.randomUUID());
+        }
+
+        /**
+         * Gets the batch's rows.
+         *
+         * @return The batch file, a CSV file with its CSV file's header row
+         */
+        Path getBatchFile() {
+            return myBatchFile;
+        }
+
+        /**
+         * Gets a name for the batch that's suitable for showing to the user.
+         *
+         * @return The names of the CSV file and batch
+         */
+        String getName() {
+            return myCsvName + '#' + getBaseName(myBatchFile);
+        }
+
+        /**
+         * Whether the lease is still held, i.e. it hasn't been taken over by another worker.
+         *
+         * @return True if the lease file still holds this lease's token; else, false
+         * @throws IOException If the lease file can't be read
+         */
+        boolean isHeld() throws IOException {
+            return myToken.equals(readToken(myLeaseFile));
+        }
+
+        /**
+         * Renews the lease, so other workers don't take it over. A lease that has already been taken over is left to
+         * the worker that took it.
+         */
+        void renew() {
+            try {
+                if (isHeld()) {
+                    Files.setLastModifiedTime(myLeaseFile, FileTime.fromMillis(System.currentTimeMillis()));
+                }
+            } catch (final IOException details) {
+                // If it's gone, the batch may be enriched twice, but to the same result
+            }
+        }
+
+        /**
+         * Opens a writer for the enriched batch. What's written goes to a temporary file that only takes the place of
+         * the batch's result when the lease is completed.
+         *
+         * @return A writer for the enriched batch
+         * @throws IOException If the enriched batch can't be written
+         */
+        Writer openResult() throws IOException {
+            return Files.newBufferedWriter(myTmpFile);
+        }
+
+        /**
+         * Records the enriched batch that was written to the result writer, and ends the lease. If the lease has been
+         * taken over, the batch is left to the worker that took it, and the enriched batch is thrown away.
+         *
+         * @return True if the enriched batch was recorded; else, false
+         * @throws IOException If the enriched batch can't be moved into place
+         */
+        boolean complete() throws IOException {
+            if (!isHeld()) {
+                Files.deleteIfExists(myTmpFile);
+                return false;
+            }
+
+            Files.move(myTmpFile, myDoneDir.resolve(getBaseName(myBatchFile) + CSV_EXT),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            release();
+            return true;
+        }
+
+        /**
+         * Records that the batch can't be enriched, so it isn't claimed again, and ends the lease. If the lease has
+         * been taken over, or the batch has been enriched by another worker, nothing is recorded, so a worker that was
+         * only slow can't fail a batch that another worker holds or has finished.
+         *
+         * @param aReason Why the batch can't be enriched
+         * @return True if the failure was recorded; else, false
+         * @throws IOException If the failure can't be recorded
+         */
+        boolean fail(final String aReason) throws IOException {
+            final boolean isRecorded = isHeld() && !Files.exists(myDoneDir.resolve(getBaseName(myBatchFile) + CSV_EXT));
+
+            if (isRecorded) {
+                Files.writeString(myDoneDir.resolve(getBaseName(myBatchFile) + FAILED_EXT), String.valueOf(aReason),
+                        UTF_8);
+            }
+
+            release();
+            return isRecorded;
+        }
+
+        /**
+         * Ends the lease without finishing the batch, so another worker can claim it straight away. Anything written
+         * to the result writer is thrown away. A lease that has been taken over is left to the worker that took it.
+         *
+         * @throws IOException If the lease file can't be removed
+         */
+        void release() throws IOException {
+            Files.deleteIfExists(myTmpFile);
+            removeLease(myLeaseFile, myToken);
+        }
+    }
+}
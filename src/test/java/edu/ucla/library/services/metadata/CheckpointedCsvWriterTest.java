@@ -0,0 +1,186 @@
+
+package edu.ucla.library.services.metadata;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of CheckpointedCsvWriter and the CheckpointJournal it writes to.
+ */
+public class CheckpointedCsvWriterTest {
+
+    private static final String[] HEADER = { "File Name", "media.format" };
+
+    /**
+     * A folder for the source and output files created by the tests.
+     */
+    @Rule
+    public final TemporaryFolder myTempFolder = new TemporaryFolder();
+
+    private Path mySource;
+
+    private Path myOutput;
+
+    /**
+     * Sets up the test's source and output files.
+     *
+     * @throws IOException If the test files can't be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        mySource = myTempFolder.newFile("source.csv").toPath();
+        myOutput = myTempFolder.getRoot().toPath().resolve("output.csv");
+    }
+
+    /**
+     * Tests that the output file only appears once it's been committed.
+     *
+     * @throws IOException If the output can't be written
+     */
+    @Test
+    public void testCommitRenamesOutput() throws IOException {
+        try (CheckpointJournal journal = new CheckpointJournal(myTempFolder.getRoot().toPath(), false);
+                CheckpointedCsvWriter writer = new CheckpointedCsvWriter(mySource, myOutput, journal)) {
+            writer.writeHeader(HEADER);
+            writer.writeNext("a.mp3", "audio/mpeg");
+
+            assertFalse(Files.exists(myOutput));
+            writer.commit();
+        }
+
+        assertTrue(Files.exists(myOutput));
+        assertFalse(Files.exists(partOf(myOutput)));
+        assertEquals(2, Files.readAllLines(myOutput, UTF_8).size());
+    }
+
+    /**
+     * Tests that a resumed writer continues from the rows written before it was closed.
+     *
+     * @throws IOException If the output can't be written
+     */
+    @Test
+    public void testResumeContinuesFromCheckpoint() throws IOException {
+        try (CheckpointJournal journal = new CheckpointJournal(myTempFolder.getRoot().toPath(), false);
+                CheckpointedCsvWriter writer = new CheckpointedCsvWriter(mySource, myOutput, journal)) {
+            writer.writeHeader(HEADER);
+            writer.writeNext("a.mp3", "audio/mpeg");
+            writer.writeNext("b.mp3", "audio/mpeg");
+        } // Closed without being committed, as when a run fails
+
+        try (CheckpointJournal journal = new CheckpointJournal(myTempFolder.getRoot().toPath(), true);
+                CheckpointedCsvWriter writer = new CheckpointedCsvWriter(mySource, myOutput, journal)) {
+            assertEquals(2, writer.getResumedRowCount());
+
+            writer.writeHeader(HEADER);
+            writer.writeNext("c.mp3", "audio/mpeg");
+            writer.commit();
+        }
+
+        final List<String> lines = Files.readAllLines(myOutput, UTF_8);
+
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(3).contains("c.mp3"));
+    }
+
+    /**
+     * Tests that a committed CSV file is recorded as complete and that a new run discards earlier progress.
+     *
+     * @throws IOException If the output can't be written
+     */
+    @Test
+    public void testJournalRecordsCompletion() throws IOException {
+        try (CheckpointJournal journal = new CheckpointJournal(myTempFolder.getRoot().toPath(), false);
+                CheckpointedCsvWriter writer = new CheckpointedCsvWriter(mySource, myOutput, journal)) {
+            writer.writeHeader(HEADER);
+            writer.commit();
+        }
+
+        try (CheckpointJournal journal = new CheckpointJournal(myTempFolder.getRoot().toPath(), true)) {
+            assertTrue(journal.isComplete(mySource));
+            assertNull(journal.getCheckpoint(mySource));
+        }
+
+        try (CheckpointJournal journal = new CheckpointJournal(myTempFolder.getRoot().toPath(), false)) {
+            assertFalse(journal.isComplete(mySource));
+        }
+    }
+
+    /**
+     * Tests that a CSV file that's changed since its progress was recorded starts over, whether it was completed or
+     * only checkpointed.
+     *
+     * @throws IOException If the output can't be written
+     */
+    @Test
+    public void testChangedSourceStartsOver() throws IOException {
+        final Path other = myTempFolder.newFile("other.csv").toPath();
+
+        try (CheckpointJournal journal = new CheckpointJournal(myTempFolder.getRoot().toPath(), false);
+                CheckpointedCsvWriter writer = new CheckpointedCsvWriter(mySource, myOutput, journal);
+                CheckpointedCsvWriter otherWriter = new CheckpointedCsvWriter(other, myOutput.resolveSibling(
+                        "other-output.csv"), journal)) {
+            writer.writeHeader(HEADER);
+            writer.commit();
+            otherWriter.writeHeader(HEADER);
+            otherWriter.writeNext("a.mp3", "audio/mpeg");
+        }
+
+        Files.write(mySource, List.of("File Name"), UTF_8);
+        Files.write(other, List.of("File Name"), UTF_8);
+
+        try (CheckpointJournal journal = new CheckpointJournal(myTempFolder.getRoot().toPath(), true)) {
+            assertFalse(journal.isComplete(mySource));
+            assertNull(journal.getCheckpoint(other));
+        }
+    }
+
+    /**
+     * Tests that the journal is compacted to the last entry of each CSV file that still exists, so it doesn't grow
+     * with every checkpoint of a long run.
+     *
+     * @throws IOException If the journal can't be written
+     */
+    @Test
+    public void testJournalIsCompacted() throws IOException {
+        final Path other = myTempFolder.newFile("other.csv").toPath();
+        final List<String> entries;
+
+        try (CheckpointJournal journal = new CheckpointJournal(myTempFolder.getRoot().toPath(), false)) {
+            journal.checkpoint(other, CheckpointJournal.getVersion(other), 1, 1);
+            Files.delete(other);
+
+            for (int index = 0; index < 1500; index++) {
+                journal.checkpoint(mySource, CheckpointJournal.getVersion(mySource), index, index);
+            }
+
+            journal.complete(mySource, CheckpointJournal.getVersion(mySource));
+            entries = Files.readAllLines(journal.getPath(), UTF_8);
+
+            assertEquals(journal.getEntryCount(), entries.size());
+        }
+
+        assertTrue(entries.size() < 1000);
+        assertFalse(entries.stream().anyMatch(entry -> entry.contains(other.toString())));
+
+        try (CheckpointJournal journal = new CheckpointJournal(myTempFolder.getRoot().toPath(), true)) {
+            assertTrue(journal.isComplete(mySource));
+        }
+    }
+
+    private static Path partOf(final Path aOutput) {
+        return aOutput.resolveSibling(aOutput.getFileName() + CheckpointedCsvWriter.PART_EXTENSION);
+    }
+}
@@ -0,0 +1,52 @@
+
+package edu.ucla.library.services.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+/**
+ * Tests of CsvSummary.
+ */
+public class CsvSummaryTest {
+
+    private static final Path CSV_FILE = Path.of("src/test/resources/good_csvs/sales.csv");
+
+    /**
+     * Tests that rows written by an earlier run aren't counted as rows that were already enriched.
+     */
+    @Test
+    public void testResumedRowsAreNotSkipped() {
+        final CsvSummary summary = new CsvSummary(CSV_FILE);
+
+        summary.start();
+        summary.rowResumed();
+        summary.rowWritten();
+        summary.rowSkipped();
+        summary.rowWritten();
+        summary.succeed();
+
+        assertEquals(1, summary.getResumedCount());
+        assertEquals(1, summary.getSkippedCount());
+        assertEquals(2, summary.getRowCount());
+        assertTrue(summary.toString(), summary.toString().contains("1 written by an earlier run"));
+    }
+
+    /**
+     * Tests that the summary of a run that wasn't resumed doesn't mention an earlier run.
+     */
+    @Test
+    public void testSummaryWithoutResumedRows() {
+        final CsvSummary summary = new CsvSummary(CSV_FILE);
+
+        summary.start();
+        summary.rowWritten();
+        summary.succeed();
+
+        assertEquals(0, summary.getResumedCount());
+        assertTrue(summary.toString(), summary.toString().contains("1 rows (0 already enriched)"));
+    }
+}
@@ -0,0 +1,90 @@
+
+package edu.ucla.library.services.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of CsvValidator.
+ */
+public class CsvValidatorTest {
+
+    private static final String TEST_FIXTURES_DIR = "src/test/resources/";
+
+    private static final MediaPathResolver RESOLVER =
+            new MediaPathResolver(List.of(TEST_FIXTURES_DIR + "media/"), false);
+
+    private static final String HEADER_ROW = "Item ARK,Object Type,File Name";
+
+    /**
+     * A folder for the test CSV files.
+     */
+    @Rule
+    public final TemporaryFolder myTempFolder = new TemporaryFolder();
+
+    /**
+     * Tests that a media file missing from the mounts is reported without being treated as stopping the CSV file.
+     *
+     * @throws Exception If the CSV file can't be validated
+     */
+    @Test
+    public void testMissingMediaFile() throws Exception {
+        final CsvValidator.Report report = new CsvValidator(RESOLVER, false, 2)
+                .validate(List.of(Path.of(TEST_FIXTURES_DIR, "good_csvs/sales.csv")));
+        final List<String> problems = report.getProblems();
+
+        assertEquals(1, problems.size());
+        assertTrue(problems.get(0).contains("ephraim/audio/21198-zz000954s4-2-submaster.mp3"));
+        assertEquals(0, report.getStoppingProblemCount());
+    }
+
+    /**
+     * Tests that a CSV file without a File Name column is reported as stopping the CSV file.
+     *
+     * @throws Exception If the CSV file can't be validated
+     */
+    @Test
+    public void testMissingColumn() throws Exception {
+        final CsvValidator.Report report = new CsvValidator(RESOLVER, false, 2)
+                .validate(List.of(Path.of(TEST_FIXTURES_DIR, "bad_csvs/missing-file-name.csv")));
+
+        assertEquals(1, report.getProblems().size());
+        assertTrue(report.getProblems().get(0).contains(Constants.HEADER_NAME));
+        assertEquals(1, report.getStoppingProblemCount());
+    }
+
+    /**
+     * Tests that the rows' problems are all found, in order across CSV files, and that Collection rows and rows
+     * without media files are skipped.
+     *
+     * @throws Exception If the CSV files can't be written or validated
+     */
+    @Test
+    public void testRowProblems() throws Exception {
+        final Path first = newCsvFile("a.csv", HEADER_ROW, "ark:/1,Work,ephraim/video/crowd.mpg",
+                "ark:/2,Work,ephraim/video/crowd", "ark:/3,Work", "ark:/4,Collection,", "ark:/5,Work,");
+        final Path second = newCsvFile("b.csv", HEADER_ROW, "ark:/6,Work,ephraim/video/missing.mpg",
+                "ark:/7,Work,ephraim/video/missing~1.mpg");
+        final CsvValidator.Report report = new CsvValidator(RESOLVER, false, 2).validate(List.of(second, first));
+        final List<String> problems = report.getProblems();
+
+        assertEquals(4, problems.size());
+        assertTrue(problems.get(0).startsWith(first + ", line 3:"));
+        assertTrue(problems.get(1).startsWith(first + ", line 4:"));
+        assertTrue(problems.get(2).startsWith(second + ", line 2:"));
+        assertTrue(problems.get(3).startsWith(second + ", line 3:"));
+        assertEquals(3, report.getStoppingProblemCount());
+    }
+
+    private Path newCsvFile(final String aName, final String... aLines) throws Exception {
+        return Files.write(myTempFolder.getRoot().toPath().resolve(aName), List.of(aLines));
+    }
+}
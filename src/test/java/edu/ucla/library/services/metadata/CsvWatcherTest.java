@@ -0,0 +1,108 @@
+
+package edu.ucla.library.services.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of CsvWatcher.
+ */
+public class CsvWatcherTest {
+
+    private static final BiPredicate<Path, BasicFileAttributes> CSV_FILES =
+            (path, attributes) -> attributes.isRegularFile() && path.toString().endsWith(".csv");
+
+    private static final long QUIET_PERIOD = 300;
+
+    /**
+     * A folder for the watched CSV files.
+     */
+    @Rule
+    public final TemporaryFolder myTempFolder = new TemporaryFolder();
+
+    /**
+     * Tests that a new CSV file is reported, and other new files aren't.
+     *
+     * @throws IOException If the test files can't be written
+     * @throws InterruptedException If the test is interrupted while waiting
+     */
+    @Test(timeout = 10_000)
+    public void testNewCsvFile() throws IOException, InterruptedException {
+        final Path dir = myTempFolder.getRoot().toPath();
+
+        try (CsvWatcher watcher = new CsvWatcher(dir, CSV_FILES, QUIET_PERIOD)) {
+            Files.writeString(dir.resolve("notes.txt"), "Not a CSV file");
+            Files.writeString(dir.resolve("new.csv"), "File Name\n");
+
+            assertEquals(List.of(dir.resolve("new.csv")), watcher.take());
+        }
+    }
+
+    /**
+     * Tests that a CSV file isn't reported until it has stopped being written.
+     *
+     * @throws Exception If the test file can't be written or the test is interrupted while waiting
+     */
+    @Test(timeout = 10_000)
+    public void testPartlyWrittenCsvFile() throws Exception {
+        final Path dir = myTempFolder.getRoot().toPath();
+        final Path csvFile = dir.resolve("slow.csv");
+
+        try (CsvWatcher watcher = new CsvWatcher(dir, CSV_FILES, QUIET_PERIOD);
+                Writer writer = Files.newBufferedWriter(csvFile)) {
+            final CompletableFuture<Long> reportTime = CompletableFuture.supplyAsync(() -> {
+                try {
+                    watcher.take();
+                    return System.nanoTime();
+                } catch (final InterruptedException details) {
+                    throw new CompletionException(details);
+                }
+            });
+            final long lastWriteTime;
+
+            for (int index = 0; index < 5; index++) {
+                Thread.sleep(QUIET_PERIOD / 2);
+                writer.write("row " + index + "\n");
+                writer.flush();
+            }
+
+            lastWriteTime = System.nanoTime();
+
+            assertTrue(reportTime.get() - lastWriteTime >= TimeUnit.MILLISECONDS.toNanos(QUIET_PERIOD * 9 / 10));
+        }
+    }
+
+    /**
+     * Tests that a CSV file in a directory created after the watch started is reported.
+     *
+     * @throws IOException If the test files can't be written
+     * @throws InterruptedException If the test is interrupted while waiting
+     */
+    @Test(timeout = 10_000)
+    public void testCsvFileInNewDir() throws IOException, InterruptedException {
+        final Path dir = myTempFolder.getRoot().toPath();
+
+        try (CsvWatcher watcher = new CsvWatcher(dir, CSV_FILES, QUIET_PERIOD)) {
+            final Path subDir = Files.createDirectories(dir.resolve("exports/today"));
+
+            Files.writeString(subDir.resolve("deep.csv"), "File Name\n");
+
+            assertEquals(List.of(subDir.resolve("deep.csv")), watcher.take());
+        }
+    }
+}
@@ -0,0 +1,200 @@
+
+package edu.ucla.library.services.metadata;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of HeaderMediaProber.
+ */
+public class HeaderMediaProberTest {
+
+    private static final String TEST_MEDIA_DIR = "src/test/resources/media/ephraim/";
+
+    private static final MediaInfo FALLBACK_INFO = new MediaInfo("fallback", 1, 2, 3);
+
+    private static final double DELTA = 0.001;
+
+    /**
+     * A folder for the media files created by the tests.
+     */
+    @Rule
+    public final TemporaryFolder myTempFolder = new TemporaryFolder();
+
+    private final AtomicInteger myFallbackCount = new AtomicInteger();
+
+    private final HeaderMediaProber myProber = new HeaderMediaProber(path -> {
+        myFallbackCount.incrementAndGet();
+        return FALLBACK_INFO;
+    });
+
+    /**
+     * Tests reading the duration of a WAV file.
+     *
+     * @throws IOException If the test file can't be written or read
+     */
+    @Test
+    public void testProbeWav() throws IOException {
+        final ByteBuffer wav = ByteBuffer.allocate(44 + 88_200).order(ByteOrder.LITTLE_ENDIAN);
+
+        wav.put(ascii("RIFF")).putInt(36 + 88_200).put(ascii("WAVE"));
+        wav.put(ascii("fmt ")).putInt(16).putShort((short) 1).putShort((short) 2).putInt(22_050).putInt(88_200)
+                .putShort((short) 4).putShort((short) 16);
+        wav.put(ascii("data")).putInt(88_200);
+
+        final MediaInfo mediaInfo = myProber.probe(write("audio.wav", wav));
+
+        assertEquals("wav", mediaInfo.getFormatName());
+        assertEquals(1.0, mediaInfo.getDuration(), DELTA);
+        assertEquals(0, myFallbackCount.get());
+    }
+
+    /**
+     * Tests reading the duration of an AIFF file.
+     *
+     * @throws IOException If the test file can't be written or read
+     */
+    @Test
+    public void testProbeAiff() throws IOException {
+        final ByteBuffer aiff = ByteBuffer.allocate(12 + 26);
+
+        aiff.put(ascii("FORM")).putInt(4 + 26).put(ascii("AIFF"));
+        aiff.put(ascii("COMM")).putInt(18).putShort((short) 1).putInt(24_000).putShort((short) 16);
+        aiff.putShort((short) 0x400E).putLong(0xBB80_0000_0000_0000L); // 48,000 as an 80 bit extended number
+
+        final MediaInfo mediaInfo = myProber.probe(write("audio.aiff", aiff));
+
+        assertEquals("aiff", mediaInfo.getFormatName());
+        assertEquals(0.5, mediaInfo.getDuration(), DELTA);
+    }
+
+    /**
+     * Tests reading the duration of an MP3 file from its Xing frame.
+     *
+     * @throws IOException If the test file can't be written or read
+     */
+    @Test
+    public void testProbeMp3WithXingFrame() throws IOException {
+        final ByteBuffer mp3 = ByteBuffer.allocate(417 * 2);
+
+        // An MPEG 1 layer III frame at 128 kbps and 44.1 kHz, whose Xing header says there are 441 frames
+        mp3.putInt(0xFFFB_9064).position(4 + 32);
+        mp3.put(ascii("Xing")).putInt(1).putInt(441);
+
+        final MediaInfo mediaInfo = myProber.probe(write("audio.mp3", mp3));
+
+        assertEquals("mp3", mediaInfo.getFormatName());
+        assertEquals(441 * 1152 / 44_100.0, mediaInfo.getDuration(), DELTA);
+        assertEquals(0, myFallbackCount.get());
+    }
+
+    /**
+     * Tests estimating the duration of a constant bit rate MP3 file from its size.
+     *
+     * @throws IOException If the test file can't be written or read
+     */
+    @Test
+    public void testProbeMp3WithConstantBitRate() throws IOException {
+        final ByteBuffer mp3 = ByteBuffer.allocate(417 * 3);
+
+        mp3.putInt(0, 0xFFFB_9064).putInt(417, 0xFFFB_9064).putInt(834, 0xFFFB_9064);
+
+        assertEquals(417 * 3 * 8 / 128_000.0, myProber.probe(write("cbr.mp3", mp3)).getDuration(), DELTA);
+    }
+
+    /**
+     * Tests reading the duration and dimensions of an MP4 file.
+     *
+     * @throws IOException If the test file can't be written or read
+     */
+    @Test
+    public void testProbeMp4() throws IOException {
+        final ByteBuffer mp4 = ByteBuffer.allocate(512);
+
+        mp4.putInt(16).put(ascii("ftypisom")).putInt(512);
+        mp4.putInt(8 + 108 + 8 + 92 + 8 + 8 + 20).put(ascii("moov"));
+        mp4.putInt(108).put(ascii("mvhd")).putInt(0).putInt(0).putInt(0).putInt(600).putInt(1500)
+                .position(mp4.position() + 80);
+        mp4.putInt(8 + 92 + 8 + 8 + 20).put(ascii("trak"));
+        mp4.putInt(92).put(ascii("tkhd")).position(mp4.position() + 76);
+        mp4.putInt(640 << 16).putInt(480 << 16);
+        mp4.putInt(8 + 8 + 20).put(ascii("mdia"));
+        mp4.putInt(8 + 20).put(ascii("hdlr")).putInt(0).putInt(0).put(ascii("vide"));
+
+        final MediaInfo mediaInfo = myProber.probe(write("video.mp4", mp4));
+
+        assertEquals(2.5, mediaInfo.getDuration(), DELTA);
+        assertEquals(640, mediaInfo.getWidth());
+        assertEquals(480, mediaInfo.getHeight());
+        assertEquals("video/mp4", MimeTypeDetector.detect(Path.of("video"), mediaInfo.getFormatName()));
+    }
+
+    /**
+     * Tests reading the dimensions of a PNG file.
+     *
+     * @throws IOException If the test file can't be written or read
+     */
+    @Test
+    public void testProbePng() throws IOException {
+        final ByteBuffer png = ByteBuffer.allocate(33);
+
+        png.putLong(0x8950_4E47_0D0A_1A0AL).putInt(13).put(ascii("IHDR")).putInt(300).putInt(200);
+
+        final MediaInfo mediaInfo = myProber.probe(write("image.png", png));
+
+        assertEquals(300, mediaInfo.getWidth());
+        assertEquals(200, mediaInfo.getHeight());
+    }
+
+    /**
+     * Tests reading the dimensions of a JPEG file.
+     *
+     * @throws IOException If the test file can't be read
+     */
+    @Test
+    public void testProbeJpeg() throws IOException {
+        final Path jpeg = Path.of(TEST_MEDIA_DIR, "images/uclamss_1411_0101-0103i.jpg");
+        final BufferedImage image = ImageIO.read(jpeg.toFile());
+        final MediaInfo mediaInfo = myProber.probe(jpeg);
+
+        assertEquals(image.getWidth(), mediaInfo.getWidth());
+        assertEquals(image.getHeight(), mediaInfo.getHeight());
+        assertEquals(0, myFallbackCount.get());
+    }
+
+    /**
+     * Tests that formats that can't be read from their headers are passed on to the fallback prober.
+     *
+     * @throws IOException If the test file can't be read
+     */
+    @Test
+    public void testProbeFallsBack() throws IOException {
+        assertEquals(FALLBACK_INFO, myProber.probe(Path.of(TEST_MEDIA_DIR, "video/crowd.mpg")));
+        assertEquals(1, myFallbackCount.get());
+    }
+
+    private Path write(final String aFileName, final ByteBuffer aBuffer) throws IOException {
+        final Path path = myTempFolder.getRoot().toPath().resolve(aFileName);
+
+        Files.write(path, aBuffer.array());
+        return path;
+    }
+
+    private static byte[] ascii(final String aString) {
+        return aString.getBytes(ISO_8859_1);
+    }
+}
@@ -0,0 +1,54 @@
+
+package edu.ucla.library.services.metadata;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests of LatencyHistogram.
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Tests that percentiles are reported to within the histogram's precision.
+     */
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        for (long millis = 1; millis <= 1000; millis++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), histogram.getPercentile(0.5), 0.07 * 500_000_000);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(990), histogram.getPercentile(0.99), 0.07 * 990_000_000);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), histogram.getMax());
+        assertEquals(500_500_000L, histogram.getMean());
+    }
+
+    /**
+     * Tests that a percentile is never reported as more than the largest latency.
+     */
+    @Test
+    public void testPercentileIsCappedAtMax() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(1025));
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(1025), histogram.getPercentile(0.99));
+    }
+
+    /**
+     * Tests that an empty histogram reports zeros.
+     */
+    @Test
+    public void testEmptyHistogram() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(0, histogram.getMean());
+    }
+}
@@ -0,0 +1,126 @@
+
+package edu.ucla.library.services.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of MediaPathResolver.
+ */
+public class MediaPathResolverTest {
+
+    private static final String TEST_FIXTURES_DIR = "src/test/resources/";
+
+    private static final List<String> MEDIA_PATHS =
+            List.of(TEST_FIXTURES_DIR + "media2/", TEST_FIXTURES_DIR + "media/");
+
+    private static final String VIDEO_FILE = "ephraim/video/crowd.mpg";
+
+    private static final String BAD_MP3_FILE = "bad-mp3-file.mp3";
+
+    /**
+     * A folder for a mount to which media files are added by the tests.
+     */
+    @Rule
+    public final TemporaryFolder myTempFolder = new TemporaryFolder();
+
+    /**
+     * Tests resolving file names by checking the mounts in order.
+     *
+     * @throws FileNotFoundException If a test fixture can't be found
+     */
+    @Test
+    public void testResolve() throws FileNotFoundException {
+        final MediaPathResolver resolver = new MediaPathResolver(MEDIA_PATHS, false);
+
+        assertEquals(Path.of(TEST_FIXTURES_DIR, "media", VIDEO_FILE), resolver.resolve(VIDEO_FILE));
+        assertEquals(Path.of(TEST_FIXTURES_DIR, "media2", BAD_MP3_FILE), resolver.resolve(BAD_MP3_FILE));
+        assertEquals(0, resolver.getIndexSize());
+    }
+
+    /**
+     * Tests resolving file names from an index of the mounts.
+     *
+     * @throws FileNotFoundException If a test fixture can't be found
+     */
+    @Test
+    public void testResolveWithIndex() throws FileNotFoundException {
+        final MediaPathResolver resolver = new MediaPathResolver(MEDIA_PATHS, true);
+
+        assertTrue(resolver.getIndexSize() > 0);
+        assertEquals(Path.of(TEST_FIXTURES_DIR, "media", VIDEO_FILE), resolver.resolve(VIDEO_FILE));
+        assertEquals(Path.of(TEST_FIXTURES_DIR, "media2", BAD_MP3_FILE), resolver.resolve(BAD_MP3_FILE));
+    }
+
+    /**
+     * Tests that the mount each file name was resolved in can be looked up, with or without an index.
+     *
+     * @throws FileNotFoundException If a test fixture can't be found
+     */
+    @Test
+    public void testGetMount() throws FileNotFoundException {
+        for (final boolean indexMounts : List.of(false, true)) {
+            final MediaPathResolver resolver = new MediaPathResolver(MEDIA_PATHS, indexMounts);
+
+            assertEquals(MEDIA_PATHS.get(1), resolver.getMount(resolver.resolve(VIDEO_FILE)));
+            assertEquals(MEDIA_PATHS.get(0), resolver.getMount(resolver.resolve(BAD_MP3_FILE)));
+            assertNull(resolver.getMount(Path.of(VIDEO_FILE)));
+        }
+    }
+
+    /**
+     * Tests resolving a file name that isn't in any of the mounts.
+     *
+     * @throws FileNotFoundException If the file name can't be resolved, as expected
+     */
+    @Test(expected = FileNotFoundException.class)
+    public void testResolveMissingFile() throws FileNotFoundException {
+        new MediaPathResolver(MEDIA_PATHS, true).resolve("ephraim/video/missing.mpg");
+    }
+
+    /**
+     * Tests that a file name that couldn't be resolved is resolved once its media file arrives, with or without an
+     * index.
+     *
+     * @throws IOException If the media file can't be added
+     */
+    @Test
+    public void testResolveFileAddedLater() throws IOException {
+        for (final boolean indexMounts : List.of(false, true)) {
+            final Path mount = myTempFolder.newFolder().toPath();
+            final MediaPathResolver resolver = new MediaPathResolver(List.of(mount.toString()), indexMounts);
+
+            try {
+                resolver.resolve(VIDEO_FILE);
+                fail("Expected " + VIDEO_FILE + " not to be found");
+            } catch (final FileNotFoundException details) {
+                // Expected, since the media file hasn't arrived yet
+            }
+
+            Files.createDirectories(mount.resolve(VIDEO_FILE).getParent());
+            Files.createFile(mount.resolve(VIDEO_FILE));
+
+            try {
+                resolver.resolve(VIDEO_FILE);
+                fail("Expected " + VIDEO_FILE + " to still be remembered as missing");
+            } catch (final FileNotFoundException details) {
+                // Expected, since the failed resolution hasn't been forgotten yet
+            }
+
+            resolver.forgetMissing();
+            assertEquals(mount.resolve(VIDEO_FILE), resolver.resolve(VIDEO_FILE));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+
+package edu.ucla.library.services.metadata;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of MediaPrefetcher.
+ */
+public class MediaPrefetcherTest {
+
+    private static final Path TEST_MEDIA = Path.of("src/test/resources/media/ephraim/video/crowd.mpg");
+
+    /**
+     * A folder for the files created by the tests.
+     */
+    @Rule
+    public final TemporaryFolder myTempFolder = new TemporaryFolder();
+
+    /**
+     * Tests that media files are prefetched, and a file that's missing is ignored.
+     *
+     * @throws IOException If a test file can't be written
+     */
+    @Test
+    public void testPrefetch() throws IOException {
+        final Path smallFile = Files.write(myTempFolder.newFile("small.wav").toPath(), new byte[10]);
+
+        try (MediaPrefetcher prefetcher = new MediaPrefetcher(1024 * 1024, 4)) {
+            prefetcher.prefetch(TEST_MEDIA);
+            prefetcher.prefetch(smallFile);
+            prefetcher.prefetch(myTempFolder.getRoot().toPath().resolve("missing.wav"));
+
+            assertEquals(2, prefetcher.getPrefetchCount());
+        }
+    }
+
+    /**
+     * Tests that reads beyond the limit on reads in flight wait, and that a finished read frees its place.
+     *
+     * @throws IOException If a test file can't be written
+     * @throws InterruptedException If the test is interrupted while waiting for a read to finish
+     */
+    @Test(timeout = 10_000)
+    public void testReadsAreLimited() throws IOException, InterruptedException {
+        try (MediaPrefetcher prefetcher = new MediaPrefetcher(1024, 0)) {
+            prefetcher.prefetch(TEST_MEDIA);
+            assertEquals(0, prefetcher.getPrefetchCount());
+        }
+
+        try (MediaPrefetcher prefetcher = new MediaPrefetcher(1024, 1)) {
+            final Path smallFile = Files.write(myTempFolder.newFile("small.wav").toPath(), new byte[10]);
+
+            prefetcher.prefetch(smallFile);
+
+            // Once the first read has finished, there's room for another
+            while (prefetcher.getPrefetchCount() < 2) {
+                Thread.sleep(10);
+                prefetcher.prefetch(TEST_MEDIA);
+            }
+        }
+    }
+
+    /**
+     * Tests that media files that come up while too many reads are in flight are read once earlier reads finish,
+     * without being asked for again.
+     *
+     * @throws IOException If a test file can't be written
+     * @throws InterruptedException If the test is interrupted while waiting for the reads to finish
+     */
+    @Test(timeout = 10_000)
+    public void testWaitingReadsStartLater() throws IOException, InterruptedException {
+        final Path bigFile = myTempFolder.newFile("big.wav").toPath();
+
+        try (RandomAccessFile file = new RandomAccessFile(bigFile.toFile(), "rw")) {
+            file.setLength(256L * 1024 * 1024); // Sparse, but still read a chunk at a time
+        }
+
+        try (MediaPrefetcher prefetcher = new MediaPrefetcher(Long.MAX_VALUE, 1)) {
+            prefetcher.prefetch(bigFile);
+            prefetcher.prefetch(TEST_MEDIA);
+            assertEquals(1, prefetcher.getPrefetchCount());
+
+            while (prefetcher.getPrefetchCount() < 2) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    /**
+     * Tests that nothing is prefetched after the prefetcher is closed.
+     */
+    @Test
+    public void testClosedPrefetcher() {
+        final MediaPrefetcher prefetcher = new MediaPrefetcher(1024, 4);
+
+        prefetcher.close();
+        prefetcher.prefetch(TEST_MEDIA);
+
+        assertEquals(0, prefetcher.getPrefetchCount());
+    }
+}
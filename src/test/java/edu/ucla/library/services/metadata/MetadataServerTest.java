@@ -0,0 +1,201 @@
+
+package edu.ucla.library.services.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import info.freelibrary.util.I18nRuntimeException;
+
+/**
+ * Tests of MetadataServer.
+ */
+public class MetadataServerTest {
+
+    private static final Path CSV_ROOT = Path.of("src/test/resources/good_csvs");
+
+    private static final String CSV_NAME = "sales.csv";
+
+    private static final String MEDIA_PATH = "src/test/resources/media";
+
+    private static final MediaInfo MEDIA_INFO = new MediaInfo("mpeg", 12.5, 640, 480);
+
+    private final HttpClient myClient = HttpClient.newHttpClient();
+
+    private MetadataServer myServer;
+
+    private String myBaseURL;
+
+    /**
+     * Starts a server on a free port, with a prober that doesn't need ffprobe.
+     *
+     * @throws IOException If the server can't be started
+     */
+    @Before
+    public void setUp() throws IOException {
+        final MediaPathResolver resolver = new MediaPathResolver(List.of(MEDIA_PATH), false);
+
+        myServer = new MetadataServer(new MetadataSetter(path -> MEDIA_INFO, resolver), CSV_ROOT);
+        myBaseURL = "http://127.0.0.1:" + myServer.start(new InetSocketAddress("127.0.0.1", 0), 2);
+    }
+
+    /**
+     * Stops the server.
+     */
+    @After
+    public void tearDown() {
+        myServer.stop();
+    }
+
+    /**
+     * Tests enriching an uploaded CSV file.
+     *
+     * @throws Exception If the request fails
+     */
+    @Test
+    public void testEnrichUpload() throws Exception {
+        final HttpResponse<String> response = send(HttpRequest.newBuilder(URI.create(myBaseURL + "/enrich"))
+                .POST(BodyPublishers.ofFile(CSV_ROOT.resolve(CSV_NAME))).build());
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/csv"));
+        assertTrue(response.body().contains("\"media.width\""));
+        assertTrue(response.body().contains("\"640\",\"480\""));
+    }
+
+    /**
+     * Tests enriching a CSV file named by its path in the CSV root.
+     *
+     * @throws Exception If the request fails
+     */
+    @Test
+    public void testEnrichPath() throws Exception {
+        final HttpResponse<String> response = get("/enrich?path=" + CSV_NAME);
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().contains("\"640\",\"480\""));
+    }
+
+    /**
+     * Tests that a path outside the CSV root isn't read.
+     *
+     * @throws Exception If the request fails
+     */
+    @Test
+    public void testEnrichPathOutsideRoot() throws Exception {
+        assertEquals(404, get("/enrich?path=../../../../pom.xml").statusCode());
+    }
+
+    /**
+     * Tests that an uploaded CSV file without a File Name column is rejected.
+     *
+     * @throws Exception If the request fails
+     */
+    @Test
+    public void testEnrichBadUpload() throws Exception {
+        final HttpResponse<String> response = send(HttpRequest.newBuilder(URI.create(myBaseURL + "/enrich"))
+                .POST(BodyPublishers.ofString("Title,Item ARK\nA title,ark:/21198/zz0000000\n")).build());
+
+        assertEquals(400, response.statusCode());
+    }
+
+    /**
+     * Tests that a probe that fails after some of the enriched CSV file has been sent cuts the response short, so the
+     * client sees an error rather than a complete, but truncated, CSV file.
+     *
+     * @throws Exception If the server can't be started
+     */
+    @Test
+    public void testEnrichFailsMidStream() throws Exception {
+        final MediaPathResolver resolver = new MediaPathResolver(List.of(MEDIA_PATH), false);
+        final MetadataServer server = new MetadataServer(new MetadataSetter(path -> {
+            throw new I18nRuntimeException(new IOException(path.toString()), MessageCodes.BUNDLE,
+                    MessageCodes.MG_000, path);
+        }, resolver), CSV_ROOT);
+        final StringBuilder csv = new StringBuilder("Item ARK,Object Type,File Name,Title\n");
+
+        // Enough rows without media files to fill the response's buffer, so the response has started when the
+        // probe fails
+        for (int index = 0; index < 1_000; index++) {
+            csv.append("ark:/21198/zz").append(index).append(",Work,,A title that takes up some room\n");
+        }
+
+        csv.append("ark:/21198/zz1000,Work,ephraim/video/crowd.mpg,A title\n");
+
+        try {
+            final String url = "http://127.0.0.1:" + server.start(new InetSocketAddress("127.0.0.1", 0), 2);
+
+            send(HttpRequest.newBuilder(URI.create(url + "/enrich")).POST(BodyPublishers.ofString(csv.toString()))
+                    .build());
+            fail("Expected the truncated response to fail");
+        } catch (final IOException details) {
+            // The connection was dropped before the body was complete, as expected
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Tests that only GET and POST requests are accepted.
+     *
+     * @throws Exception If the request fails
+     */
+    @Test
+    public void testMethodNotAllowed() throws Exception {
+        final HttpResponse<String> response = send(HttpRequest.newBuilder(URI.create(myBaseURL + "/enrich"))
+                .PUT(BodyPublishers.ofString("")).build());
+
+        assertEquals(405, response.statusCode());
+        assertEquals("GET, POST", response.headers().firstValue("Allow").orElse(""));
+    }
+
+    /**
+     * Tests that the metrics include the rows enriched by earlier requests.
+     *
+     * @throws Exception If a request fails
+     */
+    @Test
+    public void testMetrics() throws Exception {
+        get("/enrich?path=" + CSV_NAME);
+
+        assertEquals(200, get("/health").statusCode());
+        assertTrue(get("/metrics").body().contains("metagetter_rows_total 4"));
+    }
+
+    /**
+     * Sends a GET request to the server.
+     *
+     * @param aPath The path and query of the request
+     * @return The server's response
+     * @throws Exception If the request fails
+     */
+    private HttpResponse<String> get(final String aPath) throws Exception {
+        return send(HttpRequest.newBuilder(URI.create(myBaseURL + aPath)).GET().build());
+    }
+
+    /**
+     * Sends a request to the server.
+     *
+     * @param aRequest A request
+     * @return The server's response
+     * @throws Exception If the request fails
+     */
+    private HttpResponse<String> send(final HttpRequest aRequest) throws Exception {
+        return myClient.send(aRequest, BodyHandlers.ofString());
+    }
+}
@@ -7,18 +7,25 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.opencsv.CSVReader;
+import com.opencsv.CSVWriter;
 
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.junit.After;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.contrib.java.lang.system.SystemErrRule;
+import org.junit.rules.TemporaryFolder;
 
 import info.freelibrary.util.Logger;
 import info.freelibrary.util.LoggerFactory;
@@ -81,6 +88,12 @@ public class MetadataSetterTest {
     @Rule
     public final SystemErrRule mySystemErrRule = new SystemErrRule().enableLog();
 
+    /**
+     * Rule that provides temporary CSV and output directories.
+     */
+    @Rule
+    public final TemporaryFolder myTempFolder = new TemporaryFolder();
+
     /**
      * Cleans up after a MetadataSetter test.
      *
@@ -193,6 +206,52 @@ public class MetadataSetterTest {
         }
     }
 
+    /**
+     * Tests that media files that can't have A/V metadata, like images, aren't probed.
+     */
+    @Test
+    public void testImagesAreNotProbed() throws Exception {
+        final List<Path> probedFiles = new CopyOnWriteArrayList<>();
+        final MediaProber prober = path -> {
+            probedFiles.add(path.getFileName());
+            return new MediaInfo("mpeg", 1, 320, 240);
+        };
+        final MetadataSetter setter = new MetadataSetter(prober, new MediaPathResolver(List.of(MEDIA_PATH), false));
+
+        try (Reader reader = Files.newBufferedReader(Path.of(CSV_PATH, CSV_NAME))) {
+            setter.addMetaToCsv(reader, new StringWriter(), new CsvSummary(Path.of(CSV_NAME)));
+        }
+
+        assertEquals(List.of(Path.of("crowd.mpg")), probedFiles);
+    }
+
+    /**
+     * Tests that rows that are shorter than the header row are still enriched, with room for the media columns.
+     */
+    @Test
+    public void testShortRowsAreEnriched() throws Exception {
+        final MediaProber prober = path -> new MediaInfo("mpeg", 1, 320, 240);
+        final MetadataSetter setter = new MetadataSetter(prober, new MediaPathResolver(List.of(MEDIA_PATH), false));
+        final String csv = "Title,Object Type,File Name,Notes\nCrowd,Work,ephraim/video/crowd.mpg\nNo file,Work\n";
+        final StringWriter output = new StringWriter();
+
+        try (Reader reader = new StringReader(csv)) {
+            setter.addMetaToCsv(reader, output, new CsvSummary(Path.of(CSV_NAME)));
+        }
+
+        try (CSVReader reader = new CSVReader(new StringReader(output.toString()))) {
+            final List<String[]> rows = reader.readAll();
+            final CsvHeaders headers = new CsvHeaders(rows.get(0));
+
+            assertEquals(3, rows.size());
+            assertEquals(rows.get(0).length, rows.get(1).length);
+            assertEquals(rows.get(0).length, rows.get(2).length);
+            assertEquals("320", rows.get(1)[headers.getMediaWidthIndex()]);
+            assertEquals("240", rows.get(1)[headers.getMediaHeightIndex()]);
+            assertEquals(EMPTY, rows.get(2)[headers.getMediaWidthIndex()]);
+        }
+    }
+
     /**
      * Tests what happens when ffprobe throws an exception message.
      */
@@ -232,6 +291,171 @@ public class MetadataSetterTest {
         assertTrue(Files.exists(FileSystems.getDefault().getPath(OUTPUT_PATH + CSV_NAME)));
     }
 
+    /**
+     * Tests happy path with a CSV file supplied and rows probed by multiple threads.
+     */
+    @Test
+    public void testGetMetaWithThreads() throws Exception {
+        final int statusCode = catchSystemExit(() -> {
+            MetadataSetter.main(
+                    new String[] { "--threads", "4", CSV_PATH + CSV_NAME, MEDIA_PATH, FFMPEG_PATH, OUTPUT_PATH });
+        });
+        final Path updatedCsv = FileSystems.getDefault().getPath(OUTPUT_PATH + CSV_NAME);
+
+        assertEquals(ExitCodes.SUCCESS, statusCode);
+
+        try (CSVReader reader = new CSVReader(new FileReader(updatedCsv.toFile()));
+                CSVReader source = new CSVReader(new FileReader(CSV_PATH + CSV_NAME))) {
+            final List<String[]> rows = reader.readAll();
+            final List<String[]> sourceRows = source.readAll();
+            final CsvHeaders headers = new CsvHeaders(rows.get(0));
+
+            // Rows must be written back in the order in which they were read
+            assertEquals(sourceRows.size(), rows.size());
+
+            for (int index = 1; index < rows.size(); index++) {
+                assertEquals(sourceRows.get(index)[headers.getFileNameIndex()], rows.get(index)[headers
+                        .getFileNameIndex()]);
+            }
+
+            assertEquals("video/mpeg", rows.get(4)[headers.getMediaFormatIndex()]);
+        } catch (final IOException details) {
+            fail(details.getMessage());
+        }
+    }
+
+    /**
+     * Tests happy path with a directory with CSV files processed concurrently, including CSV files with the same name
+     * in different subdirectories, each of which should get the same output as when it's processed on its own.
+     */
+    @Test
+    public void testGetMetaWithDirWithCsvParallelism() throws Exception {
+        final Path csvDir = myTempFolder.newFolder().toPath();
+        final Path outputDir = myTempFolder.newFolder().toPath();
+        final Path expectedDir = myTempFolder.newFolder().toPath();
+        final List<String> lines = Files.readAllLines(Path.of(CSV_PATH, CSV_NAME));
+        final int statusCode;
+
+        Files.createDirectories(csvDir.resolve("a"));
+        Files.createDirectories(csvDir.resolve("b"));
+        Files.write(csvDir.resolve("a").resolve(CSV_NAME), lines);
+        Files.write(csvDir.resolve("b").resolve(CSV_NAME), lines.subList(0, 3));
+
+        statusCode = catchSystemExit(() -> {
+            MetadataSetter.main(new String[] { "--csv-parallelism", "2", "--threads", "2", csvDir.toString(),
+                MEDIA_PATH, FFMPEG_PATH, outputDir.toString() });
+        });
+        assertEquals(ExitCodes.SUCCESS, statusCode);
+
+        for (final String subdir : List.of("a", "b")) {
+            final Path expectedFile = expectedDir.resolve(subdir).resolve(CSV_NAME);
+
+            catchSystemExit(() -> {
+                MetadataSetter.main(new String[] { csvDir.resolve(subdir).resolve(CSV_NAME).toString(), MEDIA_PATH,
+                    FFMPEG_PATH, expectedFile.getParent().toString() });
+            });
+            assertEquals(Files.readAllLines(expectedFile),
+                    Files.readAllLines(outputDir.resolve(subdir).resolve(CSV_NAME)));
+        }
+    }
+
+    /**
+     * Tests an unusable CSV parallelism.
+     */
+    @Test
+    public void testInvalidCsvParallelism() throws Exception {
+        final int statusCode = catchSystemExit(() -> {
+            MetadataSetter.main(new String[] { "--csv-parallelism", "-1", CSV_PATH, MEDIA_PATH, FFMPEG_PATH,
+                OUTPUT_PATH });
+        });
+        assertEquals(ExitCodes.INVALID_OPTION, statusCode);
+        assertEquals(LOGGER.getMessage(MessageCodes.MG_110, "--csv-parallelism", -1),
+                mySystemErrRule.getLog().trim());
+    }
+
+    /**
+     * Tests that the lean probe populates the same media fields as the default probe.
+     */
+    @Test
+    public void testGetMetaWithLeanProbe() throws Exception {
+        final int statusCode = catchSystemExit(() -> {
+            MetadataSetter.main(new String[] { "--lean-probe", CSV_PATH + CSV_NAME, MEDIA_PATH, FFMPEG_PATH,
+                OUTPUT_PATH });
+        });
+        final Path updatedCsv = FileSystems.getDefault().getPath(OUTPUT_PATH + CSV_NAME);
+
+        assertEquals(ExitCodes.SUCCESS, statusCode);
+
+        try (CSVReader reader = new CSVReader(new FileReader(updatedCsv.toFile()))) {
+            final List<String[]> rows = reader.readAll();
+            final CsvHeaders headers = new CsvHeaders(rows.get(0));
+
+            // Nb: values come from src/test/resources/media/ephraim/video/crowd.mpg
+            assertEquals("video/mpeg", rows.get(4)[headers.getMediaFormatIndex()]);
+            assertTrue(!rows.get(4)[headers.getMediaWidthIndex()].trim().equals(EMPTY));
+            assertTrue(!rows.get(4)[headers.getMediaHeightIndex()].trim().equals(EMPTY));
+            assertTrue(!rows.get(4)[headers.getMediaDurationIndex()].trim().equals(EMPTY));
+        } catch (final IOException details) {
+            fail(details.getMessage());
+        }
+    }
+
+    /**
+     * Tests that an incremental run leaves rows that already have A/V metadata as they are.
+     */
+    @Test
+    public void testGetMetaIncrementally() throws Exception {
+        final String alreadySet = "video/x-already-set";
+        final Path inputDir = Files.createTempDirectory("metagetter-input");
+        final Path outputDir = Files.createTempDirectory("metagetter-output");
+        final Path inputCsv = inputDir.resolve(CSV_NAME);
+        final Path updatedCsv = outputDir.resolve(CSV_NAME);
+
+        try {
+            assertEquals(ExitCodes.SUCCESS, catchSystemExit(() -> {
+                MetadataSetter.main(new String[] { CSV_PATH + CSV_NAME, MEDIA_PATH, FFMPEG_PATH, OUTPUT_PATH });
+            }));
+
+            // Mark an already enriched row so we can tell whether it's probed again
+            try (CSVReader reader = new CSVReader(new FileReader(OUTPUT_PATH + CSV_NAME));
+                    CSVWriter writer = new CSVWriter(new FileWriter(inputCsv.toFile()))) {
+                final List<String[]> rows = reader.readAll();
+
+                rows.get(4)[new CsvHeaders(rows.get(0)).getMediaFormatIndex()] = alreadySet;
+                writer.writeAll(rows);
+            }
+
+            assertEquals(ExitCodes.SUCCESS, catchSystemExit(() -> {
+                MetadataSetter.main(new String[] { "--incremental", inputCsv.toString(), MEDIA_PATH, FFMPEG_PATH,
+                    outputDir.toString() });
+            }));
+
+            try (CSVReader reader = new CSVReader(new FileReader(updatedCsv.toFile()))) {
+                final List<String[]> rows = reader.readAll();
+
+                assertEquals(alreadySet, rows.get(4)[new CsvHeaders(rows.get(0)).getMediaFormatIndex()]);
+            }
+        } finally {
+            Files.deleteIfExists(inputCsv);
+            Files.deleteIfExists(updatedCsv);
+            Files.deleteIfExists(inputDir);
+            Files.deleteIfExists(outputDir);
+        }
+    }
+
+    /**
+     * Tests an unusable number of threads.
+     */
+    @Test
+    public void testInvalidThreads() throws Exception {
+        final int statusCode = catchSystemExit(() -> {
+            MetadataSetter.main(
+                    new String[] { "--threads", "0", CSV_PATH + CSV_NAME, MEDIA_PATH, FFMPEG_PATH, OUTPUT_PATH });
+        });
+        assertEquals(ExitCodes.INVALID_OPTION, statusCode);
+        assertEquals(LOGGER.getMessage(MessageCodes.MG_110, "--threads", 0), mySystemErrRule.getLog().trim());
+    }
+
     /**
      * Tests nonexistent path for CSV file(s).
      */
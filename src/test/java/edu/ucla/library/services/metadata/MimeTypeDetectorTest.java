@@ -0,0 +1,58 @@
+
+package edu.ucla.library.services.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+/**
+ * Tests of MimeTypeDetector.
+ */
+public class MimeTypeDetectorTest {
+
+    /**
+     * Tests detecting MIME types from file extensions.
+     */
+    @Test
+    public void testDetectFromExtension() {
+        assertEquals("audio/mpeg", MimeTypeDetector.detect(Path.of("ephraim/audio/submaster.mp3"), "mp3"));
+        assertEquals("video/mpeg", MimeTypeDetector.detect(Path.of("ephraim/video/crowd.MPG"), null));
+        assertEquals("image/jpeg", MimeTypeDetector.detect(Path.of("ephraim/images/image.jpg"), "image2"));
+    }
+
+    /**
+     * Tests detecting MIME types from format names when the extension isn't recognized.
+     */
+    @Test
+    public void testDetectFromFormatName() {
+        assertEquals("video/mp4", MimeTypeDetector.detect(Path.of("master.unknown"), "mov,mp4,m4a,3gp,3g2,mj2"));
+        assertEquals("audio/x-wav", MimeTypeDetector.detect(Path.of("master.bwf"), "wav"));
+    }
+
+    /**
+     * Tests that an unrecognized media file gets the default MIME type rather than null.
+     */
+    @Test
+    public void testDetectUnrecognized() {
+        assertEquals(MimeTypeDetector.DEFAULT_MIME_TYPE, MimeTypeDetector.detect(Path.of("master.xyz"), "xyz"));
+        assertEquals(MimeTypeDetector.DEFAULT_MIME_TYPE, MimeTypeDetector.detect(Path.of("master"), null));
+    }
+
+    /**
+     * Tests that only media files whose extensions are recognized as something other than audio or video are judged
+     * unable to have A/V metadata.
+     */
+    @Test
+    public void testMayBeAudioOrVideo() {
+        assertTrue(MimeTypeDetector.mayBeAudioOrVideo(Path.of("ephraim/audio/submaster.mp3")));
+        assertTrue(MimeTypeDetector.mayBeAudioOrVideo(Path.of("ephraim/video/crowd.MPG")));
+        assertTrue(MimeTypeDetector.mayBeAudioOrVideo(Path.of("master.bwf")));
+        assertFalse(MimeTypeDetector.mayBeAudioOrVideo(Path.of("ephraim/images/uclamss_1411_0101-0103i.jpg")));
+        assertFalse(MimeTypeDetector.mayBeAudioOrVideo(Path.of("ephraim/images/master.TIF")));
+        assertFalse(MimeTypeDetector.mayBeAudioOrVideo(Path.of("ephraim/finding-aid.pdf")));
+    }
+}
@@ -0,0 +1,143 @@
+
+package edu.ucla.library.services.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+/**
+ * Tests of MountLimiter.
+ */
+public class MountLimiterTest {
+
+    private static final String FAST_MOUNT = "/mnt/ssd";
+
+    private static final String SLOW_MOUNT = "/mnt/nas";
+
+    private static final int MAX_LIMIT = 8;
+
+    private static final long LATENCY = 1_000;
+
+    /**
+     * Tests that a mount's limit grows while its probes are quick and hold it back, up to the maximum.
+     *
+     * @throws InterruptedException If the test is interrupted
+     */
+    @Test
+    public void testLimitGrows() throws InterruptedException {
+        final MountLimiter limiter = new MountLimiter(MAX_LIMIT);
+
+        assertEquals(0, limiter.getLimit(FAST_MOUNT));
+        saturate(limiter, FAST_MOUNT, LATENCY);
+        assertEquals(MAX_LIMIT, limiter.getLimit(FAST_MOUNT));
+    }
+
+    /**
+     * Tests that a mount's limit is halved when its probes slow down, and only that mount's.
+     *
+     * @throws InterruptedException If the test is interrupted
+     */
+    @Test
+    public void testSlowProbeCutsLimit() throws InterruptedException {
+        final MountLimiter limiter = new MountLimiter(MAX_LIMIT);
+
+        saturate(limiter, FAST_MOUNT, LATENCY);
+        saturate(limiter, SLOW_MOUNT, LATENCY);
+
+        limiter.acquire(SLOW_MOUNT);
+        limiter.release(SLOW_MOUNT, LATENCY * 10, true);
+
+        assertEquals(MAX_LIMIT / 2, limiter.getLimit(SLOW_MOUNT));
+        assertEquals(MAX_LIMIT, limiter.getLimit(FAST_MOUNT));
+        assertEquals(2, limiter.getSummary().size());
+    }
+
+    /**
+     * Tests that the ordinary spread of a mount's probe latencies, e.g. from a mix of small and large files, isn't
+     * taken for congestion.
+     *
+     * @throws InterruptedException If the test is interrupted
+     */
+    @Test
+    public void testMixedLatenciesDontCutLimit() throws InterruptedException {
+        final MountLimiter limiter = new MountLimiter(MAX_LIMIT);
+
+        saturate(limiter, SLOW_MOUNT, LATENCY, LATENCY * 5, LATENCY / 10);
+        assertEquals(MAX_LIMIT, limiter.getLimit(SLOW_MOUNT));
+    }
+
+    /**
+     * Tests that a mount's limit is cut once enough of its recent probes have failed, but not for an odd failure.
+     *
+     * @throws InterruptedException If the test is interrupted
+     */
+    @Test
+    public void testFailuresCutLimit() throws InterruptedException {
+        final MountLimiter limiter = new MountLimiter(MAX_LIMIT);
+
+        saturate(limiter, SLOW_MOUNT, LATENCY);
+
+        for (int count = 0; count < 2; count++) {
+            limiter.acquire(SLOW_MOUNT);
+            limiter.release(SLOW_MOUNT, LATENCY, false);
+            assertEquals(MAX_LIMIT, limiter.getLimit(SLOW_MOUNT));
+        }
+
+        limiter.acquire(SLOW_MOUNT);
+        limiter.release(SLOW_MOUNT, LATENCY, false);
+        assertEquals(MAX_LIMIT / 2, limiter.getLimit(SLOW_MOUNT));
+    }
+
+    /**
+     * Tests that a probe waits while its mount is at its limit, and goes ahead when a turn is given back.
+     *
+     * @throws Exception If the test is interrupted or the waiting probe fails
+     */
+    @Test(timeout = 10_000)
+    public void testProbeWaitsForTurn() throws Exception {
+        final MountLimiter limiter = new MountLimiter(MAX_LIMIT);
+        final CompletableFuture<Void> waiter;
+
+        limiter.acquire(SLOW_MOUNT);
+        waiter = CompletableFuture.runAsync(() -> {
+            try {
+                limiter.acquire(SLOW_MOUNT);
+            } catch (final InterruptedException details) {
+                throw new IllegalStateException(details);
+            }
+        });
+
+        try {
+            waiter.get(200, TimeUnit.MILLISECONDS);
+            throw new AssertionError("Expected the second probe to wait");
+        } catch (final TimeoutException details) {
+            limiter.cancel(SLOW_MOUNT);
+        }
+
+        waiter.get();
+        assertTrue(waiter.isDone());
+        assertEquals(1, limiter.getLimit(SLOW_MOUNT));
+    }
+
+    private static void saturate(final MountLimiter aLimiter, final String aMount, final long... aLatencies)
+            throws InterruptedException {
+        int probeCount = 0;
+
+        for (int round = 0; round < MAX_LIMIT * MAX_LIMIT; round++) {
+            final int limit = aLimiter.getLimit(aMount) == 0 ? 1 : aLimiter.getLimit(aMount);
+
+            for (int count = 0; count < limit; count++) {
+                aLimiter.acquire(aMount);
+            }
+
+            for (int count = 0; count < limit; count++) {
+                aLimiter.release(aMount, aLatencies[probeCount++ % aLatencies.length], true);
+            }
+        }
+    }
+}
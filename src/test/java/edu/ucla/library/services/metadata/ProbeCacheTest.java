@@ -0,0 +1,158 @@
+
+package edu.ucla.library.services.metadata;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of ProbeCache.
+ */
+public class ProbeCacheTest {
+
+    private static final MediaInfo MEDIA_INFO = new MediaInfo("mp3", 757.21, 0, 0);
+
+    /**
+     * A folder for the cache store and media files created by the tests.
+     */
+    @Rule
+    public final TemporaryFolder myTempFolder = new TemporaryFolder();
+
+    private final AtomicInteger myProbeCount = new AtomicInteger();
+
+    private Path myStoreFile;
+
+    private Path myMediaFile;
+
+    /**
+     * Sets up the test's cache store and media file.
+     *
+     * @throws IOException If the test files can't be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        myStoreFile = myTempFolder.getRoot().toPath().resolve("probe-cache.tsv");
+        myMediaFile = myTempFolder.newFile("media.mp3").toPath();
+        Files.write(myMediaFile, "not really an mp3".getBytes(UTF_8));
+    }
+
+    /**
+     * Tests that an unchanged media file is only probed once.
+     *
+     * @throws IOException If the cache can't be read
+     */
+    @Test
+    public void testGetCachesProbeResult() throws IOException {
+        final ProbeCache cache = new ProbeCache(myStoreFile, false, false);
+
+        assertEquals(MEDIA_INFO, cache.get(myMediaFile, this::probe));
+        assertEquals(MEDIA_INFO, cache.get(myMediaFile, this::probe));
+        assertEquals(1, myProbeCount.get());
+    }
+
+    /**
+     * Tests that cached probe results are reused across cache instances once they've been saved.
+     *
+     * @throws IOException If the cache can't be read or written
+     */
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        final ProbeCache cache = new ProbeCache(myStoreFile, true, false);
+        final MediaInfo loaded;
+
+        cache.get(myMediaFile, this::probe);
+        cache.save();
+
+        loaded = new ProbeCache(myStoreFile, true, false).get(myMediaFile, this::probe);
+
+        assertEquals(1, myProbeCount.get());
+        assertEquals(MEDIA_INFO.getFormatName(), loaded.getFormatName());
+        assertEquals(MEDIA_INFO.getDuration(), loaded.getDuration(), 0);
+    }
+
+    /**
+     * Tests that a media file is probed again after it's modified.
+     *
+     * @throws IOException If the cache can't be read or the media file can't be modified
+     */
+    @Test
+    public void testGetAfterModification() throws IOException {
+        final ProbeCache cache = new ProbeCache(myStoreFile, false, false);
+        final FileTime modified = Files.getLastModifiedTime(myMediaFile);
+
+        cache.get(myMediaFile, this::probe);
+        Files.write(myMediaFile, "a longer replacement for the mp3".getBytes(UTF_8));
+        Files.setLastModifiedTime(myMediaFile, FileTime.fromMillis(modified.toMillis() + 1000));
+        cache.get(myMediaFile, this::probe);
+
+        assertEquals(2, myProbeCount.get());
+    }
+
+    /**
+     * Tests that a result cached by a full probe isn't used by a lean probe, or the other way around.
+     *
+     * @throws IOException If the cache can't be read or written
+     */
+    @Test
+    public void testProbeModesDontShareResults() throws IOException {
+        final ProbeCache cache = new ProbeCache(myStoreFile, false, false);
+
+        cache.get(myMediaFile, this::probe);
+        cache.save();
+
+        new ProbeCache(myStoreFile, false, true).get(myMediaFile, this::probe);
+        new ProbeCache(myStoreFile, false, false).get(myMediaFile, this::probe);
+
+        assertEquals(2, myProbeCount.get());
+    }
+
+    /**
+     * Tests that the entries for media files that no longer exist are dropped when the cache is saved.
+     *
+     * @throws IOException If the cache can't be read or written
+     */
+    @Test
+    public void testSaveDropsDeletedFiles() throws IOException {
+        final Path otherFile = myTempFolder.newFile("other.mp3").toPath();
+        final ProbeCache cache = new ProbeCache(myStoreFile, false, false);
+
+        cache.get(myMediaFile, this::probe);
+        cache.get(otherFile, this::probe);
+        Files.delete(otherFile);
+        cache.save();
+
+        assertEquals(1, new ProbeCache(myStoreFile, false, false).size());
+    }
+
+    /**
+     * Tests that a store file in an unrecognized format is ignored.
+     *
+     * @throws IOException If the cache can't be read
+     */
+    @Test
+    public void testLoadUnrecognizedStore() throws IOException {
+        Files.write(myStoreFile, "something else entirely".getBytes(UTF_8));
+        assertEquals(0, new ProbeCache(myStoreFile, false, false).size());
+    }
+
+    /**
+     * A stand-in for FFprobe that counts the number of times it's called.
+     *
+     * @param aPath The path of a media file
+     * @return The test's media info
+     */
+    private MediaInfo probe(final Path aPath) {
+        myProbeCount.incrementAndGet();
+        return MEDIA_INFO;
+    }
+}
@@ -0,0 +1,247 @@
+
+package edu.ucla.library.services.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of ProbeMemo.
+ */
+public class ProbeMemoTest {
+
+    private static final MediaInfo MEDIA_INFO = new MediaInfo("mpeg", 30.0, 320, 240);
+
+    /**
+     * A folder for the test media files.
+     */
+    @Rule
+    public final TemporaryFolder myTempFolder = new TemporaryFolder();
+
+    private final AtomicInteger myProbeCount = new AtomicInteger();
+
+    private Path myFirstFile;
+
+    private Path mySecondFile;
+
+    /**
+     * Sets up the test media files.
+     *
+     * @throws IOException If the test media files can't be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        myFirstFile = myTempFolder.newFolder("media").toPath().resolve("first.mpg");
+        mySecondFile = myFirstFile.resolveSibling("second.mpg");
+        Files.write(myFirstFile, new byte[] { 1 });
+        Files.write(mySecondFile, new byte[] { 2 });
+    }
+
+    /**
+     * Tests that a media file is only probed once.
+     *
+     * @throws IOException If the stand-in probe fails
+     */
+    @Test
+    public void testGetProbesOnce() throws IOException {
+        final ProbeMemo memo = new ProbeMemo(10);
+
+        assertSame(MEDIA_INFO, memo.get(myFirstFile, this::probe));
+        assertSame(MEDIA_INFO, memo.get(myFirstFile.resolveSibling("../media/first.mpg"), this::probe));
+        assertEquals(1, myProbeCount.get());
+        assertEquals(1, memo.getHitCount());
+        assertEquals(1, memo.getMissCount());
+    }
+
+    /**
+     * Tests that the least recently used result is evicted once the memo is full.
+     *
+     * @throws IOException If the stand-in probe fails
+     */
+    @Test
+    public void testGetEvictsLeastRecentlyUsed() throws IOException {
+        final ProbeMemo memo = new ProbeMemo(1);
+
+        memo.get(myFirstFile, this::probe);
+        memo.get(mySecondFile, this::probe);
+        memo.get(myFirstFile, this::probe);
+
+        assertEquals(3, myProbeCount.get());
+        assertEquals(2, memo.getEvictionCount());
+    }
+
+    /**
+     * Tests that a media file that's changed since it was probed is probed again.
+     *
+     * @throws IOException If the stand-in probe fails or the media file can't be changed
+     */
+    @Test
+    public void testGetProbesChangedFileAgain() throws IOException {
+        final ProbeMemo memo = new ProbeMemo(10);
+
+        memo.get(myFirstFile, this::probe);
+        assertTrue(memo.contains(myFirstFile));
+
+        Files.write(myFirstFile, new byte[] { 1, 2 });
+        assertFalse(memo.contains(myFirstFile));
+        memo.get(myFirstFile, this::probe);
+
+        // A file that's replaced with one of the same size is told apart by its last modified time
+        Files.setLastModifiedTime(myFirstFile, FileTime.fromMillis(0));
+        memo.get(myFirstFile, this::probe);
+        memo.get(myFirstFile, this::probe);
+
+        assertEquals(3, myProbeCount.get());
+        assertEquals(1, memo.getHitCount());
+        assertEquals(0, memo.getEvictionCount());
+    }
+
+    /**
+     * Tests that a failed probe isn't memoized.
+     */
+    @Test
+    public void testGetDoesNotMemoizeFailures() {
+        final ProbeMemo memo = new ProbeMemo(10);
+
+        for (int index = 0; index < 2; index++) {
+            try {
+                memo.get(myFirstFile, path -> {
+                    myProbeCount.incrementAndGet();
+                    throw new IOException("bad media file");
+                });
+                fail("Expected the probe to fail");
+            } catch (final IOException details) {
+                assertEquals("bad media file", details.getMessage());
+            }
+        }
+
+        assertEquals(2, myProbeCount.get());
+    }
+
+    /**
+     * Tests that concurrent lookups of the same media file share a single probe.
+     *
+     * @throws Exception If the lookups can't be run
+     */
+    @Test
+    public void testGetSharesInFlightProbe() throws Exception {
+        final ProbeMemo memo = new ProbeMemo(10);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final List<Future<MediaInfo>> futures = new ArrayList<>();
+
+        try {
+            for (int index = 0; index < 4; index++) {
+                futures.add(executor.submit(() -> memo.get(myFirstFile, path -> probeAfter(release, path))));
+            }
+
+            release.countDown();
+
+            for (final Future<MediaInfo> future : futures) {
+                assertSame(MEDIA_INFO, future.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, myProbeCount.get());
+    }
+
+    /**
+     * Tests that a probe that fails with an error, rather than an exception, still finishes the lookups waiting on
+     * it, and isn't memoized.
+     *
+     * @throws Exception If the lookups can't be run
+     */
+    @Test
+    public void testGetFinishesWaitingLookupsOnError() throws Exception {
+        final ProbeMemo memo = new ProbeMemo(10);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final Future<MediaInfo> first;
+        final Future<MediaInfo> second;
+
+        try {
+            first = executor.submit(() -> memo.get(myFirstFile, path -> {
+                started.countDown();
+                probeAfter(release, path);
+                throw new StackOverflowError("probe overflowed");
+            }));
+
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            second = executor.submit(() -> memo.get(myFirstFile, this::probe));
+
+            while (memo.getHitCount() == 0) {
+                Thread.sleep(10);
+            }
+
+            release.countDown();
+
+            for (final Future<MediaInfo> future : List.of(first, second)) {
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                    fail("Expected the probe to fail");
+                } catch (final ExecutionException details) {
+                    assertTrue(details.getCause() instanceof StackOverflowError);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertFalse(memo.contains(myFirstFile));
+        assertSame(MEDIA_INFO, memo.get(myFirstFile, this::probe));
+    }
+
+    /**
+     * A stand-in for FFprobe that doesn't finish until it's released.
+     *
+     * @param aRelease A latch that releases the probe
+     * @param aPath The path of a media file
+     * @return The test's media info
+     * @throws IOException If the probe is interrupted before it's released
+     */
+    private MediaInfo probeAfter(final CountDownLatch aRelease, final Path aPath) throws IOException {
+        try {
+            aRelease.await(5, TimeUnit.SECONDS);
+        } catch (final InterruptedException details) {
+            throw new InterruptedIOException(details.getMessage());
+        }
+
+        return probe(aPath);
+    }
+
+    /**
+     * A stand-in for FFprobe that counts the number of times it's called.
+     *
+     * @param aPath The path of a media file
+     * @return The test's media info
+     */
+    private MediaInfo probe(final Path aPath) {
+        myProbeCount.incrementAndGet();
+        return MEDIA_INFO;
+    }
+}
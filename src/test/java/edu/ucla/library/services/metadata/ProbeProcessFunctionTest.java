@@ -0,0 +1,61 @@
+
+package edu.ucla.library.services.metadata;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests of ProbeProcessFunction.
+ */
+public class ProbeProcessFunctionTest {
+
+    /**
+     * Tests that a process that runs past its deadline is killed.
+     *
+     * @throws IOException If the process can't be started
+     * @throws InterruptedException If the test is interrupted while waiting for the process
+     */
+    @Test
+    public void testProcessIsKilledAtDeadline() throws IOException, InterruptedException {
+        final ProbeProcessFunction function = new ProbeProcessFunction(200, 0);
+        final Process process = function.run(List.of("sleep", "30"));
+
+        assertTrue(process.waitFor(10, TimeUnit.SECONDS));
+        assertTrue(function.hasTimedOut());
+    }
+
+    /**
+     * Tests that a process that finishes in time isn't reported as having timed out.
+     *
+     * @throws IOException If the process can't be started
+     * @throws InterruptedException If the test is interrupted while waiting for the process
+     */
+    @Test
+    public void testProcessFinishesBeforeDeadline() throws IOException, InterruptedException {
+        final ProbeProcessFunction function = new ProbeProcessFunction(10_000, 0);
+
+        function.run(List.of("true")).waitFor();
+        assertFalse(function.hasTimedOut());
+    }
+
+    /**
+     * Tests that a process isn't started until a running process has exited when the limit has been reached.
+     *
+     * @throws IOException If a process can't be started
+     * @throws InterruptedException If the test is interrupted while waiting for a process
+     */
+    @Test
+    public void testProcessesAreLimited() throws IOException, InterruptedException {
+        final ProbeProcessFunction function = new ProbeProcessFunction(0, 1);
+        final Process first = function.run(List.of("sleep", "0.5"));
+
+        function.run(List.of("true")).waitFor();
+        assertFalse(first.isAlive());
+    }
+}
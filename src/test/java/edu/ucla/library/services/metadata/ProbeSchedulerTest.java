@@ -0,0 +1,228 @@
+
+package edu.ucla.library.services.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of ProbeScheduler.
+ */
+public class ProbeSchedulerTest {
+
+    /**
+     * A folder for the test media files.
+     */
+    @Rule
+    public final TemporaryFolder myTempFolder = new TemporaryFolder();
+
+    private ExecutorService myExecutor;
+
+    private List<String> myStartOrder;
+
+    private CountDownLatch myGate;
+
+    /**
+     * Sets up a worker pool for the scheduled rows.
+     */
+    @Before
+    public void setUp() {
+        myExecutor = Executors.newFixedThreadPool(4);
+        myStartOrder = new CopyOnWriteArrayList<>();
+        myGate = new CountDownLatch(1);
+    }
+
+    /**
+     * Stops the worker pool.
+     */
+    @After
+    public void tearDown() {
+        myExecutor.shutdownNow();
+    }
+
+    /**
+     * Tests that the rows with the largest media files are started first, after the rows that won't be probed, and
+     * that each row's result is still its own.
+     *
+     * @throws Exception If the test media files can't be written or the rows fail
+     */
+    @Test(timeout = 10_000)
+    public void testLargestFirst() throws Exception {
+        final ProbeScheduler scheduler = blockedScheduler(ProbeScheduler.ProbeOrder.LARGEST_FIRST);
+        final List<Future<String>> results = new ArrayList<>();
+
+        results.add(submit(scheduler, "small", newMediaFile("small.wav", 10)));
+        results.add(submit(scheduler, "large", newMediaFile("large.mov", 10_000)));
+        results.add(submit(scheduler, "none", null));
+        results.add(submit(scheduler, "medium", newMediaFile("medium.mp3", 1_000)));
+        myGate.countDown();
+
+        assertEquals(List.of("small", "large", "none", "medium"), getAll(results));
+        assertEquals(List.of("blocker", "none", "large", "medium", "small"), myStartOrder);
+    }
+
+    /**
+     * Tests that the rows are grouped by the directories of their media files, and in inode order within them.
+     *
+     * @throws Exception If the test media files can't be written or the rows fail
+     */
+    @Test(timeout = 10_000)
+    public void testLocality() throws Exception {
+        final ProbeScheduler scheduler = blockedScheduler(ProbeScheduler.ProbeOrder.LOCALITY);
+        final List<Path> mediaFiles = List.of(newMediaFile("b/one.wav", 1), newMediaFile("a/two.wav", 1),
+                newMediaFile("b/three.wav", 1), newMediaFile("a/four.wav", 1));
+        final List<Future<String>> results = new ArrayList<>();
+        final List<String> expected = new ArrayList<>(List.of("blocker"));
+
+        for (final Path mediaFile : mediaFiles) {
+            results.add(submit(scheduler, mediaFile.getFileName().toString(), mediaFile));
+        }
+
+        myGate.countDown();
+        getAll(results);
+
+        expected.addAll(mediaFiles.stream().sorted(Comparator.comparing((Path path) -> path.getParent().toString())
+                .thenComparingLong(ProbeSchedulerTest::getInode)).map(path -> path.getFileName().toString())
+                .collect(Collectors.toList()));
+        assertEquals(expected, myStartOrder);
+    }
+
+    /**
+     * Tests that no more than the maximum number of rows run at once, even though the pool has more threads.
+     *
+     * @throws Exception If the rows fail
+     */
+    @Test(timeout = 10_000)
+    public void testMaxRunning() throws Exception {
+        final ProbeScheduler scheduler = new ProbeScheduler(myExecutor, 2, ProbeScheduler.ProbeOrder.FIFO);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final List<Future<Integer>> results = new ArrayList<>();
+
+        for (int index = 0; index < 20; index++) {
+            final int row = index;
+
+            results.add(scheduler.submit(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(5);
+                running.decrementAndGet();
+                return row;
+            }, null));
+        }
+
+        for (int index = 0; index < results.size(); index++) {
+            assertEquals(index, results.get(index).get().intValue());
+        }
+
+        assertTrue(maxRunning.get() <= 2);
+    }
+
+    /**
+     * Tests that a row whose mount is busy waits in the queue, without a thread, while the rows for another mount
+     * run, and that the rows use the turns they were started with.
+     *
+     * @throws Exception If the rows fail
+     */
+    @Test(timeout = 10_000)
+    public void testRowsWaitForMountWithoutThread() throws Exception {
+        final MountLimiter limiter = new MountLimiter(4);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final ProbeScheduler scheduler = new ProbeScheduler(executor, 2, ProbeScheduler.ProbeOrder.FIFO, limiter);
+
+        try {
+            final Future<String> slowRow = submit(scheduler, limiter, "slow1", "/mnt/nas", true);
+            final Future<String> waitingRow = submit(scheduler, limiter, "slow2", "/mnt/nas", false);
+            final Future<String> fastRow1 = submit(scheduler, limiter, "fast1", "/mnt/ssd", false);
+            final Future<String> fastRow2 = submit(scheduler, limiter, "fast2", "/mnt/ssd", false);
+
+            // With only two threads, the fast rows could only both finish if the waiting row wasn't holding one
+            assertEquals("fast1", fastRow1.get());
+            assertEquals("fast2", fastRow2.get());
+            assertEquals(List.of("slow1", "fast1", "fast2"), myStartOrder);
+
+            myGate.countDown();
+            assertEquals("slow1", slowRow.get());
+            assertEquals("slow2", waitingRow.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private ProbeScheduler blockedScheduler(final ProbeScheduler.ProbeOrder aOrder) {
+        final ProbeScheduler scheduler = new ProbeScheduler(myExecutor, 1, aOrder);
+
+        // The first row holds the only running slot, so the rest are queued and ordered before any of them start
+        submit(scheduler, "blocker", null);
+        return scheduler;
+    }
+
+    private Future<String> submit(final ProbeScheduler aScheduler, final String aName, final Path aMediaFile) {
+        return aScheduler.submit(() -> {
+            myStartOrder.add(aName);
+            myGate.await();
+            return aName;
+        }, aMediaFile);
+    }
+
+    private Future<String> submit(final ProbeScheduler aScheduler, final MountLimiter aLimiter, final String aName,
+            final String aMount, final boolean aRowWaitsForGate) {
+        return aScheduler.submit(() -> {
+            myStartOrder.add(aName);
+            aLimiter.acquire(aMount); // Doesn't wait, since the row was started with a turn on its mount
+
+            try {
+                if (aRowWaitsForGate) {
+                    myGate.await();
+                }
+            } finally {
+                aLimiter.release(aMount, 1_000, true);
+            }
+
+            return aName;
+        }, null, aMount);
+    }
+
+    private Path newMediaFile(final String aName, final int aSize) throws IOException {
+        final Path mediaFile = myTempFolder.getRoot().toPath().resolve(aName);
+
+        Files.createDirectories(mediaFile.getParent());
+        return Files.write(mediaFile, new byte[aSize]);
+    }
+
+    private static List<String> getAll(final List<Future<String>> aResults) throws Exception {
+        final List<String> values = new ArrayList<>();
+
+        for (final Future<String> result : aResults) {
+            values.add(result.get());
+        }
+
+        return values;
+    }
+
+    private static long getInode(final Path aPath) {
+        try {
+            return ((Number) Files.getAttribute(aPath, "unix:ino")).longValue();
+        } catch (final IOException | UnsupportedOperationException details) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+
+package edu.ucla.library.services.metadata;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+
+/**
+ * Tests of RowReadahead.
+ */
+public class RowReadaheadTest {
+
+    private static final String CSV = "a\nb\nc\nd\n";
+
+    /**
+     * Tests that rows are read ahead by the readahead distance, and returned in order.
+     *
+     * @throws IOException If the rows can't be read
+     * @throws CsvValidationException If a row isn't valid CSV
+     */
+    @Test
+    public void testReadahead() throws IOException, CsvValidationException {
+        final List<String> readRows = new ArrayList<>();
+        final RowReadahead reader = new RowReadahead(new CSVReader(new StringReader(CSV)), 2,
+                row -> readRows.add(row[0]));
+
+        assertArrayEquals(new String[] { "a" }, reader.readNext());
+        assertEquals(List.of("a", "b", "c"), readRows);
+        assertArrayEquals(new String[] { "b" }, reader.readNext());
+        assertEquals(List.of("a", "b", "c", "d"), readRows);
+        assertArrayEquals(new String[] { "c" }, reader.readNext());
+        assertArrayEquals(new String[] { "d" }, reader.readNext());
+        assertNull(reader.readNext());
+    }
+
+    /**
+     * Tests that the rows before one that can't be read are returned before the exception is thrown.
+     *
+     * @throws IOException If the rows can't be read
+     * @throws CsvValidationException If a row isn't valid CSV
+     */
+    @Test
+    public void testReadErrorIsDeferred() throws IOException, CsvValidationException {
+        final CSVReader csvReader = new CSVReader(new StringReader(CSV)) {
+
+            @Override
+            public String[] readNext() throws IOException, CsvValidationException {
+                final String[] row = super.readNext();
+
+                if (row != null && "c".equals(row[0])) {
+                    throw new CsvValidationException("c");
+                }
+
+                return row;
+            }
+        };
+        final RowReadahead reader = new RowReadahead(csvReader, 5, row -> {});
+
+        assertArrayEquals(new String[] { "a" }, reader.readNext());
+        assertArrayEquals(new String[] { "b" }, reader.readNext());
+
+        try {
+            reader.readNext();
+        } catch (final CsvValidationException details) {
+            assertEquals("c", details.getMessage());
+            return;
+        }
+
+        throw new AssertionError("The read error wasn't thrown");
+    }
+}
@@ -0,0 +1,86 @@
+
+package edu.ucla.library.services.metadata;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of RunMetrics.
+ */
+public class RunMetricsTest {
+
+    /**
+     * A folder for the metrics files written by the tests.
+     */
+    @Rule
+    public final TemporaryFolder myTempFolder = new TemporaryFolder();
+
+    /**
+     * Tests that cache hits are the lookups that didn't need a probe.
+     */
+    @Test
+    public void testCacheHits() {
+        final RunMetrics metrics = newMetrics();
+
+        assertEquals(2, metrics.getCacheHitCount());
+        assertEquals(3, metrics.getRowCount());
+        assertEquals(2, metrics.getSummary().size()); // The run and the one stage that was timed
+    }
+
+    /**
+     * Tests writing the metrics in the Prometheus text format.
+     *
+     * @throws IOException If the metrics file can't be written
+     */
+    @Test
+    public void testSavePrometheus() throws IOException {
+        final Path path = myTempFolder.getRoot().toPath().resolve("metagetter" + RunMetrics.PROMETHEUS_EXTENSION);
+        final String metrics;
+
+        newMetrics().save(path);
+        metrics = Files.readString(path, UTF_8);
+
+        assertTrue(metrics.contains("\nmetagetter_rows_total 3\n"));
+        assertTrue(metrics.contains("metagetter_stage_latency_seconds_count{stage=\"probe\"} 1\n"));
+    }
+
+    /**
+     * Tests writing the metrics as JSON.
+     *
+     * @throws IOException If the metrics file can't be written
+     */
+    @Test
+    public void testSaveJson() throws IOException {
+        final Path path = myTempFolder.getRoot().toPath().resolve("metagetter.json");
+        final String metrics;
+
+        newMetrics().save(path);
+        metrics = Files.readString(path, UTF_8);
+
+        assertTrue(metrics.contains("\"cacheHits\": 2,"));
+        assertTrue(metrics.trim().startsWith("{") && metrics.trim().endsWith("}"));
+    }
+
+    private static RunMetrics newMetrics() {
+        final RunMetrics metrics = new RunMetrics();
+
+        for (int index = 0; index < 3; index++) {
+            metrics.mediaLookedUp();
+            metrics.rowWritten();
+        }
+
+        metrics.mediaProbed();
+        metrics.record(RunMetrics.Stage.PROBE, System.nanoTime());
+        metrics.stop();
+        return metrics;
+    }
+}
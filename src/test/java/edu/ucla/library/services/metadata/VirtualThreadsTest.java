@@ -0,0 +1,37 @@
+
+package edu.ucla.library.services.metadata;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Tests of VirtualThreads.
+ */
+public class VirtualThreadsTest {
+
+    /**
+     * Tests that a virtual thread executor is only available from Java 21, and that its tasks run on virtual threads.
+     *
+     * @throws Exception If a task can't be run
+     */
+    @Test
+    public void testNewPerTaskExecutor() throws Exception {
+        final Optional<ExecutorService> executor = VirtualThreads.newPerTaskExecutor();
+
+        assertEquals(Runtime.version().feature() >= 21, executor.isPresent());
+
+        if (executor.isPresent()) {
+            final Future<Object> isVirtual = executor.get().submit(() -> {
+                return Thread.class.getMethod("isVirtual").invoke(Thread.currentThread());
+            });
+
+            assertEquals(Boolean.TRUE, isVirtual.get());
+            executor.get().shutdown();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+
+package edu.ucla.library.services.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import picocli.CommandLine;
+
+/**
+ * Tests of WorkSpool.
+ */
+public class WorkSpoolTest {
+
+    private static final Path CSV_FILE = Path.of("src/test/resources/good_csvs/sales.csv");
+
+    private static final Path MEDIA_PATH = Path.of("src/test/resources/media/");
+
+    private static final long LEASE_TIME = 60_000;
+
+    /**
+     * A folder for the spool and output directories.
+     */
+    @Rule
+    public final TemporaryFolder myTempFolder = new TemporaryFolder();
+
+    private Path mySpoolDir;
+
+    private MetadataSetter mySetter;
+
+    /**
+     * Sets up a spool directory and a MetadataSetter with a stub prober.
+     *
+     * @throws IOException If the spool directory can't be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        mySpoolDir = myTempFolder.newFolder("spool").toPath();
+        mySetter = new MetadataSetter(path -> new MediaInfo("mpeg", 1, 320, 240),
+                new MediaPathResolver(List.of(MEDIA_PATH.toString()), false));
+    }
+
+    /**
+     * Tests that batches enriched by different workers merge into the same CSV file as enriching it in one go.
+     *
+     * @throws Exception If the CSV file can't be planned, enriched, or merged
+     */
+    @Test
+    public void testMergeMatchesSingleRun() throws Exception {
+        final WorkSpool planner = new WorkSpool(mySpoolDir, LEASE_TIME);
+        final List<WorkSpool> workers = List.of(new WorkSpool(mySpoolDir, LEASE_TIME),
+                new WorkSpool(mySpoolDir, LEASE_TIME));
+        final Path outputFile = myTempFolder.getRoot().toPath().resolve(CSV_FILE.getFileName());
+        final StringWriter expected = new StringWriter();
+        int index = 0;
+
+        assertEquals(2, planner.plan(CSV_FILE, 2));
+        assertFalse(planner.isFinished());
+
+        for (Optional<WorkSpool.Lease> lease = workers.get(0).claim(); lease.isPresent();
+                lease = workers.get(++index % workers.size()).claim()) {
+            enrich(lease.get());
+        }
+
+        assertTrue(planner.isFinished());
+        assertEquals(2, planner.merge(CSV_FILE.getFileName().toString(), outputFile));
+
+        try (Reader reader = Files.newBufferedReader(CSV_FILE)) {
+            mySetter.addMetaToCsv(reader, expected, new CsvSummary(CSV_FILE));
+        }
+
+        assertEquals(expected.toString(), Files.readString(outputFile));
+    }
+
+    /**
+     * Tests that a batch can only be leased by one worker at a time.
+     *
+     * @throws Exception If the CSV file can't be planned or the batches claimed
+     */
+    @Test
+    public void testLeaseIsExclusive() throws Exception {
+        final WorkSpool worker1 = new WorkSpool(mySpoolDir, LEASE_TIME);
+        final WorkSpool worker2 = new WorkSpool(mySpoolDir, LEASE_TIME);
+        final List<String> names = new ArrayList<>();
+
+        worker1.plan(CSV_FILE, 2);
+        names.add(worker1.claim().orElseThrow().getName());
+        names.add(worker2.claim().orElseThrow().getName());
+
+        assertEquals(List.of("sales.csv#000001", "sales.csv#000002"), names);
+        assertTrue(worker1.claim().isEmpty());
+        assertTrue(worker2.claim().isEmpty());
+    }
+
+    /**
+     * Tests that a lease that isn't renewed expires, and its batch is claimed again, but a renewed one doesn't.
+     *
+     * @throws Exception If the CSV file can't be planned or the batches claimed
+     */
+    @Test
+    public void testExpiredLeaseIsClaimedAgain() throws Exception {
+        final WorkSpool deadWorker = new WorkSpool(mySpoolDir, LEASE_TIME);
+        final WorkSpool worker = new WorkSpool(mySpoolDir, LEASE_TIME);
+        final WorkSpool.Lease deadLease;
+        final WorkSpool.Lease lease;
+
+        deadWorker.plan(CSV_FILE, 10);
+        deadLease = deadWorker.claim().orElseThrow();
+        assertTrue(worker.claim().isEmpty());
+
+        ageLeases(LEASE_TIME * 2);
+        lease = worker.claim().orElseThrow();
+        assertEquals(deadLease.getName(), lease.getName());
+
+        ageLeases(LEASE_TIME * 2);
+        lease.renew();
+        assertTrue(deadWorker.claim().isEmpty());
+    }
+
+    /**
+     * Tests that a worker whose lease was taken over can't renew, fail, or release the lease that took it over, and
+     * leaves the batch to the worker that took it over.
+     *
+     * @throws Exception If the CSV file can't be planned, enriched, or merged
+     */
+    @Test
+    public void testLostLeaseIsLeftToNewHolder() throws Exception {
+        final WorkSpool slowWorker = new WorkSpool(mySpoolDir, LEASE_TIME);
+        final WorkSpool worker = new WorkSpool(mySpoolDir, LEASE_TIME);
+        final WorkSpool.Lease lostLease;
+        final WorkSpool.Lease lease;
+
+        slowWorker.plan(CSV_FILE, 10);
+        lostLease = slowWorker.claim().orElseThrow();
+        ageLeases(LEASE_TIME * 2);
+        lease = worker.claim().orElseThrow();
+
+        assertFalse(lostLease.isHeld());
+        assertTrue(lease.isHeld());
+
+        lostLease.release();
+        assertTrue(lease.isHeld());
+        assertTrue(slowWorker.claim().isEmpty());
+
+        ageLeases(LEASE_TIME * 2);
+        lostLease.renew();
+        assertFalse(lostLease.fail("Slow worker's failure"));
+        assertTrue(lease.isHeld());
+
+        enrich(lease);
+        assertFalse(lostLease.complete());
+        assertEquals(1, slowWorker.merge(CSV_FILE.getFileName().toString(),
+                myTempFolder.getRoot().toPath().resolve(CSV_FILE.getFileName())));
+    }
+
+    /**
+     * Tests that a CSV file isn't merged until all of its batches are enriched, and a failed batch isn't claimed
+     * again.
+     *
+     * @throws Exception If the CSV file can't be planned or the batches claimed
+     */
+    @Test
+    public void testMergeNeedsEveryBatch() throws Exception {
+        final WorkSpool spool = new WorkSpool(mySpoolDir, LEASE_TIME);
+        final Path outputFile = myTempFolder.getRoot().toPath().resolve(CSV_FILE.getFileName());
+
+        spool.plan(CSV_FILE, 2);
+        enrich(spool.claim().orElseThrow());
+        assertMergeFails(spool, outputFile, "000002");
+
+        spool.claim().orElseThrow().fail("Bad batch");
+        assertTrue(spool.isFinished());
+        assertTrue(spool.claim().isEmpty());
+        assertMergeFails(spool, outputFile, "Bad batch");
+        assertFalse(Files.exists(outputFile));
+    }
+
+    /**
+     * Tests that a batch with a row whose '~' media file is missing is recorded as failed, rather than stopping the
+     * worker and leaving the batch for the next worker to fail on.
+     *
+     * @throws Exception If the CSV file can't be planned or the batch enriched
+     */
+    @Test
+    public void testMissingMediaFileFailsBatch() throws Exception {
+        final Path csvFile = Files.write(myTempFolder.newFile("missing.csv").toPath(), List.of(
+                "Item ARK,Object Type,File Name", "ark:/1,Work,ephraim/video/missing~1.mpg"));
+        final WorkSpool spool = new WorkSpool(mySpoolDir, LEASE_TIME);
+        final SpoolCommand.Work work = new SpoolCommand.Work();
+        final ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor();
+
+        new CommandLine(work).parseArgs(mySpoolDir.toString(), MEDIA_PATH.toString(), "ffprobe");
+        spool.plan(csvFile, 10);
+
+        try {
+            assertFalse(work.enrich(mySetter, spool.claim().orElseThrow(), renewer));
+        } finally {
+            renewer.shutdownNow();
+        }
+
+        assertTrue(spool.isFinished());
+        assertTrue(spool.claim().isEmpty());
+
+        try {
+            spool.merge(csvFile.getFileName().toString(), myTempFolder.getRoot().toPath().resolve("out.csv"));
+            fail("Expected the merge to fail");
+        } catch (final IOException details) {
+            assertTrue(details.getMessage(), details.getMessage().contains("missing~1.mpg"));
+        }
+    }
+
+    /**
+     * Tests that a CSV file can't be planned into a spool twice.
+     *
+     * @throws Exception If the CSV file can't be planned the first time
+     */
+    @Test
+    public void testPlanTwice() throws Exception {
+        final WorkSpool spool = new WorkSpool(mySpoolDir, LEASE_TIME);
+
+        spool.plan(CSV_FILE, 2);
+
+        try {
+            spool.plan(CSV_FILE, 2);
+            fail("Expected the second plan to fail");
+        } catch (final IOException details) {
+            assertEquals(List.of("sales.csv"), spool.getCsvNames());
+        }
+    }
+
+    private void enrich(final WorkSpool.Lease aLease) throws Exception {
+        try (Reader reader = Files.newBufferedReader(aLease.getBatchFile()); Writer writer = aLease.openResult()) {
+            mySetter.addMetaToCsv(reader, writer, new CsvSummary(aLease.getBatchFile()));
+        }
+
+        assertTrue(aLease.complete());
+    }
+
+    private void ageLeases(final long aAge) throws IOException {
+        final FileTime past = FileTime.fromMillis(System.currentTimeMillis() - aAge);
+
+        try (Stream<Path> paths = Files.walk(mySpoolDir.resolve(WorkSpool.LEASES_DIR))) {
+            for (final Path path : paths.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                Files.setLastModifiedTime(path, past);
+            }
+        }
+    }
+
+    private static void assertMergeFails(final WorkSpool aSpool, final Path aOutputFile, final String aReason)
+            throws Exception {
+        try {
+            aSpool.merge(CSV_FILE.getFileName().toString(), aOutputFile);
+            fail("Expected the merge to fail");
+        } catch (final IOException details) {
+            assertTrue(details.getMessage(), details.getMessage().contains(aReason));
+        }
+    }
+}